@@ -1,5 +1,6 @@
 package com.redhat.cloud.notifications.db;
 
+import com.redhat.cloud.notifications.events.RoutingCache;
 import com.redhat.cloud.notifications.models.Application;
 import com.redhat.cloud.notifications.models.Bundle;
 import com.redhat.cloud.notifications.models.EventType;
@@ -21,6 +22,10 @@ public class ApplicationResources {
     @Inject
     Mutiny.Session session;
 
+    // The routes of all the accounts are keyed by the bundle, application and event type names.
+    @Inject
+    RoutingCache routingCache;
+
     public Uni<Application> createApp(Application app) {
         return session.find(Bundle.class, app.getBundleId())
                 .onItem().ifNull().failWith(new NotFoundException())
@@ -40,7 +45,8 @@ public class ApplicationResources {
                 .setParameter("displayName", app.getDisplayName())
                 .setParameter("id", id)
                 .executeUpdate()
-                .call(session::flush);
+                .call(session::flush)
+                .invoke(() -> routingCache.invalidateAll());
     }
 
     public Uni<Boolean> deleteApplication(UUID id) {
@@ -49,6 +55,7 @@ public class ApplicationResources {
                 .setParameter("id", id)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> routingCache.invalidateAll())
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -115,6 +122,7 @@ public class ApplicationResources {
                 .setParameter("id", id)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> routingCache.invalidateAll())
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
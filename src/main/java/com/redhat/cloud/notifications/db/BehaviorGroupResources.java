@@ -1,5 +1,6 @@
 package com.redhat.cloud.notifications.db;
 
+import com.redhat.cloud.notifications.events.RoutingCache;
 import com.redhat.cloud.notifications.models.BehaviorGroup;
 import com.redhat.cloud.notifications.models.Bundle;
 import com.redhat.cloud.notifications.models.EventType;
@@ -28,6 +29,9 @@ public class BehaviorGroupResources {
     @Inject
     Mutiny.Session session;
 
+    @Inject
+    RoutingCache routingCache;
+
     public Uni<BehaviorGroup> create(String accountId, BehaviorGroup behaviorGroup) {
         return Uni.createFrom().item(behaviorGroup)
                 .onItem().transform(bg -> {
@@ -68,26 +72,31 @@ public class BehaviorGroupResources {
                 .setParameter("id", behaviorGroupId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> routingCache.invalidate(accountId))
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
     public Uni<Boolean> addEventTypeBehavior(String accountId, UUID eventTypeId, UUID behaviorGroupId) {
-        String query = "SELECT COUNT(*) FROM BehaviorGroup WHERE accountId = :accountId AND id = :id";
-        return session.createQuery(query, Long.class)
-                .setParameter("accountId", accountId)
-                .setParameter("id", behaviorGroupId)
-                .getSingleResult()
-                .onItem().transform(count -> {
-                    if (count == 0L) {
-                        throw new NotFoundException("Behavior group not found: " + behaviorGroupId);
-                    } else {
-                        EventType eventType = session.getReference(EventType.class, eventTypeId);
-                        BehaviorGroup behaviorGroup = session.getReference(BehaviorGroup.class, behaviorGroupId);
-                        return new EventTypeBehavior(eventType, behaviorGroup);
-                    }
-                })
-                .onItem().transformToUni(session::persist)
-                .onItem().call(session::flush)
+        return session.withTransaction(tx -> {
+            String query = "SELECT COUNT(*) FROM BehaviorGroup WHERE accountId = :accountId AND id = :id";
+            return session.createQuery(query, Long.class)
+                    .setParameter("accountId", accountId)
+                    .setParameter("id", behaviorGroupId)
+                    .getSingleResult()
+                    .onItem().transform(count -> {
+                        if (count == 0L) {
+                            throw new NotFoundException("Behavior group not found: " + behaviorGroupId);
+                        } else {
+                            EventType eventType = session.getReference(EventType.class, eventTypeId);
+                            BehaviorGroup behaviorGroup = session.getReference(BehaviorGroup.class, behaviorGroupId);
+                            return new EventTypeBehavior(eventType, behaviorGroup);
+                        }
+                    })
+                    .onItem().transformToUni(session::persist)
+                    .onItem().call(session::flush)
+                    .onItem().call(() -> insertRoutes(behaviorGroupId, eventTypeId));
+        })
+                .invoke(() -> routingCache.invalidate(accountId))
                 .replaceWith(Boolean.TRUE)
                 .onFailure().recoverWithItem(failure -> {
                     LOGGER.log(Level.WARNING, "Event type behavior addition failed", failure);
@@ -96,14 +105,25 @@ public class BehaviorGroupResources {
     }
 
     public Uni<Boolean> deleteEventTypeBehavior(String accountId, UUID eventTypeId, UUID behaviorGroupId) {
-        String query = "DELETE FROM EventTypeBehavior WHERE eventType.id = :eventTypeId AND behaviorGroup.id = :behaviorGroupId " +
-                "AND behaviorGroup.id IN (SELECT id FROM BehaviorGroup WHERE accountId = :accountId)";
-        return session.createQuery(query)
-                .setParameter("eventTypeId", eventTypeId)
-                .setParameter("behaviorGroupId", behaviorGroupId)
-                .setParameter("accountId", accountId)
-                .executeUpdate()
-                .call(session::flush)
+        return session.withTransaction(tx -> {
+            String query = "DELETE FROM EventTypeBehavior WHERE eventType.id = :eventTypeId AND behaviorGroup.id = :behaviorGroupId " +
+                    "AND behaviorGroup.id IN (SELECT id FROM BehaviorGroup WHERE accountId = :accountId)";
+            return session.createQuery(query)
+                    .setParameter("eventTypeId", eventTypeId)
+                    .setParameter("behaviorGroupId", behaviorGroupId)
+                    .setParameter("accountId", accountId)
+                    .executeUpdate()
+                    .call(() -> {
+                        String routesQuery = "DELETE FROM behavior_group_route " +
+                                "WHERE event_type_id = :eventTypeId AND behavior_group_id = :behaviorGroupId AND account_id = :accountId";
+                        return session.createNativeQuery(routesQuery)
+                                .setParameter("eventTypeId", eventTypeId)
+                                .setParameter("behaviorGroupId", behaviorGroupId)
+                                .setParameter("accountId", accountId)
+                                .executeUpdate();
+                    });
+        })
+                .invoke(() -> routingCache.invalidate(accountId))
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -188,20 +208,63 @@ public class BehaviorGroupResources {
 
                     })
                     .collect().asList()
+                    // The routes of the behavior group are rebuilt from its new actions.
+                    .call(() -> deleteRoutes(behaviorGroupId))
+                    .call(() -> insertRoutes(behaviorGroupId, null))
                     .replaceWith(Boolean.TRUE)
                     // The following exception will be thrown if the behavior group is not found with the first query.
                     .onFailure(NoResultException.class).recoverWithItem(Boolean.FALSE);
-        });
+        }).invoke(() -> routingCache.invalidate(accountId));
     }
 
     public Uni<Boolean> muteEventType(String accountId, UUID eventTypeId) {
-        String query = "DELETE FROM EventTypeBehavior b " +
-                "WHERE b.behaviorGroup.id IN (SELECT id FROM BehaviorGroup WHERE accountId = :accountId) AND b.eventType.id = :eventTypeId";
-        return session.createQuery(query)
-                .setParameter("accountId", accountId)
-                .setParameter("eventTypeId", eventTypeId)
-                .executeUpdate()
-                .call(session::flush)
+        return session.withTransaction(tx -> {
+            String query = "DELETE FROM EventTypeBehavior b " +
+                    "WHERE b.behaviorGroup.id IN (SELECT id FROM BehaviorGroup WHERE accountId = :accountId) AND b.eventType.id = :eventTypeId";
+            return session.createQuery(query)
+                    .setParameter("accountId", accountId)
+                    .setParameter("eventTypeId", eventTypeId)
+                    .executeUpdate()
+                    .call(() -> {
+                        String routesQuery = "DELETE FROM behavior_group_route WHERE account_id = :accountId AND event_type_id = :eventTypeId";
+                        return session.createNativeQuery(routesQuery)
+                                .setParameter("accountId", accountId)
+                                .setParameter("eventTypeId", eventTypeId)
+                                .executeUpdate();
+                    });
+        })
+                .invoke(() -> routingCache.invalidate(accountId))
                 .onItem().transform(rowCount -> rowCount > 0);
     }
+
+    /*
+     * The behavior_group_route table is a denormalized copy of the event_type_behavior and behavior_group_action
+     * tables, used to resolve the target endpoints of an event with a single index lookup. It must always be updated
+     * within the transaction which modifies one of these tables. Deletions of behavior groups, event types and
+     * endpoints are cascaded by the DB.
+     */
+    private Uni<Integer> deleteRoutes(UUID behaviorGroupId) {
+        String query = "DELETE FROM behavior_group_route WHERE behavior_group_id = :behaviorGroupId";
+        return session.createNativeQuery(query)
+                .setParameter("behaviorGroupId", behaviorGroupId)
+                .executeUpdate();
+    }
+
+    // Inserts the routes of the behavior group, optionally limited to a single event type.
+    private Uni<Integer> insertRoutes(UUID behaviorGroupId, UUID eventTypeId) {
+        String query = "INSERT INTO behavior_group_route (account_id, event_type_id, behavior_group_id, endpoint_id, position) " +
+                "SELECT bg.account_id, etb.event_type_id, bg.id, bga.endpoint_id, bga.position FROM behavior_group bg " +
+                "JOIN event_type_behavior etb ON etb.behavior_group_id = bg.id " +
+                "JOIN behavior_group_action bga ON bga.behavior_group_id = bg.id " +
+                "WHERE bg.id = :behaviorGroupId";
+        if (eventTypeId != null) {
+            query += " AND etb.event_type_id = :eventTypeId";
+        }
+        Mutiny.Query<Object> mutinyQuery = session.createNativeQuery(query)
+                .setParameter("behaviorGroupId", behaviorGroupId);
+        if (eventTypeId != null) {
+            mutinyQuery = mutinyQuery.setParameter("eventTypeId", eventTypeId);
+        }
+        return mutinyQuery.executeUpdate();
+    }
 }
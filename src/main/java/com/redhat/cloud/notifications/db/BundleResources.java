@@ -1,5 +1,6 @@
 package com.redhat.cloud.notifications.db;
 
+import com.redhat.cloud.notifications.events.RoutingCache;
 import com.redhat.cloud.notifications.models.Application;
 import com.redhat.cloud.notifications.models.Bundle;
 import io.smallrye.mutiny.Uni;
@@ -20,6 +21,10 @@ public class BundleResources {
     @Inject
     Mutiny.Session session;
 
+    // The routes of all the accounts are keyed by the bundle, application and event type names.
+    @Inject
+    RoutingCache routingCache;
+
     public Uni<Bundle> createBundle(Bundle bundle) {
         // The returned bundle will contain an ID and a creation timestamp.
         return Uni.createFrom().item(bundle)
@@ -52,7 +57,8 @@ public class BundleResources {
                 .setParameter("displayName", bundle.getDisplayName())
                 .setParameter("id", id)
                 .executeUpdate()
-                .call(session::flush);
+                .call(session::flush)
+                .invoke(() -> routingCache.invalidateAll());
     }
 
     public Uni<Boolean> deleteBundle(UUID id) {
@@ -61,6 +67,7 @@ public class BundleResources {
                 .setParameter("id", id)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> routingCache.invalidateAll())
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
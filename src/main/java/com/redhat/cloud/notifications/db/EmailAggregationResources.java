@@ -2,13 +2,16 @@ package com.redhat.cloud.notifications.db;
 
 import com.redhat.cloud.notifications.models.EmailAggregation;
 import com.redhat.cloud.notifications.models.EmailAggregationKey;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
 import org.hibernate.reactive.mutiny.Mutiny;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @ApplicationScoped
 public class EmailAggregationResources {
@@ -24,6 +27,29 @@ public class EmailAggregationResources {
                 .onFailure().recoverWithItem(Boolean.FALSE);
     }
 
+    /**
+     * Merges the partial state of an aggregator into the running aggregation of the key and period, which is created if
+     * needed. The entries of the partial state replace the entries with the same name of the running aggregation. The
+     * creation date of the aggregation must be the end of the aggregation period. A merge which started before the end
+     * of the period can still commit after the aggregation was read, see {@link #purgeSentAggregation}.
+     */
+    public Uni<Boolean> mergeEmailAggregation(EmailAggregation aggregation) {
+        // The payload column is a text column, the partial states are only merged as jsonb.
+        String query = "INSERT INTO email_aggregation (account_id, bundle, application, created, payload, pre_aggregated) " +
+                "VALUES (:accountId, :bundleName, :applicationName, :created, :payload, TRUE) " +
+                "ON CONFLICT (account_id, bundle, application, created) WHERE pre_aggregated " +
+                "DO UPDATE SET payload = CAST(CAST(email_aggregation.payload AS jsonb) || CAST(EXCLUDED.payload AS jsonb) AS text)";
+        return session.createNativeQuery(query)
+                .setParameter("accountId", aggregation.getAccountId())
+                .setParameter("bundleName", aggregation.getBundleName())
+                .setParameter("applicationName", aggregation.getApplicationName())
+                .setParameter("created", aggregation.getCreated())
+                .setParameter("payload", aggregation.getPayload().encode())
+                .executeUpdate()
+                .replaceWith(Boolean.TRUE)
+                .onFailure().recoverWithItem(Boolean.FALSE);
+    }
+
     public Uni<List<EmailAggregationKey>> getApplicationsWithPendingAggregation(LocalDateTime start, LocalDateTime end) {
         String query = "SELECT DISTINCT NEW com.redhat.cloud.notifications.models.EmailAggregationKey(ea.accountId, ea.bundleName, ea.applicationName) " +
                 "FROM EmailAggregation ea WHERE ea.created > :start AND ea.created <= :end";
@@ -33,15 +59,35 @@ public class EmailAggregationResources {
                 .getResultList();
     }
 
-    public Uni<List<EmailAggregation>> getEmailAggregation(EmailAggregationKey key, LocalDateTime start, LocalDateTime end) {
-        String query = "FROM EmailAggregation WHERE accountId = :accountId AND bundleName = :bundleName AND applicationName = :applicationName AND created > :start AND created <= :end ORDER BY created";
-        return session.createQuery(query, EmailAggregation.class)
-                .setParameter("accountId", key.getAccountId())
-                .setParameter("bundleName", key.getBundle())
-                .setParameter("applicationName", key.getApplication())
-                .setParameter("start", start)
-                .setParameter("end", end)
-                .getResultList();
+    /**
+     * Streams the aggregations of the key one page at a time, so that only {@code pageSize} of them are in memory when
+     * they are consumed as they are emitted. The pages are read with a keyset pagination on {@code (created, id)} and
+     * the aggregations are detached from the session once read, otherwise the session would keep all of them.
+     */
+    public Multi<EmailAggregation> streamEmailAggregation(EmailAggregationKey key, LocalDateTime start, LocalDateTime end, int pageSize) {
+        String query = "FROM EmailAggregation WHERE accountId = :accountId AND bundleName = :bundleName AND applicationName = :applicationName " +
+                "AND (created > :afterCreated OR (created = :afterCreated AND id > :afterId)) AND created <= :end ORDER BY created, id";
+        return Multi.createBy().repeating()
+                .uni(() -> new Cursor(start), cursor -> session.createQuery(query, EmailAggregation.class)
+                        .setParameter("accountId", key.getAccountId())
+                        .setParameter("bundleName", key.getBundle())
+                        .setParameter("applicationName", key.getApplication())
+                        .setParameter("afterCreated", cursor.created)
+                        .setParameter("afterId", cursor.id)
+                        .setParameter("end", end)
+                        .setMaxResults(pageSize)
+                        .getResultList()
+                        .onItem().invoke(page -> {
+                            if (!page.isEmpty()) {
+                                EmailAggregation last = page.get(page.size() - 1);
+                                cursor.created = last.getCreated();
+                                cursor.id = last.getId();
+                            }
+                            page.forEach(session::detach);
+                        }))
+                // The last page is emitted as well.
+                .whilst(page -> page.size() == pageSize)
+                .onItem().transformToMulti(Multi.createFrom()::iterable).concatenate();
     }
 
     public Uni<Integer> purgeOldAggregation(EmailAggregationKey key, LocalDateTime lastUsedTime) {
@@ -54,4 +100,58 @@ public class EmailAggregationResources {
                 .executeUpdate()
                 .call(session::flush);
     }
+
+    /**
+     * Deletes the aggregations of the key which were sent. The running aggregations can still be merged after they were
+     * read, until the merges which started before the end of their period are committed: the entries which were not
+     * sent, because they were merged after the read, are carried over into the running aggregation of the next period
+     * instead of being deleted.
+     *
+     * @param sentStates the payloads of the running aggregations as they were sent, by id
+     */
+    public Uni<Void> purgeSentAggregation(EmailAggregationKey key, LocalDateTime lastUsedTime, Map<Integer, JsonObject> sentStates, LocalDateTime nextPeriodEnd) {
+        String query = "DELETE FROM EmailAggregation WHERE accountId = :accountId AND bundleName = :bundleName AND applicationName = :applicationName AND created <= :created AND preAggregated = false";
+        // The payload column is a text column, the partial states are only merged as jsonb.
+        String carryOverQuery = "WITH purged AS (" +
+                "DELETE FROM email_aggregation WHERE account_id = :accountId AND bundle = :bundleName AND application = :applicationName AND pre_aggregated AND created <= :created " +
+                "RETURNING id, payload" +
+                "), late AS (" +
+                "SELECT entry.key, entry.value FROM purged, jsonb_each(CAST(purged.payload AS jsonb)) AS entry " +
+                "WHERE NOT jsonb_exists(COALESCE(CAST(CAST(:sentStates AS text) AS jsonb) -> CAST(purged.id AS text), CAST('{}' AS jsonb)), entry.key)" +
+                ") INSERT INTO email_aggregation (account_id, bundle, application, created, payload, pre_aggregated) " +
+                "SELECT :accountId, :bundleName, :applicationName, CAST(:nextPeriodEnd AS TIMESTAMP), CAST(jsonb_object_agg(late.key, late.value) AS text), TRUE " +
+                "FROM late HAVING COUNT(*) > 0 " +
+                "ON CONFLICT (account_id, bundle, application, created) WHERE pre_aggregated " +
+                "DO UPDATE SET payload = CAST(CAST(email_aggregation.payload AS jsonb) || CAST(EXCLUDED.payload AS jsonb) AS text)";
+        JsonObject sent = new JsonObject();
+        sentStates.forEach((id, state) -> sent.put(id.toString(), state));
+        return session.createQuery(query)
+                .setParameter("accountId", key.getAccountId())
+                .setParameter("bundleName", key.getBundle())
+                .setParameter("applicationName", key.getApplication())
+                .setParameter("created", lastUsedTime)
+                .executeUpdate()
+                .call(session::flush)
+                .call(() -> session.createNativeQuery(carryOverQuery)
+                        .setParameter("accountId", key.getAccountId())
+                        .setParameter("bundleName", key.getBundle())
+                        .setParameter("applicationName", key.getApplication())
+                        .setParameter("created", lastUsedTime)
+                        .setParameter("sentStates", sent.encode())
+                        .setParameter("nextPeriodEnd", nextPeriodEnd)
+                        .executeUpdate()
+                )
+                .replaceWith((Void) null);
+    }
+
+    private static class Cursor {
+
+        LocalDateTime created;
+        // No aggregation created at the start of the period is after this one, the period start is excluded.
+        int id = Integer.MAX_VALUE;
+
+        Cursor(LocalDateTime start) {
+            created = start;
+        }
+    }
 }
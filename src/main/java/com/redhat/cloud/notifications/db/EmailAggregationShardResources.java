@@ -0,0 +1,80 @@
+package com.redhat.cloud.notifications.db;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.pgclient.PgPool;
+import io.vertx.mutiny.sqlclient.Row;
+import io.vertx.mutiny.sqlclient.RowIterator;
+import io.vertx.mutiny.sqlclient.Tuple;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+
+/*
+ * The shards are accessed with the reactive PG client because the aggregation runs outside of any request context and
+ * the claims must be committed right away to be visible to the other replicas.
+ */
+@ApplicationScoped
+public class EmailAggregationShardResources {
+
+    // Every replica creates the shards of the run, only the first one actually inserts them.
+    private static final String CREATE = "INSERT INTO email_aggregation_shard (run, shard) " +
+            "SELECT CAST($1 AS TIMESTAMP), generate_series(0, CAST($2 AS INTEGER) - 1) ON CONFLICT DO NOTHING";
+    private static final String PURGE = "DELETE FROM email_aggregation_shard WHERE run < $1";
+    /*
+     * Claims a shard which is neither done nor leased. Concurrent claims skip the rows locked by each other, and a shard
+     * claimed by a replica which crashed before it was done is claimed again once its lease expired.
+     */
+    private static final String CLAIM = "UPDATE email_aggregation_shard SET owner = $2, lease_end = $4 WHERE run = $1 AND shard = (" +
+            "SELECT shard FROM email_aggregation_shard WHERE run = $1 AND NOT done AND (lease_end IS NULL OR lease_end <= $3) " +
+            "ORDER BY shard LIMIT 1 FOR UPDATE SKIP LOCKED) RETURNING shard";
+    // The lease and the completion of a shard are only written by its owner, they fail once another replica claimed it.
+    private static final String RENEW = "UPDATE email_aggregation_shard SET lease_end = $4 WHERE run = $1 AND shard = $2 AND owner = $3 AND NOT done";
+    private static final String COMPLETE = "UPDATE email_aggregation_shard SET done = TRUE WHERE run = $1 AND shard = $2 AND owner = $3";
+    private static final String COUNT_PENDING = "SELECT COUNT(*) FROM email_aggregation_shard WHERE run = $1 AND NOT done";
+
+    @Inject
+    PgPool pgPool;
+
+    public Uni<Void> createShards(LocalDateTime run, int shards) {
+        return pgPool.preparedQuery(CREATE)
+                .execute(Tuple.of(run, shards))
+                .replaceWith((Void) null);
+    }
+
+    public Uni<Void> purgeShards(LocalDateTime before) {
+        return pgPool.preparedQuery(PURGE)
+                .execute(Tuple.of(before))
+                .replaceWith((Void) null);
+    }
+
+    // Returns the claimed shard, or null if there's no shard left to claim.
+    public Uni<Integer> claimShard(LocalDateTime run, String owner, LocalDateTime now, LocalDateTime leaseEnd) {
+        return pgPool.preparedQuery(CLAIM)
+                .execute(Tuple.of(run, owner, now, leaseEnd))
+                .onItem().transform(rows -> {
+                    RowIterator<Row> iterator = rows.iterator();
+                    return iterator.hasNext() ? iterator.next().getInteger("shard") : null;
+                });
+    }
+
+    // Returns false if the shard is no longer owned by the given owner.
+    public Uni<Boolean> renewShard(LocalDateTime run, int shard, String owner, LocalDateTime leaseEnd) {
+        return pgPool.preparedQuery(RENEW)
+                .execute(Tuple.of(run, shard, owner, leaseEnd))
+                .onItem().transform(rows -> rows.rowCount() > 0);
+    }
+
+    // Returns false if the shard is no longer owned by the given owner, it is then left to its new owner.
+    public Uni<Boolean> completeShard(LocalDateTime run, int shard, String owner) {
+        return pgPool.preparedQuery(COMPLETE)
+                .execute(Tuple.of(run, shard, owner))
+                .onItem().transform(rows -> rows.rowCount() > 0);
+    }
+
+    public Uni<Long> countPendingShards(LocalDateTime run) {
+        return pgPool.preparedQuery(COUNT_PENDING)
+                .execute(Tuple.of(run))
+                .onItem().transform(rows -> rows.iterator().next().getLong(0));
+    }
+}
@@ -1,20 +1,29 @@
 package com.redhat.cloud.notifications.db;
 
+import com.redhat.cloud.notifications.events.EndpointAccountsFilter;
+import com.redhat.cloud.notifications.events.KnownRoutes;
+import com.redhat.cloud.notifications.events.RoutingCache;
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.EndpointDefault;
 import com.redhat.cloud.notifications.models.EndpointProperties;
 import com.redhat.cloud.notifications.models.EndpointTarget;
 import com.redhat.cloud.notifications.models.EndpointType;
 import com.redhat.cloud.notifications.models.EventType;
+import com.redhat.cloud.notifications.models.RoutingKey;
 import com.redhat.cloud.notifications.models.WebhookProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import org.hibernate.reactive.mutiny.Mutiny;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.persistence.PersistenceException;
 import javax.ws.rs.BadRequestException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -28,14 +37,41 @@ import java.util.stream.Collectors;
 @ApplicationScoped
 public class EndpointResources {
 
+    // Number of DEFAULT endpoints replaced with the default endpoints of their account.
+    public static final String DEFAULT_PROCESSED_COUNTER_NAME = "processor.default.processed";
+    // Number of endpoints resolved from the default endpoints of an account.
+    public static final String DEFAULT_ENRICHED_ENDPOINTS_COUNTER_NAME = "processor.default.enriched.endpoints";
+
     private static final Logger LOGGER = Logger.getLogger(EndpointResources.class.getName());
 
     @Inject
     Mutiny.Session session;
 
+    @Inject
+    KnownRoutes knownRoutes;
+
+    @Inject
+    RoutingCache routingCache;
+
+    @Inject
+    EndpointAccountsFilter accountsFilter;
+
+    @Inject
+    MeterRegistry registry;
+
+    private Counter defaultProcessed;
+    private Counter defaultEnrichedEndpoints;
+
+    @PostConstruct
+    void init() {
+        defaultProcessed = registry.counter(DEFAULT_PROCESSED_COUNTER_NAME);
+        defaultEnrichedEndpoints = registry.counter(DEFAULT_ENRICHED_ENDPOINTS_COUNTER_NAME);
+    }
+
     public Uni<Endpoint> createEndpoint(Endpoint endpoint) {
         return session.persist(endpoint)
                 .onItem().call(session::flush)
+                .invoke(() -> accountsFilter.add(endpoint.getAccountId()))
                 .onItem().call(() -> {
                     // If the endpoint properties are null, they won't be persisted.
                     if (endpoint.getProperties() != null) {
@@ -94,6 +130,12 @@ public class EndpointResources {
                 .onItem().call(this::loadProperties);
     }
 
+    public Uni<List<String>> getAccountIdsWithEndpoints() {
+        String query = "SELECT DISTINCT accountId FROM Endpoint";
+        return session.createQuery(query, String.class)
+                .getResultList();
+    }
+
     public Uni<Long> getEndpointsCountPerType(String tenant, EndpointType type, Boolean activeOnly) {
         String query = "SELECT COUNT(*) FROM Endpoint WHERE accountId = :accountId AND type = :endpointType";
         if (activeOnly != null) {
@@ -111,29 +153,83 @@ public class EndpointResources {
         return mutinyQuery.getSingleResult();
     }
 
+    /*
+     * Returns the enabled endpoints targeted by the event type. If a DEFAULT endpoint is targeted, it is replaced with
+     * the enabled default endpoints of the account. Everything is resolved with the webhook properties in a single
+     * SQL statement. The DEFAULT endpoint rows are only used to report the same metrics as the former default
+     * endpoints processor, they are not returned.
+     */
     // TODO [BG Phase 2] Delete this method
     public Multi<Endpoint> getTargetEndpoints(String tenant, String bundleName, String applicationName, String eventTypeName) {
-        String query = "SELECT e FROM Endpoint e JOIN e.targets t " +
-                "WHERE e.enabled = TRUE AND t.eventType.name = :eventTypeName AND t.id.accountId = :accountId " +
-                "AND t.eventType.application.name = :applicationName AND t.eventType.application.bundle.name = :bundleName";
-
-        return session.createQuery(query, Endpoint.class)
+        String query = "SELECT e, w, d.id.accountId FROM Endpoint e LEFT JOIN WebhookProperties w ON w.id = e.id " +
+                "LEFT JOIN EndpointDefault d ON d.endpoint.id = e.id AND d.id.accountId = :accountId " +
+                "WHERE e.enabled = TRUE AND (" +
+                "e.id IN (SELECT t.endpoint.id FROM EndpointTarget t WHERE t.id.accountId = :accountId " +
+                "AND t.eventType.name = :eventTypeName AND t.eventType.application.name = :applicationName " +
+                "AND t.eventType.application.bundle.name = :bundleName) " +
+                "OR (e.type <> :defaultType AND e.id IN (SELECT d2.endpoint.id FROM EndpointDefault d2 WHERE d2.id.accountId = :accountId) " +
+                "AND EXISTS (SELECT dt.id FROM EndpointTarget dt WHERE dt.endpoint.type = :defaultType AND dt.endpoint.enabled = TRUE " +
+                "AND dt.id.accountId = :accountId AND dt.eventType.name = :eventTypeName " +
+                "AND dt.eventType.application.name = :applicationName AND dt.eventType.application.bundle.name = :bundleName)))";
+
+        return session.createQuery(query, Object[].class)
+                .setParameter("defaultType", EndpointType.DEFAULT)
                 .setParameter("applicationName", applicationName)
                 .setParameter("eventTypeName", eventTypeName)
                 .setParameter("accountId", tenant)
                 .setParameter("bundleName", bundleName)
                 .getResultList()
-                .onItem().call(this::loadProperties)
+                .onItem().transform(rows -> {
+                    List<Endpoint> endpoints = new ArrayList<>(rows.size());
+                    int defaultEndpoints = 0;
+                    int fromDefaults = 0;
+                    for (Object[] row : rows) {
+                        Endpoint endpoint = (Endpoint) row[0];
+                        if (endpoint.getType() == EndpointType.DEFAULT) {
+                            defaultEndpoints++;
+                            continue;
+                        }
+                        if (row[1] != null) {
+                            endpoint.setProperties((EndpointProperties) row[1]);
+                        }
+                        if (row[2] != null) {
+                            fromDefaults++;
+                        }
+                        endpoints.add(endpoint);
+                    }
+                    if (defaultEndpoints > 0) {
+                        defaultProcessed.increment(defaultEndpoints);
+                        defaultEnrichedEndpoints.increment(fromDefaults);
+                    }
+                    return endpoints;
+                })
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
+    // TODO [BG Phase 2] Use the behavior groups here
+    public Uni<List<RoutingKey>> getTargetRoutes() {
+        String query = "SELECT DISTINCT NEW com.redhat.cloud.notifications.models.RoutingKey(t.id.accountId, b.name, a.name, et.name) " +
+                "FROM EndpointTarget t JOIN t.endpoint e JOIN t.eventType et JOIN et.application a JOIN a.bundle b " +
+                "WHERE e.enabled = TRUE";
+        return session.createQuery(query, RoutingKey.class)
+                .getResultList();
+    }
+
+    /*
+     * The endpoints are resolved from the behavior_group_route table, which is maintained by BehaviorGroupResources.
+     * The event type ID is found with the unique (name, application_id) index and the routes with the
+     * (account_id, event_type_id) index, so no join through the behavior groups is needed at routing time.
+     */
     // TODO [BG Phase 2] Remove '_BG' suffix
     public Multi<Endpoint> getTargetEndpoints_BG(String tenant, String bundleName, String applicationName, String eventTypeName) {
-        String query = "SELECT e FROM Endpoint e JOIN e.behaviorGroupActions bga JOIN bga.behaviorGroup.behaviors b " +
-                "WHERE e.enabled = TRUE AND b.eventType.name = :eventTypeName AND bga.behaviorGroup.accountId = :accountId " +
-                "AND b.eventType.application.name = :applicationName AND b.eventType.application.bundle.name = :bundleName";
-
-        return session.createQuery(query, Endpoint.class)
+        String query = "SELECT e.* FROM endpoints e WHERE e.enabled = TRUE AND e.id IN (" +
+                "SELECT r.endpoint_id FROM behavior_group_route r " +
+                "JOIN event_type et ON et.id = r.event_type_id " +
+                "JOIN applications a ON a.id = et.application_id " +
+                "JOIN bundles b ON b.id = a.bundle_id " +
+                "WHERE r.account_id = :accountId AND et.name = :eventTypeName AND a.name = :applicationName AND b.name = :bundleName)";
+
+        return session.createNativeQuery(query, Endpoint.class)
                 .setParameter("applicationName", applicationName)
                 .setParameter("eventTypeName", eventTypeName)
                 .setParameter("accountId", tenant)
@@ -180,6 +276,14 @@ public class EndpointResources {
                 .onItem().ifNotNull().transformToUni(this::loadProperties);
     }
 
+    public Uni<List<Endpoint>> getEnabledEndpoints(Collection<UUID> ids) {
+        String query = "SELECT e FROM Endpoint e WHERE e.enabled = TRUE AND e.id IN (:ids)";
+        return session.createQuery(query, Endpoint.class)
+                .setParameter("ids", ids)
+                .getResultList()
+                .onItem().call(this::loadProperties);
+    }
+
     public Uni<Boolean> deleteEndpoint(String tenant, UUID id) {
         String query = "DELETE FROM Endpoint WHERE accountId = :accountId AND id = :id";
         return session.createQuery(query)
@@ -187,6 +291,7 @@ public class EndpointResources {
                 .setParameter("accountId", tenant)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> routingCache.invalidate(tenant))
                 .onItem().transform(rowCount -> rowCount > 0);
         // Actually, the endpoint targeting this should be repeatable
     }
@@ -208,6 +313,12 @@ public class EndpointResources {
                 .setParameter("enabled", enabled)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> {
+                    routingCache.invalidate(tenant);
+                    if (enabled) {
+                        knownRoutes.invalidate();
+                    }
+                })
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -220,6 +331,10 @@ public class EndpointResources {
         })
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
+                .invoke(() -> {
+                    routingCache.invalidate(tenant);
+                    knownRoutes.invalidate();
+                })
                 .replaceWith(Boolean.TRUE)
                 .onFailure().recoverWithItem(Boolean.FALSE);
     }
@@ -234,6 +349,7 @@ public class EndpointResources {
                 .setParameter("endpointId", endpointId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> routingCache.invalidate(tenant))
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -287,6 +403,7 @@ public class EndpointResources {
         })
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
+                .invoke(() -> routingCache.invalidate(tenant))
                 .onFailure(PersistenceException.class).transform(a -> new BadRequestException("Given endpoint id can not be linked to default"))
                 .replaceWith(Boolean.TRUE);
     }
@@ -300,6 +417,7 @@ public class EndpointResources {
                 .setParameter("endpointId", endpointId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> routingCache.invalidate(tenant))
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -309,7 +427,9 @@ public class EndpointResources {
         String endpointQuery = "UPDATE Endpoint SET name = :name, description = :description, enabled = :enabled " +
                 "WHERE accountId = :accountId AND id = :id";
         String webhookQuery = "UPDATE WebhookProperties SET url = :url, method = :method, " +
-                "disableSslVerification = :disableSslVerification, secretToken = :secretToken WHERE endpoint.id = :endpointId";
+                "disableSslVerification = :disableSslVerification, secretToken = :secretToken, gzip = :gzip, requestTimeout = :requestTimeout, " +
+                "idleTimeout = :idleTimeout, keepAliveTimeout = :keepAliveTimeout, pipelining = :pipelining, " +
+                "maxWaitQueueSize = :maxWaitQueueSize, batchSize = :batchSize, batchMaxWait = :batchMaxWait WHERE endpoint.id = :endpointId";
 
         return session.createQuery(endpointQuery)
                 .setParameter("name", endpoint.getName())
@@ -319,6 +439,11 @@ public class EndpointResources {
                 .setParameter("id", endpoint.getId())
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> {
+                    if (endpoint.isEnabled()) {
+                        knownRoutes.invalidate();
+                    }
+                })
                 .onItem().transformToUni(endpointRowCount -> {
                     if (endpointRowCount == 0) {
                         return Uni.createFrom().item(Boolean.FALSE);
@@ -333,6 +458,14 @@ public class EndpointResources {
                                         .setParameter("method", properties.getMethod())
                                         .setParameter("disableSslVerification", properties.getDisableSslVerification())
                                         .setParameter("secretToken", properties.getSecretToken())
+                                        .setParameter("gzip", properties.getGzip())
+                                        .setParameter("requestTimeout", properties.getRequestTimeout())
+                                        .setParameter("idleTimeout", properties.getIdleTimeout())
+                                        .setParameter("keepAliveTimeout", properties.getKeepAliveTimeout())
+                                        .setParameter("pipelining", properties.getPipelining())
+                                        .setParameter("maxWaitQueueSize", properties.getMaxWaitQueueSize())
+                                        .setParameter("batchSize", properties.getBatchSize())
+                                        .setParameter("batchMaxWait", properties.getBatchMaxWait())
                                         .setParameter("endpointId", endpoint.getId())
                                         .executeUpdate()
                                         .call(session::flush)
@@ -343,7 +476,9 @@ public class EndpointResources {
                                 return Uni.createFrom().item(Boolean.TRUE);
                         }
                     }
-                });
+                })
+                // The cached routes are invalidated once the endpoint properties are also updated.
+                .invoke(() -> routingCache.invalidate(endpoint.getAccountId()));
     }
 
     public Uni<Void> loadProperties(List<Endpoint> endpoints) {
@@ -1,13 +1,17 @@
 package com.redhat.cloud.notifications.db;
 
+import com.redhat.cloud.notifications.db.converters.NotificationHistoryDetailsConverter;
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.NotificationHistory;
 import io.smallrye.mutiny.Uni;
 import io.vertx.core.json.JsonObject;
+import io.vertx.mutiny.pgclient.PgPool;
+import io.vertx.mutiny.sqlclient.Tuple;
 import org.hibernate.reactive.mutiny.Mutiny;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -15,9 +19,17 @@ import java.util.UUID;
 @ApplicationScoped
 public class NotificationResources {
 
+    private static final String HISTORY_INSERT_COLUMNS = "INSERT INTO notification_history " +
+            "(id, account_id, endpoint_id, created, invocation_time, invocation_result, details, event_id) VALUES ";
+    private static final int HISTORY_INSERT_PARAMS = 8;
+    private static final NotificationHistoryDetailsConverter DETAILS_CONVERTER = new NotificationHistoryDetailsConverter();
+
     @Inject
     Mutiny.Session session;
 
+    @Inject
+    PgPool pgPool;
+
     public Uni<NotificationHistory> createNotificationHistory(NotificationHistory history) {
         return Uni.createFrom().item(history)
                 .onItem().transform(this::addEndpointReference)
@@ -26,6 +38,43 @@ public class NotificationResources {
                 .replaceWith(history);
     }
 
+    /*
+     * Inserts all the given histories with a single multi-row INSERT statement. The statement is executed with the
+     * reactive PG client rather than with the Hibernate Reactive session so that it can be used outside of any request
+     * context. The histories must already have an id and a creation date.
+     */
+    public Uni<Void> createNotificationHistories(List<NotificationHistory> histories) {
+        if (histories.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        StringBuilder query = new StringBuilder(HISTORY_INSERT_COLUMNS);
+        List<Object> params = new ArrayList<>(histories.size() * HISTORY_INSERT_PARAMS);
+        for (NotificationHistory history : histories) {
+            if (!params.isEmpty()) {
+                query.append(", ");
+            }
+            query.append('(');
+            for (int i = 1; i <= HISTORY_INSERT_PARAMS; i++) {
+                query.append('$').append(params.size() + i);
+                if (i < HISTORY_INSERT_PARAMS) {
+                    query.append(", ");
+                }
+            }
+            query.append(')');
+            params.add(history.getId());
+            params.add(history.getAccountId());
+            params.add(history.getEndpoint() != null ? history.getEndpoint().getId() : history.getEndpointId());
+            params.add(history.getCreated());
+            params.add(history.getInvocationTime() == null ? null : history.getInvocationTime().intValue());
+            params.add(history.isInvocationResult());
+            params.add(DETAILS_CONVERTER.convertToDatabaseColumn(history.getDetails()));
+            params.add(history.getEventId());
+        }
+        return pgPool.preparedQuery(query.toString())
+                .execute(Tuple.tuple(params))
+                .replaceWith((Void) null);
+    }
+
     public Uni<List<NotificationHistory>> getNotificationHistory(String tenant, UUID endpoint) {
         String query = "SELECT NEW NotificationHistory(nh.id, nh.accountId, nh.invocationTime, nh.invocationResult, nh.eventId, nh.endpoint, nh.created) " +
                 "FROM NotificationHistory nh WHERE nh.accountId = :accountId AND nh.endpoint.id = :endpointId";
@@ -0,0 +1,77 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.models.WebhookRetry;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.pgclient.PgPool;
+import io.vertx.mutiny.sqlclient.Row;
+import io.vertx.mutiny.sqlclient.Tuple;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * The retry queue is accessed with the reactive PG client because it is used outside of any request context and
+ * concurrently with the webhook deliveries.
+ */
+@ApplicationScoped
+public class WebhookRetryResources {
+
+    private static final String INSERT = "INSERT INTO webhook_retry (id, account_id, endpoint_id, payload, attempts, next_attempt, created) " +
+            "VALUES ($1, $2, $3, $4, $5, $6, $7)";
+    /*
+     * The due retries are claimed by moving their next attempt to the end of a lease. Concurrent claims skip the rows
+     * locked by each other, and a retry claimed by a replica which crashed before it was attempted is claimed again
+     * once its lease expired.
+     */
+    private static final String CLAIM = "UPDATE webhook_retry SET next_attempt = $2 WHERE id IN (" +
+            "SELECT id FROM webhook_retry WHERE next_attempt <= $1 ORDER BY next_attempt LIMIT $3 FOR UPDATE SKIP LOCKED) " +
+            "RETURNING id, account_id, endpoint_id, payload, attempts";
+    private static final String RESCHEDULE = "UPDATE webhook_retry SET attempts = $2, next_attempt = $3 WHERE id = $1";
+    private static final String DELETE = "DELETE FROM webhook_retry WHERE id = $1";
+
+    @Inject
+    PgPool pgPool;
+
+    public Uni<Void> createRetry(WebhookRetry retry, LocalDateTime nextAttempt, LocalDateTime created) {
+        Tuple params = Tuple.of(retry.getId(), retry.getAccountId(), retry.getEndpointId(), retry.getPayload(), retry.getAttempts())
+                .addValue(nextAttempt)
+                .addValue(created);
+        return pgPool.preparedQuery(INSERT)
+                .execute(params)
+                .replaceWith((Void) null);
+    }
+
+    public Uni<List<WebhookRetry>> claimRetries(LocalDateTime now, LocalDateTime leaseEnd, int limit) {
+        return pgPool.preparedQuery(CLAIM)
+                .execute(Tuple.of(now, leaseEnd, limit))
+                .onItem().transform(rows -> {
+                    List<WebhookRetry> retries = new ArrayList<>(rows.size());
+                    for (Row row : rows) {
+                        retries.add(new WebhookRetry(
+                                row.getUUID("id"),
+                                row.getString("account_id"),
+                                row.getUUID("endpoint_id"),
+                                row.getString("payload"),
+                                row.getInteger("attempts")
+                        ));
+                    }
+                    return retries;
+                });
+    }
+
+    public Uni<Void> rescheduleRetry(UUID id, int attempts, LocalDateTime nextAttempt) {
+        return pgPool.preparedQuery(RESCHEDULE)
+                .execute(Tuple.of(id, attempts, nextAttempt))
+                .replaceWith((Void) null);
+    }
+
+    public Uni<Void> deleteRetry(UUID id) {
+        return pgPool.preparedQuery(DELETE)
+                .execute(Tuple.of(id))
+                .replaceWith((Void) null);
+    }
+}
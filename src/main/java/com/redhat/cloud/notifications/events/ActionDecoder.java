@@ -0,0 +1,77 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.ingress.Action;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.JsonDecoder;
+import org.apache.avro.specific.SpecificDatumReader;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Decodes the {@link Action} payloads received from the ingress channel. The datum reader is built once and shared by
+ * all threads, while the Avro decoders are reused by each thread so that decoding a payload doesn't rebuild the parser
+ * and the resolver every time.
+ */
+@ApplicationScoped
+public class ActionDecoder {
+
+    /*
+     * Kafka header used by the producers to tell which Avro encoding was used for the message value. Messages without
+     * that header are considered as JSON encoded.
+     */
+    public static final String ENCODING_HEADER = "rh-avro-encoding";
+
+    public enum Encoding {
+        JSON,
+        BINARY;
+
+        public static Encoding fromHeader(String value) {
+            if (value == null || value.isBlank()) {
+                return JSON;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown Avro encoding: " + value, e);
+            }
+        }
+    }
+
+    // SpecificDatumReader caches its schema resolvers per thread, so a single instance can be used concurrently.
+    private final DatumReader<Action> reader = new SpecificDatumReader<>(Action.class);
+    private final ThreadLocal<JsonDecoder> jsonDecoders = new ThreadLocal<>();
+    private final ThreadLocal<BinaryDecoder> binaryDecoders = new ThreadLocal<>();
+
+    public Action decode(byte[] payload, Encoding encoding) {
+        try {
+            switch (encoding) {
+                case BINARY:
+                    BinaryDecoder binaryDecoder = DecoderFactory.get().binaryDecoder(payload, binaryDecoders.get());
+                    binaryDecoders.set(binaryDecoder);
+                    return reader.read(null, binaryDecoder);
+                case JSON:
+                default:
+                    return reader.read(null, jsonDecoder(payload));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Avro reports some malformed payloads with runtime exceptions, they are all rejected the same way.
+            throw new IllegalArgumentException("Payload extraction failed", e);
+        }
+    }
+
+    private JsonDecoder jsonDecoder(byte[] payload) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(payload);
+        JsonDecoder jsonDecoder = jsonDecoders.get();
+        if (jsonDecoder == null) {
+            jsonDecoder = DecoderFactory.get().jsonDecoder(Action.getClassSchema(), in);
+            jsonDecoders.set(jsonDecoder);
+        } else {
+            jsonDecoder.configure(in);
+        }
+        return jsonDecoder;
+    }
+}
@@ -0,0 +1,92 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.utils.BloomFilter;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bloom filter of the accounts which have at least one endpoint. An account that is not in the filter has no endpoint
+ * and its events can't be routed anywhere, so they can be skipped without querying the database. False positives only
+ * cost the usual database round trip.
+ * <p>
+ * The filter is rebuilt periodically from the database. Endpoints created on this replica add their account to the
+ * filter immediately, while endpoints created from another replica are only taken into account after the next
+ * refresh.
+ */
+@ApplicationScoped
+public class EndpointAccountsFilter {
+
+    private static final Logger log = Logger.getLogger(EndpointAccountsFilter.class.getName());
+    // The filter is sized for more accounts than currently known so that new accounts don't degrade it too quickly.
+    private static final int MIN_EXPECTED_ACCOUNTS = 1024;
+
+    @ConfigProperty(name = "processor.account_filter.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "processor.account_filter.false_positive_rate", defaultValue = "0.01")
+    double falsePositiveRate;
+
+    @Inject
+    EndpointResources resources;
+
+    // null means that the accounts are unknown, either because they were never loaded or because the last load failed.
+    private volatile BloomFilter accounts;
+    private Set<String> addedWhileLoading;
+
+    /**
+     * Returns {@code true} if the given account is known to have no endpoint. The result is always {@code false} when
+     * the filter is disabled or not loaded yet.
+     */
+    public boolean hasNoEndpoints(String accountId) {
+        if (!enabled || accountId == null) {
+            return false;
+        }
+        BloomFilter current = accounts;
+        return current != null && !current.mightContain(accountId);
+    }
+
+    public synchronized void add(String accountId) {
+        if (accounts != null) {
+            accounts.put(accountId);
+        }
+        if (addedWhileLoading != null) {
+            addedWhileLoading.add(accountId);
+        }
+    }
+
+    @Scheduled(identity = "endpointAccountsFilterRefresh", every = "{processor.account_filter.refresh_interval}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            addedWhileLoading = new HashSet<>();
+        }
+        BloomFilter loaded = null;
+        try {
+            List<String> accountIds = resources.getAccountIdsWithEndpoints().await().indefinitely();
+            loaded = new BloomFilter(Math.max(MIN_EXPECTED_ACCOUNTS, accountIds.size() * 2), falsePositiveRate);
+            accountIds.forEach(loaded::put);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Endpoint accounts filter refresh failed, no account will be skipped", e);
+        } finally {
+            synchronized (this) {
+                // The accounts of the endpoints created during the load may be missing from the query result.
+                if (loaded != null) {
+                    addedWhileLoading.forEach(loaded::put);
+                }
+                accounts = loaded;
+                addedWhileLoading = null;
+            }
+        }
+    }
+}
@@ -1,24 +1,32 @@
 package com.redhat.cloud.notifications.events;
 
 import com.redhat.cloud.notifications.db.EndpointResources;
-import com.redhat.cloud.notifications.db.NotificationResources;
 import com.redhat.cloud.notifications.ingress.Action;
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.EndpointType;
 import com.redhat.cloud.notifications.models.Notification;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.models.RoutingKey;
 import com.redhat.cloud.notifications.processors.EndpointTypeProcessor;
 import com.redhat.cloud.notifications.processors.email.EmailSubscriptionTypeProcessor;
+import com.redhat.cloud.notifications.processors.webhooks.WebhookCircuitBreaker;
 import com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor;
+import com.redhat.cloud.notifications.transformers.ActionPayload;
+import com.redhat.cloud.notifications.transformers.BaseTransformer;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.hibernate.reactive.mutiny.Mutiny;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.util.function.Function;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 @ApplicationScoped
@@ -26,6 +34,11 @@ public class EndpointProcessor {
 
     public static final String PROCESSED_MESSAGES_COUNTER_NAME = "processor.input.processed";
     public static final String PROCESSED_ENDPOINTS_COUNTER_NAME = "processor.input.endpoint.processed";
+    public static final String NO_ENDPOINTS_COUNTER_NAME = "processor.input.no_endpoints";
+    // Time spent to deliver an event to all its endpoints.
+    public static final String FAN_OUT_TIMER_NAME = "processor.fanout.duration";
+    // Sum of the individual deliveries durations of an event, what the fan-out would take if it were sequential.
+    public static final String DELIVERIES_TIMER_NAME = "processor.fanout.deliveries.duration";
 
     private static final Logger LOGGER = Logger.getLogger(EndpointProcessor.class.getName());
 
@@ -35,12 +48,14 @@ public class EndpointProcessor {
     @Inject
     EndpointResources resources;
 
-    // TODO [BG Phase 2] Delete this attribute
     @Inject
-    DefaultProcessor defaultProcessor;
+    NotificationHistoryWriter historyWriter;
 
     @Inject
-    NotificationResources notifResources;
+    RoutingCache routingCache;
+
+    @Inject
+    EndpointAccountsFilter accountsFilter;
 
     @Inject
     WebhookTypeProcessor webhooks;
@@ -48,38 +63,88 @@ public class EndpointProcessor {
     @Inject
     EmailSubscriptionTypeProcessor emails;
 
+    @Inject
+    WebhookCircuitBreaker circuitBreaker;
+
+    @Inject
+    BaseTransformer transformer;
+
     @Inject
     MeterRegistry registry;
 
+    // Maximum number of concurrent deliveries for a single event.
+    @ConfigProperty(name = "processor.fanout.max_concurrency", defaultValue = "4")
+    int fanOutConcurrency;
+
     private Counter processedItems;
     private Counter endpointTargeted;
+    private Counter noEndpoints;
+    private Timer fanOutTimer;
+    private Timer deliveriesTimer;
 
     @PostConstruct
     void init() {
         processedItems = registry.counter(PROCESSED_MESSAGES_COUNTER_NAME);
         endpointTargeted = registry.counter(PROCESSED_ENDPOINTS_COUNTER_NAME);
+        noEndpoints = registry.counter(NO_ENDPOINTS_COUNTER_NAME);
+        fanOutTimer = registry.timer(FAN_OUT_TIMER_NAME);
+        deliveriesTimer = registry.timer(DELIVERIES_TIMER_NAME);
     }
 
     public Uni<Void> process(Action action) {
         processedItems.increment();
+        if (accountsFilter.hasNoEndpoints(action.getAccountId())) {
+            noEndpoints.increment();
+            return Uni.createFrom().voidItem();
+        }
+        /*
+         * The deliveries of an event are executed concurrently, but all the operations that rely on the Hibernate
+         * Reactive session (history writes and email processing) are serialized in a single lane since the session
+         * can't be used concurrently. Webhook deliveries only perform HTTP calls, so they don't go through that lane.
+         */
+        EventLanes sessionLane = new EventLanes(1);
+        // The payload is transformed at most once and shared by all the deliveries of the event.
+        ActionPayload payload = transformer.prepare(action);
+        AtomicLong deliveriesDuration = new AtomicLong();
+        long start = System.nanoTime();
         // TODO [BG Phase 2] Use EndpointResources.getTargetEndpoints here
         return getEndpoints(
                 action.getAccountId(),
                 action.getBundle(),
                 action.getApplication(),
                 action.getEventType())
-                .onItem().transformToUniAndConcatenate(endpoint -> {
+                .onItem().transformToUni(endpoint -> {
                     endpointTargeted.increment();
-                    Notification endpointNotif = new Notification(action, endpoint);
-                    return endpointTypeToProcessor(endpoint.getType()).process(endpointNotif);
-                })
-                .onItem().transformToUniAndConcatenate(history -> notifResources.createNotificationHistory(history)
+                    Notification endpointNotif = new Notification(action, endpoint, payload);
+                    Supplier<Uni<NotificationHistory>> delivery = () -> timed(() -> endpointTypeToProcessor(endpoint.getType()).process(endpointNotif), deliveriesDuration);
+                    if (endpoint.getType() == EndpointType.WEBHOOK) {
+                        return delivery.get();
+                    }
+                    return sessionLane.submit(null, delivery);
+                }).merge(fanOutConcurrency)
+                // History writes don't wait for the other deliveries of the event.
+                // The endpoints disabled by the circuit breaker are persisted in the session lane as well.
+                .onItem().transformToUniAndConcatenate(history -> sessionLane.submit(null, () -> historyWriter.write(history)
+                                .call(() -> circuitBreaker.persistState(history.getEndpoint())))
                         .onFailure().invoke(failure -> LOGGER.severe("Notification history creation failed for " + history.getEndpoint()))
                 )
                 .onItem().ignoreAsUni()
+                .onItem().invoke(() -> {
+                    if (deliveriesDuration.get() > 0) {
+                        fanOutTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        deliveriesTimer.record(deliveriesDuration.get(), TimeUnit.NANOSECONDS);
+                    }
+                })
                 .onItemOrFailure().call(() -> Uni.createFrom().item(() -> session.clear()));
     }
 
+    private static <T> Uni<T> timed(Supplier<Uni<T>> work, AtomicLong totalDuration) {
+        return Uni.createFrom().deferred(() -> {
+            long start = System.nanoTime();
+            return work.get().eventually(() -> totalDuration.addAndGet(System.nanoTime() - start));
+        });
+    }
+
     public EndpointTypeProcessor endpointTypeToProcessor(EndpointType endpointType) {
         switch (endpointType) {
             case WEBHOOK:
@@ -93,13 +158,8 @@ public class EndpointProcessor {
 
     // TODO [BG Phase 2] Delete this method
     public Multi<Endpoint> getEndpoints(String tenant, String bundleName, String applicationName, String eventTypeName) {
-        return resources.getTargetEndpoints(tenant, bundleName, applicationName, eventTypeName)
-                .onItem().transformToMultiAndConcatenate((Function<Endpoint, Multi<Endpoint>>) endpoint -> {
-                    // If the tenant has a default endpoint for the eventType, then add the target endpoints here
-                    if (endpoint.getType() == EndpointType.DEFAULT) {
-                        return defaultProcessor.getDefaultEndpoints(endpoint);
-                    }
-                    return Multi.createFrom().item(endpoint);
-                });
+        RoutingKey key = new RoutingKey(tenant, bundleName, applicationName, eventTypeName);
+        return routingCache.get(key, () -> resources.getTargetEndpoints(tenant, bundleName, applicationName, eventTypeName).collect().asList())
+                .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 }
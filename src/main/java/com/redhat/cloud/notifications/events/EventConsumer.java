@@ -3,28 +3,46 @@ package com.redhat.cloud.notifications.events;
 import com.redhat.cloud.notifications.ingress.Action;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.io.JsonDecoder;
-import org.apache.avro.specific.SpecificDatumReader;
+import io.smallrye.reactive.messaging.kafka.IncomingKafkaRecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.reactive.messaging.Acknowledgment;
 import org.eclipse.microprofile.reactive.messaging.Acknowledgment.Strategy;
 import org.eclipse.microprofile.reactive.messaging.Incoming;
 import org.eclipse.microprofile.reactive.messaging.Message;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static com.redhat.cloud.notifications.utils.RequestContexts.withRequestContext;
+
 @ApplicationScoped
 public class EventConsumer {
 
     public static final String REJECTED_COUNTER_NAME = "input.rejected";
     public static final String PROCESSING_ERROR_COUNTER_NAME = "input.processing.error";
+    public static final String IN_FLIGHT_GAUGE_NAME = "input.in_flight";
+    public static final String QUEUED_GAUGE_NAME = "input.queued";
+    public static final String SHORT_CIRCUITED_COUNTER_NAME = "input.short_circuited";
+
+    /*
+     * Optional headers that producers can set to describe the route of a message without decoding its payload. When
+     * all of them are present, messages that can't be routed to any endpoint are dropped before being decoded.
+     */
+    public static final String ACCOUNT_ID_HEADER = "rh-account-id";
+    public static final String BUNDLE_HEADER = "rh-bundle";
+    public static final String APPLICATION_HEADER = "rh-application";
+    public static final String EVENT_TYPE_HEADER = "rh-event-type";
 
     private static final Logger log = Logger.getLogger(EventConsumer.class.getName());
 
@@ -34,20 +52,113 @@ public class EventConsumer {
     @Inject
     EndpointProcessor destinations;
 
+    @Inject
+    ActionDecoder actionDecoder;
+
+    @Inject
+    KnownRoutes knownRoutes;
+
+    /*
+     * Maximum number of messages taken from the ingress channel and not fully processed yet. It is also the number of
+     * lanes used to process messages from different accounts concurrently.
+     */
+    @ConfigProperty(name = "ingress.max_in_flight", defaultValue = "16")
+    int maxInFlight;
+
+    /*
+     * PRE_PROCESSING acks the messages as soon as they are received. POST_PROCESSING acks the messages once their
+     * processing is done, successfully or not, so that they are redelivered if the pod dies while processing them.
+     */
+    @ConfigProperty(name = "ingress.acknowledgment", defaultValue = "PRE_PROCESSING")
+    Strategy acknowledgment;
+
     private Counter rejectedCount;
     private Counter processingErrorCount;
+    private Counter shortCircuitedCount;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private EventLanes lanes;
 
     @PostConstruct
     public void init() {
+        if (acknowledgment != Strategy.PRE_PROCESSING && acknowledgment != Strategy.POST_PROCESSING) {
+            throw new IllegalStateException("Unsupported ingress acknowledgment strategy: " + acknowledgment);
+        }
         rejectedCount = registry.counter(REJECTED_COUNTER_NAME);
         processingErrorCount = registry.counter(PROCESSING_ERROR_COUNTER_NAME);
+        shortCircuitedCount = registry.counter(SHORT_CIRCUITED_COUNTER_NAME);
+        lanes = new EventLanes(maxInFlight);
+        registry.gauge(IN_FLIGHT_GAUGE_NAME, inFlight);
+        registry.gauge(QUEUED_GAUGE_NAME, lanes.getQueued());
     }
 
+    /*
+     * Messages from the same account are processed sequentially and in the order they were received, while messages
+     * from different accounts are processed concurrently. The merge concurrency limits the number of messages
+     * requested from the connector, so a slow account can't make us buffer the whole topic in memory.
+     *
+     * Messages are acked out of order when several lanes are used. The Kafka connector must therefore use the
+     * throttled commit strategy, which only commits the highest contiguous acked offset of each partition and does it
+     * periodically rather than once per message.
+     */
     @Incoming("ingress")
-    @Acknowledgment(Strategy.PRE_PROCESSING)
-    // Can be modified to use Multi<Message<String>> input also for more concurrency
-    public Uni<Void> processAsync(Message<String> input) {
-        return Uni.createFrom().item(() -> input.getPayload())
+    @Acknowledgment(Strategy.MANUAL)
+    public Subscriber<Message<byte[]>> processAsync() {
+        IngressRelay relay = new IngressRelay();
+        Multi.createFrom().publisher(relay)
+                .onItem().transformToUni(this::process).merge(maxInFlight)
+                .subscribe().with(ignored -> { }, failure -> log.log(Level.SEVERE, "Ingress stream failed", failure));
+        return relay;
+    }
+
+    private Uni<Void> process(Message<byte[]> input) {
+        inFlight.incrementAndGet();
+        return Uni.createFrom().item(() -> input)
+                .call(() -> {
+                    if (acknowledgment == Strategy.PRE_PROCESSING) {
+                        return Uni.createFrom().completionStage(input::ack);
+                    }
+                    return Uni.createFrom().voidItem();
+                })
+                .onItem().transformToUni(message -> {
+                    if (isUnroutable(message)) {
+                        shortCircuitedCount.increment();
+                        return Uni.createFrom().voidItem();
+                    }
+                    return decodeAndProcess(message);
+                })
+                // Last pipeline stage - ack the Kafka topic
+                .onItemOrFailure()
+                .transformToUni((unused, t) -> {
+                    if (t != null) {
+                        log.log(Level.INFO, "Could not process the payload: " + describePayload(input), t);
+                    }
+                    if (acknowledgment == Strategy.POST_PROCESSING) {
+                        return Uni.createFrom().completionStage(input::ack);
+                    }
+                    return Uni.createFrom().voidItem();
+                })
+                /*
+                 * A failure that escapes the processing, such as a failed ack, would terminate the ingress stream and
+                 * stop the consumption of the topic for good. It is contained to the message that caused it.
+                 */
+                .onFailure().recoverWithItem(failure -> {
+                    log.log(Level.SEVERE, "Ingress message could not be handled", failure);
+                    return null;
+                })
+                .eventually(inFlight::decrementAndGet);
+    }
+
+    private boolean isUnroutable(Message<byte[]> input) {
+        return knownRoutes.isUnroutable(
+                getHeader(input, ACCOUNT_ID_HEADER),
+                getHeader(input, BUNDLE_HEADER),
+                getHeader(input, APPLICATION_HEADER),
+                getHeader(input, EVENT_TYPE_HEADER)
+        );
+    }
+
+    private Uni<Void> decodeAndProcess(Message<byte[]> input) {
+        return Uni.createFrom().item(input)
                 .stage(self -> self
                                 .onItem().transform(this::extractPayload)
                                 .onItem().invoke(payload -> log.info(() -> "Processing received payload: (" + payload.getAccountId() + ") " + payload.getBundle() + "/" + payload.getApplication() + "/" + payload.getEventType()))
@@ -56,32 +167,74 @@ public class EventConsumer {
                 .stage(self -> self
                                 // Second pipeline stage - enrich from input to destination (webhook) processor format
                                 .onItem()
-                                .transformToUni(action -> destinations.process(action)
-                                        .onFailure().invoke(t -> processingErrorCount.increment())
-                                )
+                                // Each event gets its own request context, and thus its own Hibernate Reactive session.
+                                .transformToUni(action -> lanes.submit(action.getAccountId(), () -> withRequestContext(() ->
+                                        destinations.process(action)
+                                                .onFailure().invoke(t -> processingErrorCount.increment())
+                                )))
                         // Receive only notification of completion
-                )
-                // Third pipeline stage - ack the Kafka topic
-                .onItemOrFailure()
-                .transformToUni((unused, t) -> {
-                    if (t != null) {
-                        log.log(Level.INFO, "Could not process the payload: " + input.getPayload(), t);
-                    }
-                    return Uni.createFrom().voidItem();
-                });
+                );
+    }
+
+    private Action extractPayload(Message<byte[]> input) {
+        ActionDecoder.Encoding encoding = ActionDecoder.Encoding.fromHeader(getHeader(input, ActionDecoder.ENCODING_HEADER));
+        return actionDecoder.decode(input.getPayload(), encoding);
+    }
+
+    private static String getHeader(Message<?> input, String name) {
+        return input.getMetadata(IncomingKafkaRecordMetadata.class)
+                .map(metadata -> metadata.getHeaders().lastHeader(name))
+                .map(Header::value)
+                .map(value -> new String(value, StandardCharsets.UTF_8))
+                .orElse(null);
+    }
+
+    private static String describePayload(Message<byte[]> input) {
+        if (input.getPayload() == null) {
+            // Tombstone record.
+            return "<null>";
+        }
+        String encoding = getHeader(input, ActionDecoder.ENCODING_HEADER);
+        if (encoding != null && !encoding.equalsIgnoreCase(ActionDecoder.Encoding.JSON.name())) {
+            return "<" + input.getPayload().length + " bytes, " + encoding + " encoded>";
+        }
+        return new String(input.getPayload(), StandardCharsets.UTF_8);
     }
 
-    private Action extractPayload(String payload) {
-        // I need the schema here..
-        Action action = new Action();
-        try {
-            // Which ones can I reuse?
-            JsonDecoder jsonDecoder = DecoderFactory.get().jsonDecoder(Action.getClassSchema(), payload);
-            DatumReader<Action> reader = new SpecificDatumReader<>(Action.class);
-            reader.read(action, jsonDecoder);
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Payload extraction failed", e);
+    /*
+     * Bridges the subscriber expected by the messaging connector and the Mutiny pipeline. The connector subscription
+     * is handed over as is, so the pipeline demand is directly applied to the connector.
+     */
+    private static class IngressRelay implements Subscriber<Message<byte[]>>, Publisher<Message<byte[]>> {
+
+        private Subscriber<? super Message<byte[]>> downstream;
+
+        @Override
+        public void subscribe(Subscriber<? super Message<byte[]>> subscriber) {
+            if (downstream != null) {
+                throw new IllegalStateException("The ingress relay only supports a single subscriber");
+            }
+            downstream = subscriber;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            downstream.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(Message<byte[]> message) {
+            downstream.onNext(message);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.onComplete();
         }
-        return action;
     }
 }
@@ -0,0 +1,73 @@
+package com.redhat.cloud.notifications.events;
+
+import io.smallrye.mutiny.Uni;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Dispatches work to a fixed number of lanes selected from a key hash. Work items submitted with the same key always
+ * land in the same lane and are executed one at a time, in submission order. Work items from different lanes are
+ * executed concurrently.
+ */
+public class EventLanes {
+
+    private final CompletableFuture<Void>[] tails;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    @SuppressWarnings("unchecked")
+    public EventLanes(int laneCount) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("The lanes count must be greater than zero");
+        }
+        tails = new CompletableFuture[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            tails[i] = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Returns a {@link Uni} that will run the given work once all previously submitted work from the same lane is
+     * done. The returned {@link Uni} has to be subscribed exactly once, otherwise the lane would be blocked forever.
+     *
+     * @param key the key used to select the lane, usually the account ID of the event
+     * @param work the work to run in the lane
+     * @return the lane-ordered work
+     */
+    public <T> Uni<T> submit(String key, Supplier<Uni<T>> work) {
+        CompletableFuture<Void> current = new CompletableFuture<>();
+        CompletableFuture<Void> previous;
+        int lane = Math.floorMod(Objects.hashCode(key), tails.length);
+        synchronized (tails) {
+            previous = tails[lane];
+            tails[lane] = current;
+        }
+
+        boolean waiting = !previous.isDone();
+        if (waiting) {
+            queued.incrementAndGet();
+        }
+
+        return Uni.createFrom().completionStage(previous)
+                .onItem().invoke(() -> {
+                    if (waiting) {
+                        queued.decrementAndGet();
+                    }
+                })
+                .chain(work::get)
+                .eventually(() -> current.complete(null));
+    }
+
+    public int getLaneCount() {
+        return tails.length;
+    }
+
+    /**
+     * Returns the number of work items which are waiting for a previous work item from the same lane to complete.
+     */
+    public AtomicInteger getQueued() {
+        return queued;
+    }
+}
@@ -0,0 +1,78 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.models.RoutingKey;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory copy of all the routes which lead to at least one enabled endpoint. It is used to drop the ingress
+ * messages that can't be routed anywhere before their payload is decoded.
+ * <p>
+ * The routes are reloaded periodically from the database. When a write path adds a route on this replica, the routes
+ * are invalidated and all messages are considered routable until the next reload. Routes added from another replica
+ * are only known here after the next reload, so the refresh interval is the maximum delay before a new route is
+ * taken into account.
+ */
+@ApplicationScoped
+public class KnownRoutes {
+
+    private static final Logger log = Logger.getLogger(KnownRoutes.class.getName());
+
+    @ConfigProperty(name = "ingress.pre_routing.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    EndpointResources resources;
+
+    // null means that the routes are unknown, either because they were never loaded or because they were invalidated.
+    private volatile Set<RoutingKey> routes;
+    private long generation;
+
+    /**
+     * Returns {@code true} if the given route is known to have no enabled endpoints. The result is always
+     * {@code false} when the pre-routing is disabled, when the routes are unknown or when a route part is missing.
+     */
+    public boolean isUnroutable(String accountId, String bundle, String application, String eventType) {
+        if (!enabled || accountId == null || bundle == null || application == null || eventType == null) {
+            return false;
+        }
+        Set<RoutingKey> current = routes;
+        return current != null && !current.contains(new RoutingKey(accountId, bundle, application, eventType));
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        routes = null;
+    }
+
+    @Scheduled(identity = "knownRoutesRefresh", every = "{ingress.pre_routing.refresh_interval}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        long startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+        }
+        try {
+            Set<RoutingKey> loaded = new HashSet<>(resources.getTargetRoutes().await().indefinitely());
+            synchronized (this) {
+                // The routes may have been invalidated while they were loaded, they are then reloaded on the next run.
+                if (generation == startGeneration) {
+                    routes = loaded;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Known routes refresh failed, all messages will be considered routable", e);
+            invalidate();
+        }
+    }
+}
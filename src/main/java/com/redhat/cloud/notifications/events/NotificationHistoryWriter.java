@@ -0,0 +1,235 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.db.NotificationResources;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the notification histories produced by the endpoint processors.
+ * <p>
+ * In the SYNC mode, each history is persisted with its own statement before the returned {@link Uni} completes. In
+ * the BATCHED mode, the histories are buffered in memory and written with multi-row inserts every {@code batch_size}
+ * histories or every {@code flush_interval}, whichever comes first. When the buffer is full, the returned {@link Uni}
+ * only completes once a flush has freed some space, which slows down the event processing until the DB catches up.
+ * The buffer is drained when the application shuts down. Histories that can't be inserted are logged and dropped,
+ * like they are in the SYNC mode.
+ */
+@ApplicationScoped
+public class NotificationHistoryWriter {
+
+    public static final String BUFFER_DEPTH_GAUGE_NAME = "processor.history.buffer.depth";
+    public static final String FLUSH_SIZE_SUMMARY_NAME = "processor.history.flush.size";
+    public static final String FLUSH_TIMER_NAME = "processor.history.flush.duration";
+    public static final String FLUSH_FAILED_COUNTER_NAME = "processor.history.flush.failed";
+
+    // Each history is bound with 8 parameters and PostgreSQL accepts at most 65535 parameters per statement.
+    static final int MAX_BATCH_SIZE = 8000;
+
+    private static final Logger LOGGER = Logger.getLogger(NotificationHistoryWriter.class.getName());
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    public enum Mode {
+        SYNC,
+        BATCHED
+    }
+
+    @ConfigProperty(name = "processor.history.mode", defaultValue = "SYNC")
+    Mode mode;
+
+    @ConfigProperty(name = "processor.history.batch_size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "processor.history.buffer_size", defaultValue = "10000")
+    int bufferSize;
+
+    @ConfigProperty(name = "processor.history.shutdown_timeout", defaultValue = "30s")
+    Duration shutdownTimeout;
+
+    @Inject
+    NotificationResources notifResources;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Deque<NotificationHistory> buffer = new ArrayDeque<>();
+    // Writes waiting for some free space in the buffer.
+    private final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private boolean flushing;
+    private DistributionSummary flushSize;
+    private Timer flushTimer;
+    private Counter flushFailures;
+
+    @PostConstruct
+    void init() {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalStateException("processor.history.batch_size must be between 1 and " + MAX_BATCH_SIZE);
+        }
+        if (bufferSize < batchSize) {
+            throw new IllegalStateException("processor.history.buffer_size must not be lower than processor.history.batch_size");
+        }
+        registry.gauge(BUFFER_DEPTH_GAUGE_NAME, depth);
+        flushSize = registry.summary(FLUSH_SIZE_SUMMARY_NAME);
+        flushTimer = registry.timer(FLUSH_TIMER_NAME);
+        flushFailures = registry.counter(FLUSH_FAILED_COUNTER_NAME);
+    }
+
+    // True if the writes rely on the Hibernate Reactive session, and therefore need a request context.
+    public boolean usesSession() {
+        return mode == Mode.SYNC;
+    }
+
+    public Uni<NotificationHistory> write(NotificationHistory history) {
+        if (mode == Mode.SYNC) {
+            return notifResources.createNotificationHistory(history);
+        }
+        // These values are usually generated by Hibernate, which is bypassed by the multi-row inserts.
+        history.setId(UUID.randomUUID());
+        history.setCreated(LocalDateTime.now(UTC));
+        return Uni.createFrom().emitter(emitter -> {
+            boolean accepted;
+            boolean full;
+            synchronized (this) {
+                accepted = buffer.size() < bufferSize;
+                if (accepted) {
+                    buffer.add(history);
+                } else {
+                    pendingWrites.add(new PendingWrite(history, emitter));
+                }
+                depth.set(buffer.size() + pendingWrites.size());
+                full = buffer.size() >= batchSize;
+            }
+            if (accepted) {
+                emitter.complete(history);
+            }
+            if (full) {
+                flush().subscribe().with(ignored -> { });
+            }
+        });
+    }
+
+    @Scheduled(identity = "notificationHistoryFlush", every = "{processor.history.flush_interval}")
+    void scheduledFlush() {
+        if (mode == Mode.BATCHED) {
+            flush().subscribe().with(ignored -> { });
+        }
+    }
+
+    /*
+     * Writes at most one batch of histories. Only one flush runs at a time, a flush requested while another one is
+     * running is skipped and the running one chains another flush if enough histories were buffered in the meantime.
+     */
+    Uni<Void> flush() {
+        List<NotificationHistory> batch;
+        List<PendingWrite> released = new ArrayList<>();
+        synchronized (this) {
+            if (flushing || buffer.isEmpty()) {
+                return Uni.createFrom().voidItem();
+            }
+            flushing = true;
+            batch = new ArrayList<>(Math.min(batchSize, buffer.size()));
+            while (batch.size() < batchSize && !buffer.isEmpty()) {
+                batch.add(buffer.poll());
+            }
+            while (buffer.size() < bufferSize && !pendingWrites.isEmpty()) {
+                PendingWrite pendingWrite = pendingWrites.poll();
+                buffer.add(pendingWrite.history);
+                released.add(pendingWrite);
+            }
+            depth.set(buffer.size() + pendingWrites.size());
+        }
+        released.forEach(pendingWrite -> pendingWrite.emitter.complete(pendingWrite.history));
+        long start = System.nanoTime();
+        return Uni.createFrom().deferred(() -> notifResources.createNotificationHistories(batch))
+                .onItemOrFailure().transformToUni((ignored, failure) -> {
+                    flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    flushSize.record(batch.size());
+                    if (failure != null) {
+                        flushFailures.increment();
+                        LOGGER.log(Level.SEVERE, "Notification history batch insert failed, " + batch.size() + " histories were dropped", failure);
+                    }
+                    boolean again;
+                    synchronized (this) {
+                        flushing = false;
+                        again = buffer.size() >= batchSize;
+                    }
+                    return again ? flush() : Uni.createFrom().voidItem();
+                });
+    }
+
+    void onShutdown(@Observes ShutdownEvent event) {
+        if (mode == Mode.BATCHED) {
+            drain();
+        }
+    }
+
+    // Flushes everything that was buffered, waiting for the running flush if needed.
+    void drain() {
+        long deadline = System.nanoTime() + shutdownTimeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            boolean running;
+            synchronized (this) {
+                if (buffer.isEmpty() && pendingWrites.isEmpty() && !flushing) {
+                    return;
+                }
+                running = flushing;
+            }
+            if (running) {
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } else {
+                try {
+                    flush().await().atMost(Duration.ofNanos(Math.max(1L, deadline - System.nanoTime())));
+                } catch (RuntimeException e) {
+                    // The flush timed out, what remains in the buffer is reported below.
+                    break;
+                }
+            }
+        }
+        synchronized (this) {
+            if (!buffer.isEmpty() || !pendingWrites.isEmpty()) {
+                LOGGER.severe("Notification history buffer could not be drained, " + (buffer.size() + pendingWrites.size()) + " histories were dropped");
+            }
+        }
+    }
+
+    private static class PendingWrite {
+
+        final NotificationHistory history;
+        final UniEmitter<? super NotificationHistory> emitter;
+
+        PendingWrite(NotificationHistory history, UniEmitter<? super NotificationHistory> emitter) {
+            this.history = history;
+            this.emitter = emitter;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.redhat.cloud.notifications.events;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.redhat.cloud.notifications.models.EmailSubscriptionProperties;
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.EndpointType;
+import com.redhat.cloud.notifications.models.RoutingKey;
+import com.redhat.cloud.notifications.models.WebhookProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the enabled endpoints (with their properties) targeted by each {@link RoutingKey}, so that the events from a
+ * given route don't have to resolve the same endpoints again and again from the database.
+ * <p>
+ * The cache never holds the loaded entities, which belong to the session of the request that loaded them. It holds an
+ * immutable snapshot of each endpoint instead, and every hit gets its own new {@link Endpoint} instances built from
+ * that snapshot, so nothing is shared between the concurrent events of a route.
+ * <p>
+ * The write paths that can change the endpoints of an account invalidate all the cached routes of that account on
+ * this replica. Changes made from another replica are only seen here once the cached entry expires, so the TTL is the
+ * maximum delay before such a change is taken into account.
+ */
+@ApplicationScoped
+public class RoutingCache {
+
+    public static final String CACHE_NAME = "routing-cache";
+
+    @ConfigProperty(name = "processor.routing_cache.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "processor.routing_cache.max_size", defaultValue = "10000")
+    long maxSize;
+
+    @ConfigProperty(name = "processor.routing_cache.ttl", defaultValue = "60s")
+    Duration ttl;
+
+    @Inject
+    MeterRegistry registry;
+
+    private Cache<RoutingKey, List<EndpointSnapshot>> cache;
+    private long generation;
+
+    @PostConstruct
+    void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        // Exports the cache.gets (hit and miss), cache.evictions and cache.size meters.
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Returns the endpoints of the given route, built from the cached snapshots or resolved with the given loader if
+     * they are not cached. The returned endpoints are not shared with any other caller.
+     */
+    public Uni<List<Endpoint>> get(RoutingKey key, Supplier<Uni<List<Endpoint>>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        List<EndpointSnapshot> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return Uni.createFrom().item(() -> cached.stream().map(EndpointSnapshot::toEndpoint).collect(Collectors.toList()));
+        }
+        long loadGeneration = currentGeneration();
+        return loader.get()
+                .onItem().invoke(endpoints -> {
+                    List<EndpointSnapshot> snapshots = endpoints.stream().map(EndpointSnapshot::new).collect(Collectors.toUnmodifiableList());
+                    synchronized (this) {
+                        // The result is not cached if an invalidation happened while it was loaded, it may be stale.
+                        if (generation == loadGeneration) {
+                            cache.put(key, snapshots);
+                        }
+                    }
+                });
+    }
+
+    public synchronized void invalidate(String accountId) {
+        generation++;
+        cache.asMap().keySet().removeIf(key -> key.getAccountId().equals(accountId));
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        cache.invalidateAll();
+    }
+
+    private synchronized long currentGeneration() {
+        return generation;
+    }
+
+    // The properties are copied in both directions, the snapshot never exposes a mutable object.
+    static final class EndpointSnapshot {
+
+        private final UUID id;
+        private final String accountId;
+        private final String name;
+        private final EndpointType type;
+        private final Boolean enabled;
+        private final WebhookProperties webhookProperties;
+        private final boolean emailSubscription;
+
+        EndpointSnapshot(Endpoint endpoint) {
+            id = endpoint.getId();
+            accountId = endpoint.getAccountId();
+            name = endpoint.getName();
+            type = endpoint.getType();
+            enabled = endpoint.isEnabled();
+            webhookProperties = endpoint.getProperties() instanceof WebhookProperties ? copy(endpoint.getProperties(WebhookProperties.class)) : null;
+            emailSubscription = endpoint.getProperties() instanceof EmailSubscriptionProperties;
+        }
+
+        Endpoint toEndpoint() {
+            Endpoint endpoint = new Endpoint();
+            endpoint.setId(id);
+            endpoint.setAccountId(accountId);
+            endpoint.setName(name);
+            endpoint.setType(type);
+            endpoint.setEnabled(enabled);
+            if (webhookProperties != null) {
+                endpoint.setProperties(copy(webhookProperties));
+            } else if (emailSubscription) {
+                endpoint.setProperties(new EmailSubscriptionProperties());
+            }
+            return endpoint;
+        }
+
+        // BasicAuthentication is immutable and can be shared.
+        private static WebhookProperties copy(WebhookProperties source) {
+            WebhookProperties properties = new WebhookProperties();
+            properties.setUrl(source.getUrl());
+            properties.setMethod(source.getMethod());
+            properties.setDisableSslVerification(source.getDisableSslVerification());
+            properties.setSecretToken(source.getSecretToken());
+            properties.setBasicAuthentication(source.getBasicAuthentication());
+            properties.setGzip(source.getGzip());
+            properties.setRequestTimeout(source.getRequestTimeout());
+            properties.setIdleTimeout(source.getIdleTimeout());
+            properties.setKeepAliveTimeout(source.getKeepAliveTimeout());
+            properties.setPipelining(source.getPipelining());
+            properties.setMaxWaitQueueSize(source.getMaxWaitQueueSize());
+            properties.setBatchSize(source.getBatchSize());
+            properties.setBatchMaxWait(source.getBatchMaxWait());
+            return properties;
+        }
+    }
+}
@@ -46,6 +46,10 @@ public class EmailAggregation extends CreationTimestamped {
     @Convert(converter = JsonObjectConverter.class)
     private JsonObject payload;
 
+    // The payload is the partial state of an aggregator rather than the payload of a single event.
+    @JsonProperty(access = READ_ONLY)
+    private boolean preAggregated;
+
     public Integer getId() {
         return id;
     }
@@ -86,6 +90,14 @@ public class EmailAggregation extends CreationTimestamped {
         this.payload = payload;
     }
 
+    public boolean isPreAggregated() {
+        return preAggregated;
+    }
+
+    public void setPreAggregated(boolean preAggregated) {
+        this.preAggregated = preAggregated;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
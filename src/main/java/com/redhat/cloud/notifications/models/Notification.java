@@ -1,15 +1,24 @@
 package com.redhat.cloud.notifications.models;
 
 import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.transformers.ActionPayload;
 
 public class Notification {
     private Action action;
 
     private final Endpoint endpoint;
 
+    // Shared by all the notifications of the same action.
+    private final ActionPayload payload;
+
     public Notification(Action action, Endpoint endpoint) {
+        this(action, endpoint, null);
+    }
+
+    public Notification(Action action, Endpoint endpoint, ActionPayload payload) {
         this.action = action;
         this.endpoint = endpoint;
+        this.payload = payload;
     }
 
     public Action getAction() {
@@ -24,4 +33,8 @@ public class Notification {
         return endpoint;
     }
 
+    public ActionPayload getPayload() {
+        return payload;
+    }
+
 }
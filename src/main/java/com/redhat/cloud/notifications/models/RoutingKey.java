@@ -0,0 +1,63 @@
+package com.redhat.cloud.notifications.models;
+
+import java.util.Objects;
+
+/*
+ * Identifies the endpoints an event can be routed to: all events from the same account with the same bundle,
+ * application and event type names share the same target endpoints.
+ */
+public class RoutingKey {
+
+    private final String accountId;
+    private final String bundle;
+    private final String application;
+    private final String eventType;
+
+    public RoutingKey(String accountId, String bundle, String application, String eventType) {
+        this.accountId = accountId;
+        this.bundle = bundle;
+        this.application = application;
+        this.eventType = eventType;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public String getBundle() {
+        return bundle;
+    }
+
+    public String getApplication() {
+        return application;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof RoutingKey) {
+            RoutingKey other = (RoutingKey) o;
+            return Objects.equals(accountId, other.accountId) &&
+                    Objects.equals(bundle, other.bundle) &&
+                    Objects.equals(application, other.application) &&
+                    Objects.equals(eventType, other.eventType);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accountId, bundle, application, eventType);
+    }
+
+    @Override
+    public String toString() {
+        return accountId + "/" + bundle + "/" + application + "/" + eventType;
+    }
+}
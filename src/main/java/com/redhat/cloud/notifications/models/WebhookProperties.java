@@ -8,6 +8,8 @@ import com.redhat.cloud.notifications.db.converters.HttpTypeConverter;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.Table;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
@@ -36,6 +38,50 @@ public class WebhookProperties extends EndpointProperties {
     @JsonProperty("basic_authentication")
     private BasicAuthentication basicAuthentication;
 
+    // Sends the payload compressed with gzip and a Content-Encoding header.
+    @NotNull
+    private Boolean gzip = Boolean.FALSE;
+
+    /*
+     * The following settings override the global webhook client settings for this endpoint, null means the global
+     * setting applies. The timeouts are expressed in milliseconds.
+     */
+
+    @Min(1)
+    @JsonProperty("request_timeout")
+    private Integer requestTimeout;
+
+    @Min(1)
+    @JsonProperty("idle_timeout")
+    private Integer idleTimeout;
+
+    @Min(1)
+    @Max(3600000)
+    @JsonProperty("keep_alive_timeout")
+    private Integer keepAliveTimeout;
+
+    private Boolean pipelining;
+
+    @Min(-1)
+    @Max(10000)
+    @JsonProperty("max_wait_queue_size")
+    private Integer maxWaitQueueSize;
+
+    /*
+     * When the batch size is greater than 1, the events are accumulated and sent as a JSON array once the batch is full
+     * or once the oldest event of the batch waited for the batch max wait (in milliseconds).
+     */
+
+    @Min(1)
+    @Max(1000)
+    @JsonProperty("batch_size")
+    private Integer batchSize;
+
+    @Min(1)
+    @Max(600000)
+    @JsonProperty("batch_max_wait")
+    private Integer batchMaxWait;
+
     public String getUrl() {
         return url;
     }
@@ -75,4 +121,68 @@ public class WebhookProperties extends EndpointProperties {
     public void setBasicAuthentication(BasicAuthentication basicAuthentication) {
         this.basicAuthentication = basicAuthentication;
     }
+
+    public Boolean getGzip() {
+        return gzip;
+    }
+
+    public void setGzip(Boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public Integer getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(Integer requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public Integer getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Integer idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public Integer getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public void setKeepAliveTimeout(Integer keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public Boolean getPipelining() {
+        return pipelining;
+    }
+
+    public void setPipelining(Boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
+    public Integer getMaxWaitQueueSize() {
+        return maxWaitQueueSize;
+    }
+
+    public void setMaxWaitQueueSize(Integer maxWaitQueueSize) {
+        this.maxWaitQueueSize = maxWaitQueueSize;
+    }
+
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Integer getBatchMaxWait() {
+        return batchMaxWait;
+    }
+
+    public void setBatchMaxWait(Integer batchMaxWait) {
+        this.batchMaxWait = batchMaxWait;
+    }
 }
@@ -0,0 +1,44 @@
+package com.redhat.cloud.notifications.models;
+
+import java.util.UUID;
+
+/*
+ * A webhook delivery waiting to be sent again after a temporary failure. The attempts count includes the first
+ * delivery attempt.
+ */
+public class WebhookRetry {
+
+    private final UUID id;
+    private final String accountId;
+    private final UUID endpointId;
+    private final String payload;
+    private final int attempts;
+
+    public WebhookRetry(UUID id, String accountId, UUID endpointId, String payload, int attempts) {
+        this.id = id;
+        this.accountId = accountId;
+        this.endpointId = endpointId;
+        this.payload = payload;
+        this.attempts = attempts;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public UUID getEndpointId() {
+        return endpointId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
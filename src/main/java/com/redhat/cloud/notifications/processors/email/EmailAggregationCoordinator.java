@@ -0,0 +1,186 @@
+package com.redhat.cloud.notifications.processors.email;
+
+import com.redhat.cloud.notifications.db.EmailAggregationShardResources;
+import com.redhat.cloud.notifications.models.EmailAggregationKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Splits the email aggregation keys of a run between the replicas.
+ * <p>
+ * The keys are spread over {@code shards} shards with a hash of the key, which gives the same shard on every replica.
+ * The shards of a run are stored in the {@code email_aggregation_shard} table, and each replica claims them one at a
+ * time until none is left, so each key is processed by a single replica and the run takes roughly 1/N of the time with
+ * N replicas. A claimed shard is leased for {@code shard_lease} and the lease is renewed every third of that duration
+ * while the shard is processed: the shards of a replica which crashed are claimed again by the other replicas once their
+ * lease expired. A replica whose lease could not be renewed in time stops processing the keys of the shard and leaves it
+ * to its new owner. A replica which has nothing left to claim waits for the shards leased by the others to be done, so
+ * that it can take them over if needed.
+ */
+@ApplicationScoped
+public class EmailAggregationCoordinator {
+
+    public static final String CLAIMED_SHARDS_COUNTER_NAME = "processor.email.aggregation.shards.claimed";
+
+    private static final Logger LOGGER = Logger.getLogger(EmailAggregationCoordinator.class.getName());
+
+    @ConfigProperty(name = "processor.email.aggregation.coordination.enabled", defaultValue = "false")
+    boolean enabled;
+
+    // Must be the same on all the replicas.
+    @ConfigProperty(name = "processor.email.aggregation.shards", defaultValue = "16")
+    int shards;
+
+    @ConfigProperty(name = "processor.email.aggregation.shard_lease", defaultValue = "15m")
+    Duration shardLease;
+
+    // How often a replica checks whether the shards leased by the other replicas are done.
+    @ConfigProperty(name = "processor.email.aggregation.shard_poll_interval", defaultValue = "30s")
+    Duration pollInterval;
+
+    // How long the shards of a run are kept once the run started.
+    @ConfigProperty(name = "processor.email.aggregation.shard_retention", defaultValue = "168h")
+    Duration retention;
+
+    @Inject
+    EmailAggregationShardResources shardResources;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final String owner = UUID.randomUUID().toString();
+    private Counter claimedShards;
+
+    @PostConstruct
+    void init() {
+        if (shards < 1) {
+            throw new IllegalStateException("processor.email.aggregation.shards must be greater than 0");
+        }
+        claimedShards = registry.counter(CLAIMED_SHARDS_COUNTER_NAME);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Processes the keys of the shards claimed by this replica and returns the results of all of them.
+     *
+     * @param run the end of the aggregated period, which identifies the run on all the replicas
+     * @param keys all the keys of the run
+     * @param processor processes the keys of one shard, it must check that the shard is still owned by this replica
+     * before each key
+     */
+    public <T> Uni<List<T>> run(LocalDateTime run, List<EmailAggregationKey> keys, BiFunction<List<EmailAggregationKey>, BooleanSupplier, Uni<List<T>>> processor) {
+        Map<Integer, List<EmailAggregationKey>> keysPerShard = keys.stream()
+                .collect(Collectors.groupingBy(this::getShard));
+        return shardResources.purgeShards(run.minus(retention))
+                .chain(() -> shardResources.createShards(run, shards))
+                .chain(() -> processNextShard(run, keysPerShard, processor, new ArrayList<>()));
+    }
+
+    private <T> Uni<List<T>> processNextShard(LocalDateTime run, Map<Integer, List<EmailAggregationKey>> keysPerShard,
+                                              BiFunction<List<EmailAggregationKey>, BooleanSupplier, Uni<List<T>>> processor, List<T> results) {
+        long claimedAt = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        return shardResources.claimShard(run, owner, now, now.plus(shardLease))
+                .onItem().transformToUni(shard -> {
+                    if (shard == null) {
+                        return shardResources.countPendingShards(run)
+                                .onItem().transformToUni(pending -> {
+                                    if (pending == 0L) {
+                                        return Uni.createFrom().item(results);
+                                    }
+                                    // The remaining shards are leased by other replicas, they are claimed here if their lease expires.
+                                    return Uni.createFrom().voidItem()
+                                            .onItem().delayIt().by(pollInterval)
+                                            .chain(() -> processNextShard(run, keysPerShard, processor, results));
+                                });
+                    }
+                    claimedShards.increment();
+                    List<EmailAggregationKey> shardKeys = keysPerShard.getOrDefault(shard, List.of());
+                    LOGGER.fine(() -> "Processing the " + shardKeys.size() + " email aggregation keys of shard " + shard + " for run " + run);
+                    Lease lease = new Lease(claimedAt + shardLease.toNanos());
+                    Cancellable renewal = Multi.createFrom().ticks().every(shardLease.dividedBy(3L))
+                            .onOverflow().drop()
+                            .onItem().transformToUniAndConcatenate(ignored -> renewLease(run, shard, lease))
+                            .subscribe().with(ignored -> { });
+                    return processor.apply(shardKeys, lease)
+                            .onTermination().invoke(renewal::cancel)
+                            .call(() -> shardResources.completeShard(run, shard, owner)
+                                    .invoke(completed -> {
+                                        if (!completed) {
+                                            LOGGER.warning(() -> "Shard " + shard + " of run " + run + " was claimed by another replica before it was done");
+                                        }
+                                    })
+                            )
+                            .chain(shardResults -> {
+                                results.addAll(shardResults);
+                                return processNextShard(run, keysPerShard, processor, results);
+                            });
+                });
+    }
+
+    private Uni<Void> renewLease(LocalDateTime run, int shard, Lease lease) {
+        long renewedAt = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        return shardResources.renewShard(run, shard, owner, now.plus(shardLease))
+                .onItem().invoke(renewed -> {
+                    if (renewed) {
+                        lease.expiresAt = renewedAt + shardLease.toNanos();
+                    } else {
+                        lease.lost = true;
+                    }
+                })
+                .onFailure().recoverWithItem(failure -> {
+                    // The lease expires on its own if the next renewals fail too.
+                    LOGGER.log(Level.WARNING, "Lease of shard " + shard + " of run " + run + " could not be renewed", failure);
+                    return null;
+                })
+                .replaceWith((Void) null);
+    }
+
+    int getShard(EmailAggregationKey key) {
+        return Math.floorMod(Objects.hash(key.getAccountId(), key.getBundle(), key.getApplication()), shards);
+    }
+
+    /*
+     * Lease of a shard claimed by this replica. It is owned until a renewal finds that another replica claimed the shard,
+     * or until it expires because it could not be renewed in time.
+     */
+    private static class Lease implements BooleanSupplier {
+
+        volatile long expiresAt;
+        volatile boolean lost;
+
+        Lease(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public boolean getAsBoolean() {
+            return !lost && System.nanoTime() - expiresAt < 0L;
+        }
+    }
+}
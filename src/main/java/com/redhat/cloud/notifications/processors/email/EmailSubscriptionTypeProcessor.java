@@ -1,5 +1,9 @@
 package com.redhat.cloud.notifications.processors.email;
 
+import com.cronutils.model.CronType;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.model.time.ExecutionTime;
+import com.cronutils.parser.CronParser;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.redhat.cloud.notifications.db.EmailAggregationResources;
 import com.redhat.cloud.notifications.db.EndpointEmailSubscriptionResources;
@@ -19,6 +23,7 @@ import com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor;
 import com.redhat.cloud.notifications.templates.EmailTemplate;
 import com.redhat.cloud.notifications.templates.EmailTemplateFactory;
 import com.redhat.cloud.notifications.transformers.BaseTransformer;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.scheduler.Scheduled;
 import io.quarkus.scheduler.ScheduledExecution;
 import io.smallrye.mutiny.Multi;
@@ -30,20 +35,30 @@ import io.vertx.mutiny.ext.web.client.HttpRequest;
 import io.vertx.mutiny.ext.web.client.WebClient;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import static com.redhat.cloud.notifications.utils.RequestContexts.withRequestContext;
+
 @ApplicationScoped
 public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
 
@@ -56,6 +71,11 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
 
     static final String BODY_TYPE_HTML = "html";
 
+    // Progress of the running aggregation, or of the last one if none is running.
+    public static final String AGGREGATION_KEYS_DONE_GAUGE_NAME = "processor.email.aggregation.keys.done";
+    public static final String AGGREGATION_KEYS_REMAINING_GAUGE_NAME = "processor.email.aggregation.keys.remaining";
+    public static final String AGGREGATION_ETA_GAUGE_NAME = "processor.email.aggregation.eta.seconds";
+
     @Inject
     @SslVerificationDisabled
     WebClient unsecuredWebClient;
@@ -90,6 +110,55 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
     @ConfigProperty(name = "processor.email.no_reply")
     String noReplyAddress;
 
+    // Maximum number of (account, bundle, application) aggregation keys processed concurrently.
+    @ConfigProperty(name = "processor.email.aggregation.concurrency", defaultValue = "4")
+    int aggregationConcurrency;
+
+    // Number of aggregations of a key read at once, the others are read as the aggregator consumes them.
+    @ConfigProperty(name = "processor.email.aggregation.page_size", defaultValue = "1000")
+    int aggregationPageSize;
+
+    /*
+     * When enabled, the aggregators which support it merge the events into a single running aggregation per key and
+     * daily email period at ingest time, instead of storing every event until the daily email is sent.
+     */
+    @ConfigProperty(name = "processor.email.aggregation.incremental", defaultValue = "false")
+    boolean incrementalAggregation;
+
+    // Also used by the scheduler, the running aggregations end when the daily email is sent.
+    @ConfigProperty(name = "email.subscription.daily.cron")
+    String dailyCron;
+
+    @Inject
+    EmailAggregationCoordinator coordinator;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final AtomicBoolean aggregationRunning = new AtomicBoolean();
+    private final AtomicLong aggregationKeysDone = new AtomicLong();
+    private final AtomicLong aggregationKeysRemaining = new AtomicLong();
+    private volatile long aggregationStart;
+    private ExecutionTime dailyExecutionTime;
+
+    @PostConstruct
+    void init() {
+        if (aggregationConcurrency < 1) {
+            throw new IllegalStateException("processor.email.aggregation.concurrency must be greater than 0");
+        }
+        if (aggregationPageSize < 1) {
+            throw new IllegalStateException("processor.email.aggregation.page_size must be greater than 0");
+        }
+        if (incrementalAggregation) {
+            // The scheduler parses the Quartz cron expressions by default.
+            CronParser parser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(CronType.QUARTZ));
+            dailyExecutionTime = ExecutionTime.forCron(parser.parse(dailyCron));
+        }
+        registry.gauge(AGGREGATION_KEYS_DONE_GAUGE_NAME, aggregationKeysDone);
+        registry.gauge(AGGREGATION_KEYS_REMAINING_GAUGE_NAME, aggregationKeysRemaining);
+        registry.gauge(AGGREGATION_ETA_GAUGE_NAME, this, EmailSubscriptionTypeProcessor::getAggregationEta);
+    }
+
     protected HttpRequest<Buffer> buildBOPHttpRequest() {
         return unsecuredWebClient
                 .postAbs(bopUrl)
@@ -137,18 +206,41 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
             aggregation.setApplicationName(item.getAction().getApplication());
             aggregation.setBundleName(item.getAction().getBundle());
 
-            return baseTransformer.transform(item.getAction())
-                    .onItem().transform(transformedAction -> {
-                        aggregation.setPayload(transformedAction);
-                        return aggregation;
-                    })
-                    .onItem().transformToUni(emailAggregation -> this.emailAggregationResources.addEmailAggregation(emailAggregation))
+            // The aggregation shares the payload already built for the other deliveries of the action.
+            return Uni.createFrom().item(() -> baseTransformer.payloadOf(item).getJson())
+                    .onItem().transformToUni(transformedAction -> saveEmailAggregation(aggregation, transformedAction))
                     .onItem().transformToUni(aBoolean -> sendEmail(item, EmailSubscriptionType.INSTANT));
         }
 
         return sendEmail(item, EmailSubscriptionType.INSTANT);
     }
 
+    private Uni<Boolean> saveEmailAggregation(EmailAggregation aggregation, JsonObject payload) {
+        EmailAggregationKey key = new EmailAggregationKey(aggregation.getAccountId(), aggregation.getBundleName(), aggregation.getApplicationName());
+        AbstractEmailPayloadAggregator aggregator = EmailPayloadAggregatorFactory.by(key);
+        if (incrementalAggregation && aggregator != null) {
+            JsonObject partialState = aggregator.toPartialState(payload);
+            if (partialState != null) {
+                aggregation.setPayload(partialState);
+                aggregation.setCreated(getAggregationPeriodEnd(Instant.now()));
+                return emailAggregationResources.mergeEmailAggregation(aggregation);
+            }
+        }
+        // Only the fields used by the aggregator are stored.
+        aggregation.setPayload(aggregator == null ? payload : aggregator.project(payload));
+        return emailAggregationResources.addEmailAggregation(aggregation);
+    }
+
+    /*
+     * The end of the daily email period which contains the given instant, in UTC like the periods of the daily email
+     * aggregation. The running aggregations are created at the end of their period so that they are sent with it.
+     */
+    LocalDateTime getAggregationPeriodEnd(Instant instant) {
+        ZonedDateTime next = dailyExecutionTime.nextExecution(instant.atZone(ZoneId.systemDefault()))
+                .orElseThrow(() -> new IllegalStateException("email.subscription.daily.cron doesn't have any next execution"));
+        return LocalDateTime.ofInstant(next.toInstant(), UTC);
+    }
+
     private Uni<NotificationHistory> sendEmail(Notification item, EmailSubscriptionType emailSubscriptionType) {
         final HttpRequest<Buffer> bopRequest = this.buildBOPHttpRequest();
 
@@ -240,7 +332,7 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
 
                     Emails emails = new Emails();
                     emails.addEmail(email);
-                    Uni<JsonObject> payload = Uni.createFrom().item(JsonObject.mapFrom(emails));
+                    Uni<Buffer> payload = Uni.createFrom().item(Buffer.newInstance(JsonObject.mapFrom(emails).toBuffer()));
 
                     // TODO Add recipients processing from policies-notifications processing (failed recipients)
                     //      by checking the NotificationHistory's details section (if missing payload - fix in WebhookTypeProcessor)
@@ -252,13 +344,19 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
     }
 
     private Multi<Tuple2<NotificationHistory, EmailAggregationKey>> processAggregateEmailsByAggregationKey(EmailAggregationKey aggregationKey, LocalDateTime startTime, LocalDateTime endTime, EmailSubscriptionType emailSubscriptionType, boolean delete) {
+        // The running aggregations as they were read, the entries merged after the read are not deleted with them.
+        Map<Integer, JsonObject> sentStates = new HashMap<>();
         return subscriptionResources.getEmailSubscribersCount(aggregationKey.getAccountId(), aggregationKey.getBundle(), aggregationKey.getApplication(), emailSubscriptionType)
                 .onItem().transformToMulti(subscriberCount -> {
                     AbstractEmailPayloadAggregator aggregator = EmailPayloadAggregatorFactory.by(aggregationKey);
 
                     if (subscriberCount > 0 && aggregator != null) {
-                        return emailAggregationResources.getEmailAggregation(aggregationKey, startTime, endTime)
-                                .onItem().transformToMulti(Multi.createFrom()::iterable)
+                        return emailAggregationResources.streamEmailAggregation(aggregationKey, startTime, endTime, aggregationPageSize)
+                                .invoke(aggregation -> {
+                                    if (aggregation.isPreAggregated()) {
+                                        sentStates.put(aggregation.getId(), aggregation.getPayload());
+                                    }
+                                })
                                 .collect().in(() -> aggregator, AbstractEmailPayloadAggregator::aggregate).toMulti();
                     }
 
@@ -300,9 +398,9 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
                 }).concatenate()
                 .onItem().transformToMulti(result -> {
                     if (delete) {
-                        return emailAggregationResources.purgeOldAggregation(aggregationKey, endTime)
-                                .toMulti()
-                                .onItem().transform(integer -> result);
+                        return emailAggregationResources.purgeSentAggregation(aggregationKey, endTime, sentStates, endTime.plus(emailSubscriptionType.getDuration()))
+                                .replaceWith(result)
+                                .toMulti();
                     }
 
                     return Multi.createFrom().item(result);
@@ -320,10 +418,17 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
 
         log.info(String.format("Running %s email aggregation for period (%s, %s)", emailSubscriptionType.toString(), startTime.toString(), endTime.toString()));
 
-        return emailAggregationResources.getApplicationsWithPendingAggregation(startTime, endTime)
-                .onItem().transformToMulti(Multi.createFrom()::iterable)
-                .onItem().transformToMulti(aggregationKey -> processAggregateEmailsByAggregationKey(aggregationKey, startTime, endTime, emailSubscriptionType, delete))
-                .concatenate().collect().asList()
+        return withRequestContext(() -> emailAggregationResources.getApplicationsWithPendingAggregation(startTime, endTime))
+                .onItem().transformToUni(keys -> {
+                    aggregationKeysDone.set(0L);
+                    aggregationKeysRemaining.set(0L);
+                    aggregationStart = System.nanoTime();
+                    if (coordinator.isEnabled()) {
+                        // Each replica only processes the keys of the shards it claims.
+                        return coordinator.run(endTime, keys, (shardKeys, owned) -> processAggregateEmailsByAggregationKeys(shardKeys, owned, startTime, endTime, emailSubscriptionType, delete));
+                    }
+                    return processAggregateEmailsByAggregationKeys(keys, () -> true, startTime, endTime, emailSubscriptionType, delete);
+                })
                 .onItem().invoke(result -> {
                     final LocalDateTime aggregateFinished = LocalDateTime.now();
                     log.info(
@@ -339,10 +444,67 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
                 });
     }
 
+    /*
+     * The keys are processed concurrently, each of them within its own request context since the Hibernate Reactive
+     * session can't be shared by concurrent operations. A key which fails is logged and doesn't stop the others. The
+     * keys which start once the shard is no longer owned by this replica are skipped, its new owner processes them.
+     */
+    private Uni<List<Tuple2<NotificationHistory, EmailAggregationKey>>> processAggregateEmailsByAggregationKeys(List<EmailAggregationKey> keys, BooleanSupplier owned, LocalDateTime startTime, LocalDateTime endTime, EmailSubscriptionType emailSubscriptionType, boolean delete) {
+        aggregationKeysRemaining.addAndGet(keys.size());
+        return Multi.createFrom().iterable(keys)
+                .onItem().transformToUni(aggregationKey -> {
+                    if (!owned.getAsBoolean()) {
+                        aggregationKeysRemaining.decrementAndGet();
+                        return Uni.createFrom().item(List.<Tuple2<NotificationHistory, EmailAggregationKey>>of());
+                    }
+                    return withRequestContext(() -> processAggregateEmailsByAggregationKey(aggregationKey, startTime, endTime, emailSubscriptionType, delete).collect().asList())
+                            .onFailure().recoverWithItem(failure -> {
+                                log.log(Level.SEVERE, failure, () -> "Email aggregation failed for " + aggregationKey.getAccountId() + "/" + aggregationKey.getBundle() + "/" + aggregationKey.getApplication());
+                                return List.of();
+                            })
+                            .eventually(() -> {
+                                aggregationKeysDone.incrementAndGet();
+                                aggregationKeysRemaining.decrementAndGet();
+                            });
+                })
+                .merge(aggregationConcurrency)
+                .onItem().transformToMulti(Multi.createFrom()::iterable).concatenate()
+                .collect().asList();
+    }
+
+    /*
+     * The aggregation runs in the background so that the scheduler thread is released right away. A run which is
+     * triggered while the previous one is still running is skipped.
+     */
     @Scheduled(identity = "dailyEmailProcessor", cron = "{email.subscription.daily.cron}")
     public void processDailyEmail(ScheduledExecution se) {
-        // Only delete on the largest aggregate time frame. Currently daily.
-        processAggregateEmails(se.getScheduledFireTime(), EmailSubscriptionType.DAILY, true).await().indefinitely();
+        runDailyEmail(se.getScheduledFireTime())
+                .subscribe().with(ignored -> { }, failure -> log.log(Level.SEVERE, "Daily email aggregation failed", failure));
+    }
+
+    Uni<List<Tuple2<NotificationHistory, EmailAggregationKey>>> runDailyEmail(Instant scheduledFireTime) {
+        return Uni.createFrom().deferred(() -> {
+            if (!aggregationRunning.compareAndSet(false, true)) {
+                log.warning("The previous daily email aggregation is still running, this one is skipped");
+                return Uni.createFrom().item(List.of());
+            }
+            // Only delete on the largest aggregate time frame. Currently daily.
+            return processAggregateEmails(scheduledFireTime, EmailSubscriptionType.DAILY, true)
+                    .eventually(() -> aggregationRunning.set(false));
+        });
+    }
+
+    // Estimated number of seconds before the running aggregation ends, based on the average duration of the done keys.
+    double getAggregationEta() {
+        long done = aggregationKeysDone.get();
+        long remaining = aggregationKeysRemaining.get();
+        if (remaining == 0L) {
+            return 0.0;
+        } else if (done == 0L) {
+            return Double.NaN;
+        }
+        double elapsed = (System.nanoTime() - aggregationStart) / 1_000_000_000.0;
+        return elapsed / done * remaining;
     }
 
 }
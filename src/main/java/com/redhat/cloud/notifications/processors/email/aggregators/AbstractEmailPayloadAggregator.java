@@ -19,6 +19,28 @@ public abstract class AbstractEmailPayloadAggregator {
 
     abstract void processEmailAggregation(EmailAggregation aggregation);
 
+    /**
+     * Returns the fields of the payload of an event which are used by the aggregator, only these fields are stored
+     * until the aggregation. The payload is shared with the other deliveries of the event and must not be modified.
+     */
+    public JsonObject project(JsonObject payload) {
+        return payload;
+    }
+
+    /**
+     * Converts the payload of an event into a partial state which is merged into the running aggregation of its key
+     * when the aggregations are built incrementally, or returns null if the aggregator doesn't support it, the event
+     * is then stored as is. The partial states are merged by the database, which only keeps the last value of each
+     * entry: the value of an entry must only depend on its name.
+     */
+    public abstract JsonObject toPartialState(JsonObject payload);
+
+    /**
+     * Aggregates a running aggregation built from the partial states returned by {@link #toPartialState(JsonObject)}.
+     * It is only called if that method ever returned a partial state for the key.
+     */
+    abstract void processPartialState(JsonObject state);
+
     public void aggregate(EmailAggregation aggregation) {
         if (accountId == null) {
             accountId = aggregation.getAccountId();
@@ -26,7 +48,11 @@ public abstract class AbstractEmailPayloadAggregator {
             throw new RuntimeException("Invalid aggregation using different accountIds");
         }
 
-        processEmailAggregation(aggregation);
+        if (aggregation.isPreAggregated()) {
+            processPartialState(aggregation.getPayload());
+        } else {
+            processEmailAggregation(aggregation);
+        }
         ++processedAggregations;
     }
 
@@ -27,6 +27,9 @@ public class PoliciesEmailPayloadAggregator extends AbstractEmailPayloadAggregat
     private static final String INVENTORY_ID = "inventory_id";
     private static final String TAGS = "tags";
 
+    // Separates the policy from the host in the names of the partial state entries.
+    private static final String PARTIAL_STATE_SEPARATOR = "/";
+
     private final HashSet<String> uniqueHosts = new HashSet<>();
     private final HashMap<String, HashSet<String>> uniqueHostPerPolicy = new HashMap<>();
 
@@ -47,29 +50,109 @@ public class PoliciesEmailPayloadAggregator extends AbstractEmailPayloadAggregat
 
         notificationJson.getJsonArray(EVENTS_KEY).stream().forEach(eventObject -> {
             JsonObject event = (JsonObject) eventObject;
-            JsonObject payload = event.getJsonObject(PAYLOAD_KEY);
-            String policyId = payload.getString(POLICY_ID);
+            addPolicyHost(policies, event.getJsonObject(PAYLOAD_KEY), host);
+        });
 
-            if (!policies.containsKey(policyId)) {
-                JsonObject newPolicy = new JsonObject();
-                this.copyStringField(newPolicy, payload, POLICY_NAME);
-                this.copyStringField(newPolicy, payload, POLICY_ID);
-                this.copyStringField(newPolicy, payload, POLICY_DESCRIPTION);
-                this.copyStringField(newPolicy, payload, POLICY_CONDITION);
+        addHost(host);
+    }
 
-                newPolicy.put(HOST_KEY, new JsonArray());
+    @Override
+    public JsonObject project(JsonObject payload) {
+        JsonObject context = payload.getJsonObject(CONTEXT_KEY);
+        JsonObject projectedContext = new JsonObject();
+        this.copyStringField(projectedContext, context, DISPLAY_NAME);
+        this.copyStringField(projectedContext, context, INVENTORY_ID);
+        projectedContext.put(TAGS, context.getJsonArray(TAGS));
+
+        JsonArray projectedEvents = new JsonArray();
+        payload.getJsonArray(EVENTS_KEY).stream().forEach(eventObject -> {
+            JsonObject policyPayload = ((JsonObject) eventObject).getJsonObject(PAYLOAD_KEY);
+            JsonObject projectedPayload = new JsonObject();
+            this.copyStringField(projectedPayload, policyPayload, POLICY_NAME);
+            this.copyStringField(projectedPayload, policyPayload, POLICY_ID);
+            this.copyStringField(projectedPayload, policyPayload, POLICY_DESCRIPTION);
+            this.copyStringField(projectedPayload, policyPayload, POLICY_CONDITION);
+            projectedEvents.add(new JsonObject().put(PAYLOAD_KEY, projectedPayload));
+        });
 
-                policies.put(policyId, newPolicy);
-                uniqueHostPerPolicy.put(policyId, new HashSet<>());
-            }
+        return new JsonObject()
+                .put(CONTEXT_KEY, projectedContext)
+                .put(EVENTS_KEY, projectedEvents);
+    }
+
+    /*
+     * The partial state has one entry per policy and host, named after both of them. Each entry holds the fields of
+     * the policy and of the host. A host which didn't trigger any policy is named after itself only.
+     */
+    @Override
+    public JsonObject toPartialState(JsonObject payload) {
+        JsonObject context = payload.getJsonObject(CONTEXT_KEY);
+        JsonObject state = new JsonObject();
+
+        JsonObject host = new JsonObject();
+        this.copyStringField(host, context, DISPLAY_NAME);
+        this.copyStringField(host, context, INVENTORY_ID);
+        host.put(TAGS, context.getJsonArray(TAGS));
+        String insightsId = host.getString(INVENTORY_ID);
+
+        JsonArray events = payload.getJsonArray(EVENTS_KEY);
+        if (events.isEmpty()) {
+            state.put(PARTIAL_STATE_SEPARATOR + insightsId, host);
+        }
+        events.stream().forEach(eventObject -> {
+            JsonObject policyPayload = ((JsonObject) eventObject).getJsonObject(PAYLOAD_KEY);
+            JsonObject entry = host.copy();
+            this.copyStringField(entry, policyPayload, POLICY_NAME);
+            this.copyStringField(entry, policyPayload, POLICY_ID);
+            this.copyStringField(entry, policyPayload, POLICY_DESCRIPTION);
+            this.copyStringField(entry, policyPayload, POLICY_CONDITION);
+            state.put(policyPayload.getString(POLICY_ID) + PARTIAL_STATE_SEPARATOR + insightsId, entry);
+        });
+        return state;
+    }
+
+    @Override
+    void processPartialState(JsonObject state) {
+        JsonObject policies = context.getJsonObject(POLICIES_KEY);
+        state.stream().forEach(stateEntry -> {
+            JsonObject entry = (JsonObject) stateEntry.getValue();
 
-            JsonObject policy = policies.getJsonObject(policyId);
-            String insightsId = host.getString(INVENTORY_ID);
-            policy.getJsonArray(HOST_KEY).add(host);
-            uniqueHostPerPolicy.get(policyId).add(insightsId);
-            policy.put(UNIQUE_SYSTEM_COUNT, this.uniqueHostPerPolicy.get(policyId).size());
+            JsonObject host = new JsonObject();
+            this.copyStringField(host, entry, DISPLAY_NAME);
+            this.copyStringField(host, entry, INVENTORY_ID);
+            host.put(TAGS, entry.getJsonArray(TAGS));
+
+            if (entry.containsKey(POLICY_ID)) {
+                addPolicyHost(policies, entry, host);
+            }
+            addHost(host);
         });
+    }
+
+    private void addPolicyHost(JsonObject policies, JsonObject payload, JsonObject host) {
+        String policyId = payload.getString(POLICY_ID);
+
+        if (!policies.containsKey(policyId)) {
+            JsonObject newPolicy = new JsonObject();
+            this.copyStringField(newPolicy, payload, POLICY_NAME);
+            this.copyStringField(newPolicy, payload, POLICY_ID);
+            this.copyStringField(newPolicy, payload, POLICY_DESCRIPTION);
+            this.copyStringField(newPolicy, payload, POLICY_CONDITION);
+
+            newPolicy.put(HOST_KEY, new JsonArray());
+
+            policies.put(policyId, newPolicy);
+            uniqueHostPerPolicy.put(policyId, new HashSet<>());
+        }
+
+        JsonObject policy = policies.getJsonObject(policyId);
+        String insightsId = host.getString(INVENTORY_ID);
+        policy.getJsonArray(HOST_KEY).add(host);
+        uniqueHostPerPolicy.get(policyId).add(insightsId);
+        policy.put(UNIQUE_SYSTEM_COUNT, this.uniqueHostPerPolicy.get(policyId).size());
+    }
 
+    private void addHost(JsonObject host) {
         String insightsId = host.getString(INVENTORY_ID);
         uniqueHosts.add(insightsId);
         this.context.put(UNIQUE_SYSTEM_COUNT, this.uniqueHosts.size());
@@ -0,0 +1,52 @@
+package com.redhat.cloud.notifications.processors.webclient;
+
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.impl.ClientPhase;
+import io.vertx.ext.web.client.impl.HttpContext;
+import io.vertx.ext.web.client.impl.WebClientInternal;
+import io.vertx.mutiny.ext.web.client.WebClient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Gives access to the Vert.x {@link HttpClientRequest} of a web client request, which the web client API hides. It is
+ * needed to reset a request (and close its connection) when it is abandoned, since cancelling the subscription to the
+ * web client response leaves the underlying request running.
+ * <p>
+ * The listener of a tracked request is called each time a {@link HttpClientRequest} is sent for it, which happens
+ * more than once if redirects are followed.
+ */
+public class ClientRequestTracker {
+
+    private static final Map<HttpRequest<?>, Consumer<HttpClientRequest>> LISTENERS = new ConcurrentHashMap<>();
+
+    private ClientRequestTracker() {
+    }
+
+    // Must be called for every client which sends tracked requests.
+    public static WebClient install(WebClient client) {
+        ((WebClientInternal) client.getDelegate()).addInterceptor(ClientRequestTracker::intercept);
+        return client;
+    }
+
+    public static void track(HttpRequest<?> request, Consumer<HttpClientRequest> listener) {
+        LISTENERS.put(request, listener);
+    }
+
+    public static void untrack(HttpRequest<?> request) {
+        LISTENERS.remove(request);
+    }
+
+    private static void intercept(HttpContext<?> context) {
+        if (context.phase() == ClientPhase.SEND_REQUEST) {
+            Consumer<HttpClientRequest> listener = LISTENERS.get(context.request());
+            if (listener != null) {
+                listener.accept(context.clientRequest());
+            }
+        }
+        context.next();
+    }
+}
@@ -6,10 +6,17 @@ import io.vertx.mutiny.ext.web.client.WebClient;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Produces;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @ApplicationScoped
@@ -23,28 +30,105 @@ public class WebClientProducer {
     @ConfigProperty(name = "webclient.max_pool_size")
     Optional<Integer> maxPoolSize;
 
+    @ConfigProperty(name = "webclient.connect_timeout", defaultValue = "3s")
+    Duration connectTimeout;
+
+    @ConfigProperty(name = "webclient.keep_alive")
+    Optional<Boolean> keepAlive;
+
+    @ConfigProperty(name = "webclient.keep_alive_timeout")
+    Optional<Duration> keepAliveTimeout;
+
+    @ConfigProperty(name = "webclient.pipelining")
+    Optional<Boolean> pipelining;
+
+    @ConfigProperty(name = "webclient.max_wait_queue_size")
+    Optional<Integer> maxWaitQueueSize;
+
+    // Maximum number of clients with custom settings, the least recently used one is closed when it is exceeded.
+    @ConfigProperty(name = "webclient.custom_clients.max_size", defaultValue = "32")
+    int customClientsMaxSize;
+
+    // An evicted client may still run requests, it is only closed after this delay.
+    @ConfigProperty(name = "webclient.custom_clients.close_delay", defaultValue = "5m")
+    Duration customClientsCloseDelay;
+
+    /*
+     * Clients of the endpoints which override some of the connection settings, see getWebClient. The settings come from
+     * the endpoints, so the number of clients (and thus of connection pools) is bounded.
+     */
+    private final Map<List<Object>, WebClient> customWebClients = new LinkedHashMap<>(16, 0.75f, true);
+
+    @PostConstruct
+    void init() {
+        if (customClientsMaxSize < 1) {
+            throw new IllegalStateException("webclient.custom_clients.max_size must be greater than 0");
+        }
+    }
+
     @Produces
     @Singleton
     @SslVerificationEnabled
     public WebClient securedWebClient() {
-        return WebClient.create(vertx, buildOptions(false));
+        return ClientRequestTracker.install(WebClient.create(vertx, buildOptions(false)));
     }
 
     @Produces
     @Singleton
     @SslVerificationDisabled
     public WebClient unsecuredWebClient() {
-        return WebClient.create(vertx, buildOptions(true));
+        return ClientRequestTracker.install(WebClient.create(vertx, buildOptions(true)));
+    }
+
+    /**
+     * Returns a client with connection settings that differ from the default ones. Each client has its own connection
+     * pool and is shared by all the endpoints using the same settings. A null setting means the default one is used.
+     */
+    public synchronized WebClient getWebClient(boolean trustAll, Integer keepAliveTimeoutSeconds, Boolean pipelining, Integer maxWaitQueueSize) {
+        List<Object> key = Arrays.asList(trustAll, keepAliveTimeoutSeconds, pipelining, maxWaitQueueSize);
+        WebClient client = customWebClients.get(key);
+        if (client == null) {
+            LOGGER.debugf("Producing a WebClient with custom settings: %s", key);
+            WebClientOptions options = buildOptions(trustAll);
+            if (keepAliveTimeoutSeconds != null) {
+                options.setKeepAliveTimeout(keepAliveTimeoutSeconds);
+            }
+            if (pipelining != null) {
+                options.setPipelining(pipelining);
+            }
+            if (maxWaitQueueSize != null) {
+                options.setMaxWaitQueueSize(maxWaitQueueSize);
+            }
+            client = ClientRequestTracker.install(WebClient.create(vertx, options));
+            customWebClients.put(key, client);
+            evictCustomWebClients();
+        }
+        return client;
+    }
+
+    private void evictCustomWebClients() {
+        Iterator<Map.Entry<List<Object>, WebClient>> iterator = customWebClients.entrySet().iterator();
+        while (customWebClients.size() > customClientsMaxSize && iterator.hasNext()) {
+            Map.Entry<List<Object>, WebClient> eldest = iterator.next();
+            iterator.remove();
+            LOGGER.debugf("Closing the WebClient with custom settings: %s", eldest.getKey());
+            vertx.setTimer(Math.max(1L, customClientsCloseDelay.toMillis()), ignored -> eldest.getValue().close());
+        }
     }
 
     private WebClientOptions buildOptions(boolean trustAll) {
+        // The Vert.x defaults are used for the settings which are not configured.
         WebClientOptions options = new WebClientOptions()
                 .setTrustAll(trustAll)
-                .setConnectTimeout(3000); // TODO Should this be configurable by the system? We need a maximum in any case
+                .setConnectTimeout((int) connectTimeout.toMillis());
         if (maxPoolSize.isPresent()) {
             LOGGER.debugf("Producing a WebClient with a configured max pool size: %d", maxPoolSize.get());
-            options = options.setMaxPoolSize(maxPoolSize.get());
+            options.setMaxPoolSize(maxPoolSize.get());
         }
+        keepAlive.ifPresent(options::setKeepAlive);
+        keepAliveTimeout.ifPresent(timeout -> options.setKeepAliveTimeout((int) timeout.getSeconds()));
+        pipelining.ifPresent(options::setPipelining);
+        maxWaitQueueSize.ifPresent(options::setMaxWaitQueueSize);
         return options;
     }
 }
@@ -0,0 +1,130 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+import io.vertx.ext.web.codec.BodyCodec;
+import io.vertx.ext.web.codec.spi.BodyStream;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a response body as it is received, keeping at most {@code maxSize} bytes of it. The rest of the body is only
+ * counted, so a huge response never ends up in memory.
+ */
+class CappedBodyCodec implements BodyCodec<CappedBodyCodec.CappedBody> {
+
+    private final int maxSize;
+
+    CappedBodyCodec(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void create(Handler<AsyncResult<BodyStream<CappedBody>>> callback) {
+        callback.handle(Future.succeededFuture(new CappedBodyStream(maxSize)));
+    }
+
+    static class CappedBody {
+
+        private final Buffer head;
+        private final long length;
+
+        CappedBody(Buffer head, long length) {
+            this.head = head;
+            this.length = length;
+        }
+
+        // Total number of bytes received, including the ones which were not kept.
+        long getLength() {
+            return length;
+        }
+
+        boolean isTruncated() {
+            return length > head.length();
+        }
+
+        @Override
+        public String toString() {
+            // A multi-byte character cut by the truncation is decoded as a replacement character.
+            return head.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class CappedBodyStream implements BodyStream<CappedBody> {
+
+        private final int maxSize;
+        private final Buffer head = Buffer.buffer();
+        private final Promise<CappedBody> result = Promise.promise();
+        private long length;
+
+        CappedBodyStream(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public Future<CappedBody> result() {
+            return result.future();
+        }
+
+        @Override
+        public void handle(Throwable failure) {
+            result.tryFail(failure);
+        }
+
+        @Override
+        public WriteStream<Buffer> write(Buffer data) {
+            length += data.length();
+            int remaining = maxSize - head.length();
+            if (remaining > 0) {
+                head.appendBuffer(data, 0, Math.min(remaining, data.length()));
+            }
+            return this;
+        }
+
+        @Override
+        public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
+            write(data);
+            if (handler != null) {
+                handler.handle(Future.succeededFuture());
+            }
+            return this;
+        }
+
+        @Override
+        public void end() {
+            result.tryComplete(new CappedBody(head, length));
+        }
+
+        @Override
+        public void end(Handler<AsyncResult<Void>> handler) {
+            end();
+            if (handler != null) {
+                handler.handle(Future.succeededFuture());
+            }
+        }
+
+        @Override
+        public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+
+        @Override
+        public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+            return this;
+        }
+
+        @Override
+        public boolean writeQueueFull() {
+            return false;
+        }
+
+        @Override
+        public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+            return this;
+        }
+    }
+}
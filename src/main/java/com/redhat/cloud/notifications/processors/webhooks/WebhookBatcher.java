@@ -0,0 +1,253 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import com.redhat.cloud.notifications.events.NotificationHistoryWriter;
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.Notification;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.models.WebhookProperties;
+import com.redhat.cloud.notifications.transformers.ActionPayload;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.reactive.messaging.Acknowledgment.Strategy;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.redhat.cloud.notifications.utils.RequestContexts.withRequestContext;
+
+/**
+ * Accumulates the events sent to the webhook endpoints which enabled the batched deliveries.
+ * <p>
+ * The events of an endpoint are buffered until {@code batch_size} events were received or until the oldest one waited
+ * for {@code batch_max_wait}, then they are sent in a single request whose body is the JSON array of their payloads.
+ * Each batch produces a single notification history which lists the events it contained. Since the event processing
+ * can't wait for the batch to be sent, the batch history is written by this class rather than by the caller, and the
+ * failed batches are retried as a whole by the {@link WebhookRetryQueue}. The pending batches are sent when the
+ * application shuts down, or earlier when more than {@code max_pending} events are waiting across all the endpoints.
+ * <p>
+ * The batched deliveries are at-most-once: the processing of an event completes as soon as the event is added to a
+ * batch, so its ingress message can be acked before the batch is sent and the events of the batches that are still
+ * pending when the pod dies are lost. The batching is therefore disabled when the ingress messages are acked after
+ * their processing, the endpoints which enabled it then receive one request per event.
+ */
+@ApplicationScoped
+public class WebhookBatcher {
+
+    public static final String BATCH_SIZE_SUMMARY_NAME = "processor.webhook.batch.size";
+    public static final String PENDING_GAUGE_NAME = "processor.webhook.batch.pending";
+    // Added to the history details of the batches.
+    public static final String EVENTS_DETAIL = "events";
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookBatcher.class.getName());
+
+    // Used when the endpoint doesn't set its own batch max wait.
+    @ConfigProperty(name = "processor.webhook.batch.max_wait", defaultValue = "1s")
+    Duration maxWait;
+
+    @ConfigProperty(name = "processor.webhook.batch.max_pending", defaultValue = "10000")
+    int maxPending;
+
+    @ConfigProperty(name = "processor.webhook.batch.shutdown_timeout", defaultValue = "30s")
+    Duration shutdownTimeout;
+
+    @ConfigProperty(name = "ingress.acknowledgment", defaultValue = "PRE_PROCESSING")
+    Strategy acknowledgment;
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    WebhookTypeProcessor webhooks;
+
+    @Inject
+    WebhookRetryQueue retryQueue;
+
+    @Inject
+    WebhookCircuitBreaker circuitBreaker;
+
+    @Inject
+    NotificationHistoryWriter historyWriter;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Map<UUID, Batch> batches = new HashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private DistributionSummary batchSizes;
+
+    @PostConstruct
+    void init() {
+        if (maxPending < 1) {
+            throw new IllegalStateException("processor.webhook.batch.max_pending must be greater than 0");
+        }
+        registry.gauge(PENDING_GAUGE_NAME, pending);
+        batchSizes = registry.summary(BATCH_SIZE_SUMMARY_NAME);
+        if (acknowledgment == Strategy.POST_PROCESSING) {
+            LOGGER.info("The webhook batches are disabled because the ingress messages are acked after their processing");
+        }
+    }
+
+    public boolean isBatched(Endpoint endpoint) {
+        if (acknowledgment == Strategy.POST_PROCESSING) {
+            return false;
+        }
+        if (endpoint.getProperties() instanceof WebhookProperties) {
+            Integer batchSize = endpoint.getProperties(WebhookProperties.class).getBatchSize();
+            return batchSize != null && batchSize > 1;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the event to the batch of its endpoint. The batch is sent asynchronously if it is full.
+     */
+    public void add(Notification item, ActionPayload payload) {
+        Endpoint endpoint = item.getEndpoint();
+        WebhookProperties properties = endpoint.getProperties(WebhookProperties.class);
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = batches.get(endpoint.getId());
+            if (batch == null) {
+                batch = new Batch(endpoint);
+                batches.put(endpoint.getId(), batch);
+                Batch created = batch;
+                long delay = properties.getBatchMaxWait() == null ? maxWait.toMillis() : properties.getBatchMaxWait();
+                batch.timerId = vertx.setTimer(Math.max(1L, delay), ignored -> expire(created));
+            }
+            batch.items.add(item);
+            batch.payloads.add(payload);
+            int waiting = pending.incrementAndGet();
+            // The batch is also sent early when too many events are waiting, to bound the memory used by the batches.
+            if (batch.items.size() >= properties.getBatchSize() || waiting > maxPending) {
+                batches.remove(endpoint.getId());
+                full = batch;
+            }
+        }
+        if (full != null) {
+            vertx.cancelTimer(full.timerId);
+            send(full).subscribe().with(ignored -> { });
+        }
+    }
+
+    private void expire(Batch batch) {
+        boolean expired;
+        synchronized (this) {
+            // The batch may have been sent already because it was full.
+            expired = batches.remove(batch.endpoint.getId(), batch);
+        }
+        if (expired) {
+            send(batch).subscribe().with(ignored -> { });
+        }
+    }
+
+    /*
+     * Sends the batch, then writes its history. The payloads of the actions are already encoded, they are only
+     * concatenated into a JSON array.
+     */
+    Uni<Void> send(Batch batch) {
+        pending.addAndGet(-batch.items.size());
+        batchSizes.record(batch.items.size());
+        Buffer body = Buffer.buffer().appendString("[");
+        for (int i = 0; i < batch.payloads.size(); i++) {
+            if (i > 0) {
+                body.appendString(",");
+            }
+            body.appendBuffer(batch.payloads.get(i).getBuffer());
+        }
+        body.appendString("]");
+
+        // The webhook deliveries only need the account of the action.
+        Notification item = new Notification(batch.items.get(0).getAction(), batch.endpoint);
+        return webhooks.deliver(item, ActionPayload.encoded(body))
+                .onItem().transformToUni(history -> {
+                    Map<String, Object> details = history.getDetails() == null ? new HashMap<>() : new HashMap<>(history.getDetails());
+                    details.put(EVENTS_DETAIL, describe(batch.items));
+                    history.setDetails(details);
+                    return retryQueue.schedule(item, history, body)
+                            .call(() -> writeHistory(batch.endpoint, history));
+                })
+                .onFailure().recoverWithItem(failure -> {
+                    LOGGER.log(Level.SEVERE, "Webhook batch of " + batch.items.size() + " events could not be sent to endpoint " + batch.endpoint.getId(), failure);
+                    return null;
+                });
+    }
+
+    /*
+     * The batches are sent outside of any request context while the SYNC history writes and the circuit breaker rely on
+     * the Hibernate Reactive session, a request context is therefore only activated when one of them needs it.
+     */
+    private Uni<Void> writeHistory(Endpoint endpoint, NotificationHistory history) {
+        if (!historyWriter.usesSession() && !circuitBreaker.hasStateToPersist(endpoint.getId())) {
+            return historyWriter.write(history).replaceWith((Void) null);
+        }
+        return withRequestContext(() -> historyWriter.write(history)
+                .call(() -> circuitBreaker.persistState(endpoint))
+                .replaceWith((Void) null));
+    }
+
+    // The actions don't have any identifier, they are described by their route and timestamp.
+    private static List<Map<String, Object>> describe(List<Notification> items) {
+        List<Map<String, Object>> events = new ArrayList<>(items.size());
+        for (Notification item : items) {
+            Action action = item.getAction();
+            events.add(new JsonObject()
+                    .put("bundle", action.getBundle())
+                    .put("application", action.getApplication())
+                    .put("event_type", action.getEventType())
+                    .put("timestamp", action.getTimestamp() == null ? null : action.getTimestamp().toString())
+                    .getMap());
+        }
+        return events;
+    }
+
+    void onShutdown(@Observes ShutdownEvent event) {
+        List<Batch> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        if (remaining.isEmpty()) {
+            return;
+        }
+        remaining.forEach(batch -> vertx.cancelTimer(batch.timerId));
+        try {
+            Multi.createFrom().iterable(remaining)
+                    .onItem().transformToUniAndMerge(this::send)
+                    .collect().last()
+                    .await().atMost(shutdownTimeout);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Pending webhook batches could not be sent before the shutdown", e);
+        }
+    }
+
+    static class Batch {
+
+        final Endpoint endpoint;
+        final List<Notification> items = new ArrayList<>();
+        final List<ActionPayload> payloads = new ArrayList<>();
+        long timerId;
+
+        Batch(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent HTTP requests sent to each destination host, so that a single slow or hanging
+ * host can't hold all the connections of the shared web clients pools.
+ * <p>
+ * A request sent to a host which already has {@code max_concurrency} requests in flight is deferred: it waits in a
+ * per-host queue and is only sent when one of the running requests terminates. No thread is blocked while waiting. A
+ * request which can't be queued because the host queue already holds {@code max_wait_queue} requests is rejected with
+ * a {@link RejectedExecutionException}.
+ * <p>
+ * The meters are tagged with the host buckets of {@code processor.webhook.metrics.hosts}, the same ones as the webhook
+ * delivery timer, so that the number of time series doesn't grow with the number of destination hosts.
+ */
+@ApplicationScoped
+public class WebhookBulkhead {
+
+    public static final String IN_FLIGHT_GAUGE_NAME = "processor.webhook.bulkhead.in_flight";
+    public static final String QUEUED_GAUGE_NAME = "processor.webhook.bulkhead.queued";
+    public static final String REJECTED_COUNTER_NAME = "processor.webhook.bulkhead.rejected";
+    public static final String HOST_TAG = "host";
+
+    @ConfigProperty(name = "processor.webhook.bulkhead.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "processor.webhook.bulkhead.max_concurrency", defaultValue = "10")
+    int maxConcurrency;
+
+    @ConfigProperty(name = "processor.webhook.bulkhead.max_wait_queue", defaultValue = "100")
+    int maxWaitQueue;
+
+    @ConfigProperty(name = "processor.webhook.metrics.hosts")
+    Optional<List<String>> metricsHosts;
+
+    @Inject
+    MeterRegistry registry;
+
+    // The compartments of the hosts without any running or waiting request are evicted.
+    final Map<String, Compartment> compartments = new ConcurrentHashMap<>();
+    // The meters are shared by the hosts of a same bucket, see WebhookTypeProcessor#getHostBucket.
+    private final Map<String, BucketMeters> meters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        if (maxConcurrency < 1) {
+            throw new IllegalStateException("processor.webhook.bulkhead.max_concurrency must be greater than 0");
+        }
+        if (maxWaitQueue < 0) {
+            throw new IllegalStateException("processor.webhook.bulkhead.max_wait_queue must not be negative");
+        }
+    }
+
+    /**
+     * Subscribes to the {@link Uni} returned by the given call once the host has a free slot. The slot is released
+     * when that {@link Uni} terminates, whatever the outcome, or when the returned {@link Uni} is cancelled.
+     */
+    public <T> Uni<T> execute(String host, Supplier<Uni<T>> call) {
+        if (!enabled) {
+            return Uni.createFrom().deferred(call::get);
+        }
+        return Uni.createFrom().emitter(emitter -> {
+            AtomicBoolean terminated = new AtomicBoolean();
+            AtomicReference<Cancellable> running = new AtomicReference<>();
+            Compartment compartment = acquireCompartment(host);
+            Runnable start = () -> {
+                running.set(Uni.createFrom().deferred(call::get)
+                        .onTermination().invoke(() -> release(compartment))
+                        .subscribe().with(emitter::complete, emitter::fail));
+                // The request was cancelled while it was being started.
+                if (terminated.get()) {
+                    running.get().cancel();
+                }
+            };
+            // A cancelled request is cancelled downstream if it's running, and must not be sent later if it's waiting.
+            emitter.onTermination(() -> {
+                terminated.set(true);
+                Cancellable cancellable = running.get();
+                if (cancellable != null) {
+                    cancellable.cancel();
+                }
+                synchronized (compartment) {
+                    if (compartment.waiting.remove(start)) {
+                        compartment.meters.queued.decrementAndGet();
+                    }
+                }
+            });
+            boolean acquired = false;
+            boolean queued = false;
+            synchronized (compartment) {
+                if (compartment.inFlight < maxConcurrency) {
+                    compartment.inFlight++;
+                    compartment.meters.inFlight.incrementAndGet();
+                    acquired = true;
+                } else if (compartment.waiting.size() < maxWaitQueue) {
+                    compartment.waiting.add(start);
+                    compartment.meters.queued.incrementAndGet();
+                    queued = true;
+                }
+            }
+            if (acquired) {
+                start.run();
+            } else if (!queued) {
+                compartment.meters.rejected.increment();
+                emitter.fail(new RejectedExecutionException("Too many concurrent requests to " + host));
+            }
+        });
+    }
+
+    // Returns the compartment of the host, an evicted compartment can't be used anymore and is replaced.
+    private Compartment acquireCompartment(String host) {
+        while (true) {
+            Compartment compartment = compartments.computeIfAbsent(host, this::createCompartment);
+            synchronized (compartment) {
+                if (!compartment.evicted) {
+                    return compartment;
+                }
+            }
+        }
+    }
+
+    // The slot of the terminated request is handed over to the first waiting request, if any.
+    private void release(Compartment compartment) {
+        Runnable next;
+        synchronized (compartment) {
+            next = compartment.waiting.poll();
+            if (next == null) {
+                compartment.inFlight--;
+                compartment.meters.inFlight.decrementAndGet();
+                if (compartment.inFlight == 0) {
+                    compartment.evicted = true;
+                    compartments.remove(compartment.host, compartment);
+                }
+            } else {
+                compartment.meters.queued.decrementAndGet();
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    private Compartment createCompartment(String host) {
+        String bucket = WebhookTypeProcessor.getHostBucket(host, metricsHosts.orElse(List.of()));
+        return new Compartment(host, meters.computeIfAbsent(bucket, this::createMeters));
+    }
+
+    private BucketMeters createMeters(String bucket) {
+        Tags tags = Tags.of(HOST_TAG, bucket);
+        BucketMeters bucketMeters = new BucketMeters(registry.counter(REJECTED_COUNTER_NAME, tags));
+        registry.gauge(IN_FLIGHT_GAUGE_NAME, tags, bucketMeters.inFlight);
+        registry.gauge(QUEUED_GAUGE_NAME, tags, bucketMeters.queued);
+        return bucketMeters;
+    }
+
+    // The fields are guarded by the compartment monitor.
+    static class Compartment {
+
+        final String host;
+        final BucketMeters meters;
+        final Deque<Runnable> waiting = new ArrayDeque<>();
+        int inFlight;
+        boolean evicted;
+
+        Compartment(String host, BucketMeters meters) {
+            this.host = host;
+            this.meters = meters;
+        }
+    }
+
+    private static class BucketMeters {
+
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger queued = new AtomicInteger();
+        final Counter rejected;
+
+        BucketMeters(Counter rejected) {
+            this.rejected = rejected;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.models.Endpoint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Stops sending webhooks to the endpoints which keep failing.
+ * <p>
+ * The circuit of an endpoint opens after {@code failure_threshold} consecutive failures, or when at least
+ * {@code failure_rate} of the last {@code window_size} deliveries failed. While it is open, the deliveries to the
+ * endpoint are skipped without any HTTP call. Once {@code open_duration} has elapsed, at most
+ * {@code half_open_probes} deliveries are let through: the circuit closes if one of them succeeds and opens again if
+ * one of them fails. When {@code disable_after} is greater than 0, an endpoint whose circuit opened that many times in
+ * a row without any successful probe is disabled in the database and must then be enabled again by its owner.
+ */
+@ApplicationScoped
+public class WebhookCircuitBreaker {
+
+    public static final String OPENED_COUNTER_NAME = "processor.webhook.circuit_breaker.opened";
+    public static final String SKIPPED_COUNTER_NAME = "processor.webhook.circuit_breaker.skipped";
+    public static final String DISABLED_COUNTER_NAME = "processor.webhook.circuit_breaker.disabled";
+    public static final String OPEN_GAUGE_NAME = "processor.webhook.circuit_breaker.open";
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookCircuitBreaker.class.getName());
+
+    @ConfigProperty(name = "processor.webhook.circuit_breaker.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "processor.webhook.circuit_breaker.failure_threshold", defaultValue = "5")
+    int failureThreshold;
+
+    @ConfigProperty(name = "processor.webhook.circuit_breaker.failure_rate", defaultValue = "0.5")
+    double failureRate;
+
+    @ConfigProperty(name = "processor.webhook.circuit_breaker.window_size", defaultValue = "20")
+    int windowSize;
+
+    @ConfigProperty(name = "processor.webhook.circuit_breaker.open_duration", defaultValue = "60s")
+    Duration openDuration;
+
+    @ConfigProperty(name = "processor.webhook.circuit_breaker.half_open_probes", defaultValue = "1")
+    int halfOpenProbes;
+
+    @ConfigProperty(name = "processor.webhook.circuit_breaker.disable_after", defaultValue = "0")
+    int disableAfter;
+
+    @Inject
+    EndpointResources endpointResources;
+
+    @Inject
+    MeterRegistry registry;
+
+    // Replaced in the tests.
+    LongSupplier nanoTime = System::nanoTime;
+
+    private final Map<UUID, Circuit> circuits = new ConcurrentHashMap<>();
+    // Endpoints which have to be disabled the next time persistState is called.
+    private final Set<UUID> toDisable = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger openCircuits = new AtomicInteger();
+    private Counter opened;
+    private Counter skipped;
+    private Counter disabled;
+
+    @PostConstruct
+    void init() {
+        if (failureThreshold < 1 || windowSize < 1 || halfOpenProbes < 1) {
+            throw new IllegalStateException("processor.webhook.circuit_breaker.failure_threshold, window_size and half_open_probes must be greater than 0");
+        }
+        registry.gauge(OPEN_GAUGE_NAME, openCircuits);
+        opened = registry.counter(OPENED_COUNTER_NAME);
+        skipped = registry.counter(SKIPPED_COUNTER_NAME);
+        disabled = registry.counter(DISABLED_COUNTER_NAME);
+    }
+
+    /**
+     * Returns true if a delivery to the endpoint can be sent. Every allowed delivery must then be reported with
+     * {@link #record(UUID, boolean)}, or with {@link #release(UUID)} if it was abandoned without any outcome.
+     */
+    public boolean tryAcquire(UUID endpointId) {
+        if (!enabled || endpointId == null) {
+            return true;
+        }
+        Circuit circuit = circuits.computeIfAbsent(endpointId, ignored -> new Circuit(windowSize));
+        synchronized (circuit) {
+            if (circuit.state == State.OPEN && nanoTime.getAsLong() - circuit.openedAt >= openDuration.toNanos()) {
+                circuit.state = State.HALF_OPEN;
+                circuit.probes = 0;
+            }
+            switch (circuit.state) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    if (circuit.probes < halfOpenProbes) {
+                        circuit.probes++;
+                        return true;
+                    }
+                    break;
+                case OPEN:
+                default:
+                    break;
+            }
+        }
+        skipped.increment();
+        return false;
+    }
+
+    public void record(UUID endpointId, boolean success) {
+        if (!enabled || endpointId == null) {
+            return;
+        }
+        Circuit circuit = circuits.get(endpointId);
+        if (circuit == null) {
+            return;
+        }
+        boolean open = false;
+        synchronized (circuit) {
+            if (circuit.state == State.HALF_OPEN) {
+                if (success) {
+                    circuit.close();
+                    openCircuits.decrementAndGet();
+                } else {
+                    open = true;
+                }
+            } else if (circuit.state == State.CLOSED) {
+                circuit.add(success);
+                open = circuit.consecutiveFailures >= failureThreshold
+                        || circuit.count == circuit.outcomes.length && circuit.failures >= failureRate * circuit.count;
+                if (open) {
+                    openCircuits.incrementAndGet();
+                }
+            }
+            // The late results of the deliveries sent before the circuit opened are ignored.
+            if (open) {
+                circuit.state = State.OPEN;
+                circuit.openedAt = nanoTime.getAsLong();
+                circuit.consecutiveOpens++;
+                opened.increment();
+                if (disableAfter > 0 && circuit.consecutiveOpens >= disableAfter) {
+                    toDisable.add(endpointId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives back the probe of a delivery which was cancelled before its outcome was known, otherwise a half open
+     * circuit would wait forever for a result which never comes.
+     */
+    public void release(UUID endpointId) {
+        if (!enabled || endpointId == null) {
+            return;
+        }
+        Circuit circuit = circuits.get(endpointId);
+        if (circuit == null) {
+            return;
+        }
+        synchronized (circuit) {
+            if (circuit.state == State.HALF_OPEN && circuit.probes > 0) {
+                circuit.probes--;
+            }
+        }
+    }
+
+    // True if persistState has something to write for the endpoint.
+    public boolean hasStateToPersist(UUID endpointId) {
+        return endpointId != null && toDisable.contains(endpointId);
+    }
+
+    /**
+     * Disables the endpoint in the database if its circuit opened too many times in a row. This relies on the
+     * Hibernate Reactive session, so it must be called from the same lane as the history writes.
+     */
+    public Uni<Void> persistState(Endpoint endpoint) {
+        if (endpoint == null || !toDisable.remove(endpoint.getId())) {
+            return Uni.createFrom().voidItem();
+        }
+        LOGGER.info(() -> "Disabling endpoint " + endpoint.getId() + " of account " + endpoint.getAccountId() + " after repeated failures");
+        disabled.increment();
+        return endpointResources.disableEndpoint(endpoint.getAccountId(), endpoint.getId())
+                .invoke(() -> {
+                    Circuit circuit = circuits.remove(endpoint.getId());
+                    if (circuit != null) {
+                        synchronized (circuit) {
+                            if (circuit.state != State.CLOSED) {
+                                openCircuits.decrementAndGet();
+                            }
+                        }
+                    }
+                })
+                .replaceWith((Void) null);
+    }
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static class Circuit {
+
+        State state = State.CLOSED;
+        // Ring buffer of the last outcomes, true meaning a failure.
+        final boolean[] outcomes;
+        int next;
+        int count;
+        int failures;
+        int consecutiveFailures;
+        int consecutiveOpens;
+        long openedAt;
+        int probes;
+
+        Circuit(int windowSize) {
+            outcomes = new boolean[windowSize];
+        }
+
+        void add(boolean success) {
+            if (count == outcomes.length) {
+                if (outcomes[next]) {
+                    failures--;
+                }
+            } else {
+                count++;
+            }
+            outcomes[next] = !success;
+            next = (next + 1) % outcomes.length;
+            if (success) {
+                consecutiveFailures = 0;
+            } else {
+                failures++;
+                consecutiveFailures++;
+            }
+        }
+
+        void close() {
+            state = State.CLOSED;
+            Arrays.fill(outcomes, false);
+            next = 0;
+            count = 0;
+            failures = 0;
+            consecutiveFailures = 0;
+            consecutiveOpens = 0;
+        }
+    }
+}
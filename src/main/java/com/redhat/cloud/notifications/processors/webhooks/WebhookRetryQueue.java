@@ -0,0 +1,261 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.db.WebhookRetryResources;
+import com.redhat.cloud.notifications.events.NotificationHistoryWriter;
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.Notification;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.models.WebhookRetry;
+import com.redhat.cloud.notifications.transformers.ActionPayload;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.core.buffer.Buffer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
+
+/**
+ * Sends again the webhook deliveries which failed with a temporary error: a 5xx response or a failure without any
+ * response such as a timeout or a connection error.
+ * <p>
+ * The failed deliveries are stored in the {@code webhook_retry} table with the payload which was sent, so they survive
+ * a restart. A scheduled job claims the due retries and sends them again with at most {@code endpoint_concurrency}
+ * concurrent requests per endpoint. After each failed attempt, the next one is delayed with an exponential backoff
+ * with jitter, until {@code max_attempts} attempts (including the first delivery) were made. Each attempt produces its
+ * own notification history. The Kafka consumer only waits for the retry to be stored, never for the retry itself.
+ */
+@ApplicationScoped
+public class WebhookRetryQueue {
+
+    public static final String SCHEDULED_COUNTER_NAME = "processor.webhook.retry.scheduled";
+    public static final String ATTEMPTS_COUNTER_NAME = "processor.webhook.retry.attempts";
+    public static final String EXHAUSTED_COUNTER_NAME = "processor.webhook.retry.exhausted";
+    // Added to the history details of the retries.
+    public static final String ATTEMPT_DETAIL = "attempt";
+
+    private static final Logger LOGGER = Logger.getLogger(WebhookRetryQueue.class.getName());
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    @ConfigProperty(name = "processor.webhook.retry.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "processor.webhook.retry.max_attempts", defaultValue = "5")
+    int maxAttempts;
+
+    @ConfigProperty(name = "processor.webhook.retry.initial_backoff", defaultValue = "10s")
+    Duration initialBackoff;
+
+    @ConfigProperty(name = "processor.webhook.retry.max_backoff", defaultValue = "1h")
+    Duration maxBackoff;
+
+    @ConfigProperty(name = "processor.webhook.retry.batch_size", defaultValue = "100")
+    int batchSize;
+
+    // Maximum number of endpoints retried concurrently.
+    @ConfigProperty(name = "processor.webhook.retry.concurrency", defaultValue = "10")
+    int concurrency;
+
+    @ConfigProperty(name = "processor.webhook.retry.endpoint_concurrency", defaultValue = "1")
+    int endpointConcurrency;
+
+    // How long a claimed retry stays invisible to the other claims, it must exceed the duration of a re-drive.
+    @ConfigProperty(name = "processor.webhook.retry.lease", defaultValue = "5m")
+    Duration lease;
+
+    @Inject
+    WebhookRetryResources retryResources;
+
+    @Inject
+    EndpointResources endpointResources;
+
+    @Inject
+    WebhookTypeProcessor webhooks;
+
+    @Inject
+    NotificationHistoryWriter historyWriter;
+
+    @Inject
+    WebhookCircuitBreaker circuitBreaker;
+
+    @Inject
+    MeterRegistry registry;
+
+    private Counter scheduled;
+    private Counter attempts;
+    private Counter exhausted;
+
+    @PostConstruct
+    void init() {
+        if (maxAttempts < 1) {
+            throw new IllegalStateException("processor.webhook.retry.max_attempts must be greater than 0");
+        }
+        scheduled = registry.counter(SCHEDULED_COUNTER_NAME);
+        attempts = registry.counter(ATTEMPTS_COUNTER_NAME);
+        exhausted = registry.counter(EXHAUSTED_COUNTER_NAME);
+    }
+
+    /**
+     * Stores the failed first delivery of a webhook if it can be retried.
+     */
+    public Uni<Void> schedule(Notification item, NotificationHistory history, Buffer payload) {
+        if (!enabled || maxAttempts < 2 || !isRetriable(history)) {
+            return Uni.createFrom().voidItem();
+        }
+        scheduled.increment();
+        WebhookRetry retry = new WebhookRetry(UUID.randomUUID(), item.getTenant(), item.getEndpoint().getId(), payload.toString(), 1);
+        LocalDateTime now = LocalDateTime.now(UTC);
+        return retryResources.createRetry(retry, now.plus(backoff(1)), now)
+                .onFailure().recoverWithItem(failure -> {
+                    LOGGER.log(Level.SEVERE, "Webhook retry could not be stored for endpoint " + retry.getEndpointId(), failure);
+                    return null;
+                });
+    }
+
+    @Scheduled(identity = "webhookRetry", every = "{processor.webhook.retry.interval}", concurrentExecution = SKIP)
+    void scheduledRedrive() {
+        if (enabled) {
+            redrive().await().indefinitely();
+        }
+    }
+
+    /*
+     * Sends one batch of due retries. The histories and the retries updates are written one at a time because the
+     * history writes may rely on the Hibernate Reactive session, which can't be used concurrently.
+     */
+    Uni<Integer> redrive() {
+        LocalDateTime now = LocalDateTime.now(UTC);
+        return retryResources.claimRetries(now, now.plus(lease), batchSize)
+                .onItem().transformToUni(retries -> {
+                    if (retries.isEmpty()) {
+                        return Uni.createFrom().item(0);
+                    }
+                    Map<UUID, List<WebhookRetry>> retriesPerEndpoint = retries.stream()
+                            .collect(Collectors.groupingBy(WebhookRetry::getEndpointId, LinkedHashMap::new, Collectors.toList()));
+                    return endpointResources.getEnabledEndpoints(retriesPerEndpoint.keySet())
+                            .onItem().transformToUni(endpoints -> {
+                                Map<UUID, Endpoint> endpointsById = endpoints.stream()
+                                        .collect(Collectors.toMap(Endpoint::getId, Function.identity()));
+                                return Multi.createFrom().iterable(retriesPerEndpoint.entrySet())
+                                        .onItem().transformToMulti(entry -> attempt(endpointsById.get(entry.getKey()), entry.getValue()))
+                                        .merge(concurrency)
+                                        .onItem().transformToUniAndConcatenate(attempt -> complete(attempt).replaceWith(attempt))
+                                        .collect().asList()
+                                        .onItem().transform(List::size);
+                            });
+                })
+                .onFailure().recoverWithItem(failure -> {
+                    LOGGER.log(Level.SEVERE, "Webhook retries could not be processed", failure);
+                    return 0;
+                });
+    }
+
+    private Multi<Attempt> attempt(Endpoint endpoint, List<WebhookRetry> retries) {
+        if (endpoint == null) {
+            // The endpoint was disabled or deleted since the first delivery.
+            return Multi.createFrom().iterable(retries)
+                    .onItem().transform(retry -> new Attempt(retry, null));
+        }
+        return Multi.createFrom().iterable(retries)
+                .onItem().transformToUni(retry -> {
+                    attempts.increment();
+                    // The webhook deliveries only need the account of the action.
+                    Action action = new Action();
+                    action.setAccountId(retry.getAccountId());
+                    Notification item = new Notification(action, endpoint);
+                    return webhooks.deliver(item, ActionPayload.encoded(Buffer.buffer(retry.getPayload())))
+                            .onItem().transform(history -> new Attempt(retry, history));
+                }).merge(endpointConcurrency);
+    }
+
+    private Uni<Void> complete(Attempt attempt) {
+        WebhookRetry retry = attempt.retry;
+        if (attempt.history == null) {
+            return retryResources.deleteRetry(retry.getId());
+        }
+        int attemptNumber = retry.getAttempts() + 1;
+        Map<String, Object> details = attempt.history.getDetails() == null ? new HashMap<>() : new HashMap<>(attempt.history.getDetails());
+        details.put(ATTEMPT_DETAIL, attemptNumber);
+        attempt.history.setDetails(details);
+
+        Uni<Void> update;
+        if (attempt.history.isInvocationResult() || !isRetriable(attempt.history)) {
+            update = retryResources.deleteRetry(retry.getId());
+        } else if (attemptNumber >= maxAttempts) {
+            exhausted.increment();
+            LOGGER.fine(() -> "Webhook delivery to endpoint " + retry.getEndpointId() + " failed after " + attemptNumber + " attempts");
+            update = retryResources.deleteRetry(retry.getId());
+        } else {
+            update = retryResources.rescheduleRetry(retry.getId(), attemptNumber, LocalDateTime.now(UTC).plus(backoff(attemptNumber)));
+        }
+        return historyWriter.write(attempt.history)
+                .onFailure().invoke(failure -> LOGGER.severe("Notification history creation failed for " + attempt.history.getEndpoint()))
+                .onItemOrFailure().transformToUni((ignored, failure) -> update)
+                .call(() -> circuitBreaker.persistState(attempt.history.getEndpoint()))
+                .onFailure().recoverWithItem(failure -> {
+                    LOGGER.log(Level.SEVERE, "Webhook retry " + retry.getId() + " could not be updated", failure);
+                    return null;
+                });
+    }
+
+    /*
+     * Only the 5xx responses and the failures without any response are retried, the other responses wouldn't be
+     * different next time. The deliveries skipped by an open circuit are not retried either: the circuit is open
+     * precisely to stop sending to the endpoint, and each skipped event would otherwise add a retry.
+     */
+    static boolean isRetriable(NotificationHistory history) {
+        if (history.isInvocationResult() || history.getDetails() == null || history.getDetails().containsKey("circuit_breaker")) {
+            return false;
+        }
+        Object code = history.getDetails().get("code");
+        return !(code instanceof Number) || ((Number) code).intValue() >= 500;
+    }
+
+    /*
+     * Delay before the attempt which follows the given one: the initial backoff doubled after each attempt and capped
+     * to the max backoff, of which a random half is kept so that the retries of an outage don't all come back at once.
+     */
+    Duration backoff(int attempt) {
+        long max = maxBackoff.toMillis();
+        long delay = initialBackoff.toMillis();
+        for (int i = 1; i < attempt && delay < max; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, max);
+        long half = delay / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(delay - half + 1));
+    }
+
+    private static class Attempt {
+
+        final WebhookRetry retry;
+        // Null when the retry wasn't attempted.
+        final NotificationHistory history;
+
+        Attempt(WebhookRetry retry, NotificationHistory history) {
+            this.retry = retry;
+            this.history = history;
+        }
+    }
+}
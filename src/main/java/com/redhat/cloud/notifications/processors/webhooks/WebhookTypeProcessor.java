@@ -5,30 +5,64 @@ import com.redhat.cloud.notifications.models.Notification;
 import com.redhat.cloud.notifications.models.NotificationHistory;
 import com.redhat.cloud.notifications.models.WebhookProperties;
 import com.redhat.cloud.notifications.processors.EndpointTypeProcessor;
+import com.redhat.cloud.notifications.processors.webclient.ClientRequestTracker;
 import com.redhat.cloud.notifications.processors.webclient.SslVerificationDisabled;
 import com.redhat.cloud.notifications.processors.webclient.SslVerificationEnabled;
+import com.redhat.cloud.notifications.processors.webclient.WebClientProducer;
+import com.redhat.cloud.notifications.processors.webhooks.CappedBodyCodec.CappedBody;
+import com.redhat.cloud.notifications.transformers.ActionPayload;
 import com.redhat.cloud.notifications.transformers.BaseTransformer;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ConnectTimeoutException;
+import io.smallrye.mutiny.TimeoutException;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.impl.HttpRequestImpl;
+import io.vertx.mutiny.core.Vertx;
 import io.vertx.mutiny.core.buffer.Buffer;
 import io.vertx.mutiny.ext.web.client.HttpRequest;
+import io.vertx.mutiny.ext.web.client.HttpResponse;
 import io.vertx.mutiny.ext.web.client.WebClient;
+import io.vertx.mutiny.ext.web.codec.BodyCodec;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 @ApplicationScoped
 public class WebhookTypeProcessor implements EndpointTypeProcessor {
 
+    // Size of the payloads sent compressed, before and after the compression.
+    public static final String RAW_BYTES_COUNTER_NAME = "processor.webhook.gzip.raw_bytes";
+    public static final String COMPRESSED_BYTES_COUNTER_NAME = "processor.webhook.gzip.compressed_bytes";
+    // Duration of the HTTP requests, tagged with the outcome, the endpoint type and the host bucket.
+    public static final String DELIVERY_TIMER_NAME = "processor.webhook.delivery.duration";
+    // Host bucket of the hosts which are not listed in processor.webhook.metrics.hosts.
+    public static final String OTHER_HOSTS = "other";
+
     private final Logger log = Logger.getLogger(this.getClass().getName());
 
     private static final String TOKEN_HEADER = "X-Insight-Token";
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String APPLICATION_JSON = "application/json";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String GZIP = "gzip";
 
     @Inject
     @SslVerificationEnabled
@@ -38,24 +72,120 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
     @SslVerificationDisabled
     WebClient unsecuredWebClient;
 
+    @Inject
+    WebClientProducer webClientProducer;
+
     @Inject
     BaseTransformer transformer;
 
+    @Inject
+    WebhookBulkhead bulkhead;
+
+    @Inject
+    WebhookRetryQueue retryQueue;
+
+    @Inject
+    WebhookCircuitBreaker circuitBreaker;
+
+    @Inject
+    WebhookBatcher batcher;
+
+    @Inject
+    Vertx vertx;
+
+    // Maximum number of bytes of a response body kept in the history details, the rest of the body is discarded.
+    @ConfigProperty(name = "processor.webhook.response_body.max_size", defaultValue = "16384")
+    int responseBodyMaxSize;
+
+    // Maximum duration of a whole request, from the connection to the end of the response.
+    @ConfigProperty(name = "processor.webhook.request_timeout")
+    Optional<Duration> requestTimeout;
+
+    // Maximum duration without any data received from the server while a request is running.
+    @ConfigProperty(name = "processor.webhook.idle_timeout")
+    Optional<Duration> idleTimeout;
+
+    /*
+     * Hosts which get their own bucket in the delivery timer tags, a host matches if it is equal to one of them or one
+     * of its subdomains. All the other hosts share the same bucket to keep the number of time series low.
+     */
+    @ConfigProperty(name = "processor.webhook.metrics.hosts")
+    Optional<List<String>> metricsHosts;
+
     MeterRegistry registry;
 
     private Counter processedCount;
+    private Counter rawBytes;
+    private Counter compressedBytes;
+    private final Map<List<String>, Timer> deliveryTimers = new ConcurrentHashMap<>();
 
     public WebhookTypeProcessor(MeterRegistry registry) {
         this.registry = registry;
         processedCount = registry.counter("processor.webhook.processed");
+        rawBytes = registry.counter(RAW_BYTES_COUNTER_NAME);
+        compressedBytes = registry.counter(COMPRESSED_BYTES_COUNTER_NAME);
     }
 
     public Uni<NotificationHistory> process(Notification item) {
         processedCount.increment();
+
+        // The payload is encoded (and compressed if needed) once per action and shared by all the webhooks.
+        ActionPayload payload = transformer.payloadOf(item);
+
+        if (batcher.isBatched(item.getEndpoint())) {
+            return Uni.createFrom().item(() -> {
+                batcher.add(item, payload);
+                // The history of the batch is written once the batch is sent.
+                return null;
+            });
+        }
+
+        return deliver(item, payload)
+                .call(history -> retryQueue.schedule(item, history, payload.getBuffer()));
+    }
+
+    /*
+     * Sends the payload to the webhook endpoint unless its circuit is open. A skipped delivery is recorded as a failed
+     * invocation without any HTTP call. Only the outcomes which show that the endpoint is unhealthy count as failures
+     * for its circuit: a 4xx response is caused by the request, and a request rejected by the bulkhead was never sent.
+     */
+    Uni<NotificationHistory> deliver(Notification item, ActionPayload payload) {
         Endpoint endpoint = item.getEndpoint();
+        if (!circuitBreaker.tryAcquire(endpoint.getId())) {
+            NotificationHistory history = getHistoryStub(item, 0L);
+            history.setDetails(new JsonObject().put("circuit_breaker", "open").getMap());
+            return Uni.createFrom().item(history);
+        }
         WebhookProperties properties = endpoint.getProperties(WebhookProperties.class);
+        HttpRequest<Buffer> req = buildRequest(properties);
+        Uni<Buffer> body;
+        if (Boolean.TRUE.equals(properties.getGzip())) {
+            req.putHeader(CONTENT_ENCODING, GZIP);
+            body = Uni.createFrom().item(() -> {
+                Buffer compressed = payload.getGzipBuffer();
+                rawBytes.increment(payload.getBuffer().length());
+                compressedBytes.increment(compressed.length());
+                return compressed;
+            });
+        } else {
+            body = Uni.createFrom().item(payload::getBuffer);
+        }
+        AtomicReference<String> outcome = new AtomicReference<>();
+        return doHttpRequest(item, req, body, outcome::set)
+                .invoke(history -> {
+                    if (history.isInvocationResult()) {
+                        circuitBreaker.record(endpoint.getId(), true);
+                    } else if (isUnhealthy(outcome.get())) {
+                        circuitBreaker.record(endpoint.getId(), false);
+                    } else {
+                        circuitBreaker.release(endpoint.getId());
+                    }
+                })
+                .onCancellation().invoke(() -> circuitBreaker.release(endpoint.getId()));
+    }
 
-        final HttpRequest<Buffer> req = getWebClient(properties.getDisableSslVerification())
+    HttpRequest<Buffer> buildRequest(WebhookProperties properties) {
+        final HttpRequest<Buffer> req = getWebClient(properties)
                 .rawAbs(properties.getMethod().name(), properties.getUrl());
 
         if (properties.getSecretToken() != null && !properties.getSecretToken().isBlank()) {
@@ -66,26 +196,41 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
             req.basicAuthentication(properties.getBasicAuthentication().getUsername(), properties.getBasicAuthentication().getPassword());
         }
 
-        Uni<JsonObject> payload = transformer.transform(item.getAction());
-
-        return doHttpRequest(item, req, payload);
+        return req;
     }
 
-    private WebClient getWebClient(boolean disableSSLVerification) {
-        if (disableSSLVerification) {
+    private WebClient getWebClient(WebhookProperties properties) {
+        boolean disableSSLVerification = Boolean.TRUE.equals(properties.getDisableSslVerification());
+        if (properties.getKeepAliveTimeout() != null || properties.getPipelining() != null || properties.getMaxWaitQueueSize() != null) {
+            // The Vert.x keep alive timeout is expressed in seconds.
+            Integer keepAliveTimeout = properties.getKeepAliveTimeout() == null ? null : (properties.getKeepAliveTimeout() + 999) / 1000;
+            return webClientProducer.getWebClient(disableSSLVerification, keepAliveTimeout, properties.getPipelining(), properties.getMaxWaitQueueSize());
+        } else if (disableSSLVerification) {
             return unsecuredWebClient;
         } else {
             return securedWebClient;
         }
     }
 
-    public Uni<NotificationHistory> doHttpRequest(Notification item, HttpRequest<Buffer> req, Uni<JsonObject> payload) {
+    public Uni<NotificationHistory> doHttpRequest(Notification item, HttpRequest<Buffer> req, Uni<Buffer> payload) {
+        return doHttpRequest(item, req, payload, outcome -> { });
+    }
+
+    // The outcome listener receives the outcome of the delivery, as tagged on the delivery timer.
+    private Uni<NotificationHistory> doHttpRequest(Notification item, HttpRequest<Buffer> req, Uni<Buffer> payload, Consumer<String> outcomeListener) {
         final long startTime = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        final String host = ((HttpRequestImpl<Buffer>) req.getDelegate()).host();
+        final Optional<Duration> requestTimeout = getTimeout(item, WebhookProperties::getRequestTimeout, this.requestTimeout);
+        getTimeout(item, WebhookProperties::getIdleTimeout, idleTimeout).ifPresent(timeout -> req.timeout(timeout.toMillis()));
 
         return payload.onItem()
-                .transformToUni(json -> req.sendJsonObject(json)
+                .transformToUni(json -> bulkhead.execute(host, () -> send(req.putHeader(CONTENT_TYPE, APPLICATION_JSON).as(responseBodyCodec()), json, requestTimeout))
                         .onItem().transform(resp -> {
                             final long endTime = System.currentTimeMillis();
+                            String outcome = resp.statusCode() / 100 + "xx";
+                            recordDelivery(item, host, outcome, startNanos);
+                            outcomeListener.accept(outcome);
                             // Default result is false
                             NotificationHistory history = getHistoryStub(item, endTime - startTime);
 
@@ -93,7 +238,7 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
                                 // Accepted
                                 log.fine("Target endpoint successful: " + resp.statusCode());
                                 history.setInvocationResult(true);
-                            } else if (resp.statusCode() > 500) {
+                            } else if (resp.statusCode() >= 500) {
                                 // Temporary error, allow retry
                                 log.fine("Target endpoint server error: " + resp.statusCode() + " " + resp.statusMessage());
                                 history.setInvocationResult(false);
@@ -101,7 +246,7 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
                                 // Disable the target endpoint, it's not working correctly for us (such as 400)
                                 // must be manually re-enabled
                                 // Redirects etc should have been followed by the vertx (test this)
-                                log.fine("Target endpoint error: " + resp.statusCode() + " " + resp.statusMessage() + " " + json);
+                                log.fine(() -> "Target endpoint error: " + resp.statusCode() + " " + resp.statusMessage() + " " + json);
                                 history.setInvocationResult(false);
                             }
 
@@ -112,8 +257,13 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
                                 details.put("url", getCallUrl(reqImpl));
                                 details.put("method", reqImpl.rawMethod());
                                 details.put("code", resp.statusCode());
-                                // This isn't async body reading, lets hope vertx handles it async underneath before calling this apply method
-                                details.put("response_body", resp.bodyAsString());
+                                // Only the beginning of the body was kept while it was received.
+                                CappedBody body = resp.body();
+                                if (body != null) {
+                                    details.put("response_body", body.toString());
+                                    details.put("response_body_truncated", body.isTruncated());
+                                    details.put("content_length", body.getLength());
+                                }
                                 history.setDetails(details.getMap());
                             }
 
@@ -122,6 +272,9 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
 
                             // TODO Duplicate code with the success part
                             final long endTime = System.currentTimeMillis();
+                            String outcome = getFailureOutcome(t);
+                            recordDelivery(item, host, outcome, startNanos);
+                            outcomeListener.accept(outcome);
                             NotificationHistory history = getHistoryStub(item, endTime - startTime);
 
                             HttpRequestImpl<Buffer> reqImpl = (HttpRequestImpl<Buffer>) req.getDelegate();
@@ -133,6 +286,10 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
                             details.put("url", reqImpl.uri());
                             details.put("method", reqImpl.method());
                             details.put("error_message", t.getMessage()); // TODO This message isn't always the most descriptive..
+                            String timeout = getTimeoutType(t);
+                            if (timeout != null) {
+                                details.put("timeout", timeout);
+                            }
                             history.setDetails(details.getMap());
 
                             if (t instanceof ConnectException) {
@@ -148,6 +305,104 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
                 );
     }
 
+    private void recordDelivery(Notification item, String host, String outcome, long startNanos) {
+        List<String> tags = List.of(outcome, String.valueOf(item.getEndpoint().getType()), getHostBucket(host, metricsHosts.orElse(List.of())));
+        Timer timer = deliveryTimers.computeIfAbsent(tags, ignored -> Timer.builder(DELIVERY_TIMER_NAME)
+                .tag("outcome", tags.get(0))
+                .tag("endpoint_type", tags.get(1))
+                .tag("host", tags.get(2))
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1L))
+                .maximumExpectedValue(Duration.ofMinutes(1L))
+                .register(registry));
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    static String getHostBucket(String host, List<String> knownHosts) {
+        if (host != null) {
+            for (String knownHost : knownHosts) {
+                if (host.equalsIgnoreCase(knownHost) || host.toLowerCase().endsWith("." + knownHost.toLowerCase())) {
+                    return knownHost;
+                }
+            }
+        }
+        return OTHER_HOSTS;
+    }
+
+    // The 2xx, 3xx, 4xx and 5xx outcomes are the ones of the requests which got a response.
+    static String getFailureOutcome(Throwable t) {
+        if (getTimeoutType(t) != null) {
+            return "timeout";
+        } else if (t instanceof ConnectException || t instanceof UnknownHostException) {
+            return "connect_error";
+        } else if (t instanceof RejectedExecutionException) {
+            // Rejected by the bulkhead, the request wasn't sent.
+            return "rejected";
+        } else {
+            return "error";
+        }
+    }
+
+    // The server errors, timeouts and connection errors are the outcomes caused by the endpoint itself.
+    static boolean isUnhealthy(String outcome) {
+        return "5xx".equals(outcome) || "timeout".equals(outcome) || "connect_error".equals(outcome);
+    }
+
+    private BodyCodec<CappedBody> responseBodyCodec() {
+        return BodyCodec.newInstance(new CappedBodyCodec(responseBodyMaxSize));
+    }
+
+    /*
+     * The request timeout is enforced on the Vert.x request itself: when it expires, the request is reset, which closes
+     * its connection, and the response fails. The bulkhead slot of the request is therefore only released once the
+     * connection is released. A request which is cancelled is reset the same way.
+     */
+    Uni<HttpResponse<CappedBody>> send(HttpRequest<CappedBody> req, Buffer body, Optional<Duration> timeout) {
+        return Uni.createFrom().deferred(() -> {
+            RequestDeadline deadline = new RequestDeadline();
+            ClientRequestTracker.track(req.getDelegate(), deadline::attach);
+            Long timerId = timeout.map(duration -> vertx.setTimer(Math.max(1L, duration.toMillis()), ignored -> deadline.expire())).orElse(null);
+            return req.sendBuffer(body)
+                    .onFailure(ignored -> deadline.isExpired()).transform(ignored -> new TimeoutException())
+                    .onCancellation().invoke(deadline::expire)
+                    .onTermination().invoke(() -> {
+                        if (timerId != null) {
+                            vertx.cancelTimer(timerId);
+                        }
+                        ClientRequestTracker.untrack(req.getDelegate());
+                    });
+        });
+    }
+
+    // The endpoint settings take precedence over the global ones. The email endpoints only use the global settings.
+    private static Optional<Duration> getTimeout(Notification item, Function<WebhookProperties, Integer> endpointTimeout, Optional<Duration> globalTimeout) {
+        if (item.getEndpoint().getProperties() instanceof WebhookProperties) {
+            Integer millis = endpointTimeout.apply(item.getEndpoint().getProperties(WebhookProperties.class));
+            if (millis != null) {
+                return Optional.of(Duration.ofMillis(millis));
+            }
+        }
+        return globalTimeout;
+    }
+
+    /*
+     * Distinguishes the timeouts from the other failures in the history details:
+     * - request: the whole request took longer than the request timeout
+     * - idle: the server did not send anything during the idle timeout
+     * - connect: the connection could not be established in time
+     */
+    static String getTimeoutType(Throwable t) {
+        if (t instanceof TimeoutException) {
+            return "request";
+        } else if (t instanceof java.util.concurrent.TimeoutException) {
+            return "idle";
+        } else if (t instanceof ConnectTimeoutException) {
+            return "connect";
+        } else {
+            return null;
+        }
+    }
+
     private String getCallUrl(HttpRequestImpl<Buffer> reqImpl) {
         String protocol;
         if (reqImpl.ssl()) {
@@ -159,6 +414,33 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
         return protocol + "://" + reqImpl.host() + ":" + reqImpl.port() + reqImpl.uri();
     }
 
+    // Resets the underlying request once expired, even if it was not sent yet when the deadline expired.
+    private static class RequestDeadline {
+
+        private HttpClientRequest clientRequest;
+        private boolean expired;
+
+        synchronized void attach(HttpClientRequest clientRequest) {
+            this.clientRequest = clientRequest;
+            if (expired) {
+                clientRequest.reset(0L);
+            }
+        }
+
+        synchronized void expire() {
+            if (!expired) {
+                expired = true;
+                if (clientRequest != null) {
+                    clientRequest.reset(0L);
+                }
+            }
+        }
+
+        synchronized boolean isExpired() {
+            return expired;
+        }
+    }
+
     private NotificationHistory getHistoryStub(Notification item, long invocationTime) {
         NotificationHistory history = new NotificationHistory();
         history.setInvocationTime(invocationTime);
@@ -0,0 +1,95 @@
+package com.redhat.cloud.notifications.transformers;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.mutiny.core.buffer.Buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The transformed payload of an action, built on first use and then shared by all the deliveries of that action.
+ * Neither the JSON object nor the encoded buffer must be modified by the callers.
+ */
+public class ActionPayload {
+
+    private final Supplier<JsonObject> transformation;
+    // Encodes the payload without the JSON object, null if the buffer has to be encoded from the JSON object.
+    private final Supplier<io.vertx.core.buffer.Buffer> encoding;
+    private volatile JsonObject json;
+    private volatile Buffer buffer;
+    private volatile Buffer gzipBuffer;
+
+    ActionPayload(Supplier<JsonObject> transformation) {
+        this(transformation, null);
+    }
+
+    ActionPayload(Supplier<JsonObject> transformation, Supplier<io.vertx.core.buffer.Buffer> encoding) {
+        this.transformation = transformation;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Wraps a payload which was already encoded, such as the one stored with a webhook retry.
+     */
+    public static ActionPayload encoded(Buffer buffer) {
+        return new ActionPayload(() -> new JsonObject(buffer.getDelegate()), buffer::getDelegate);
+    }
+
+    public JsonObject getJson() {
+        JsonObject result = json;
+        if (result == null) {
+            synchronized (this) {
+                result = json;
+                if (result == null) {
+                    result = transformation.get();
+                    json = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public Buffer getBuffer() {
+        Buffer result = buffer;
+        if (result == null) {
+            synchronized (this) {
+                result = buffer;
+                if (result == null) {
+                    result = Buffer.newInstance(encoding == null ? getJson().toBuffer() : encoding.get());
+                    buffer = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the encoded payload compressed with gzip. The compression happens at most once, the compressed buffer is
+     * then shared by all the deliveries which need it.
+     */
+    public Buffer getGzipBuffer() {
+        Buffer result = gzipBuffer;
+        if (result == null) {
+            synchronized (this) {
+                result = gzipBuffer;
+                if (result == null) {
+                    result = gzip(getBuffer());
+                    gzipBuffer = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Buffer gzip(Buffer buffer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(buffer.length() / 4, 64));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(buffer.getDelegate().getBytes());
+        } catch (IOException exception) {
+            throw new IllegalStateException("Gzip compression failed", exception);
+        }
+        return Buffer.buffer(out.toByteArray());
+    }
+}
@@ -1,6 +1,7 @@
 package com.redhat.cloud.notifications.transformers;
 
 import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.models.Notification;
 import io.smallrye.mutiny.Uni;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -10,21 +11,53 @@ import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.io.JsonEncoder;
 import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.avro.specific.SpecificRecord;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import javax.enterprise.context.ApplicationScoped;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @ApplicationScoped
 public class BaseTransformer {
 
+    // Datum writers are thread safe, building them for each event is much more expensive than writing the event.
+    private final Map<Class<?>, DatumWriter<?>> datumWriters = new ConcurrentHashMap<>();
+    private final StreamingActionWriter streamingWriter = new StreamingActionWriter();
+
+    /*
+     * When enabled, the payload sent to the webhooks is written directly into a buffer instead of being encoded from
+     * the JSON object. The output is the same, only the JSON object allocations are saved.
+     */
+    @ConfigProperty(name = "processor.transformer.streaming", defaultValue = "false")
+    boolean streaming;
+
     public Uni<JsonObject> transform(Action action) {
         return Uni.createFrom().item(toJsonObject(action));
     }
 
+    /**
+     * Returns the payload of the given action without transforming it yet. The payload is transformed at most once,
+     * when it is used for the first time by one of the deliveries of the action.
+     */
+    public ActionPayload prepare(Action action) {
+        if (streaming) {
+            return new ActionPayload(() -> toJsonObject(action), () -> streamingWriter.write(action));
+        }
+        return new ActionPayload(() -> toJsonObject(action));
+    }
+
+    // Returns the payload shared by the deliveries of the notification action, or a dedicated one if there's none.
+    public ActionPayload payloadOf(Notification notification) {
+        if (notification.getPayload() != null) {
+            return notification.getPayload();
+        }
+        return prepare(notification.getAction());
+    }
+
     protected JsonObject toJsonObject(Action action) {
         JsonObject message = new JsonObject();
         message.put("bundle", action.getBundle());
@@ -45,7 +78,7 @@ public class BaseTransformer {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
             JsonEncoder jsonEncoder = EncoderFactory.get().jsonEncoder(avroObject.getSchema(), baos);
-            DatumWriter<T> writer = new SpecificDatumWriter<T>((Class<T>) avroObject.getClass());
+            DatumWriter<T> writer = (DatumWriter<T>) datumWriters.computeIfAbsent(avroObject.getClass(), SpecificDatumWriter::new);
             writer.write(avroObject, jsonEncoder);
             jsonEncoder.flush();
         } catch (IOException exception) {
@@ -0,0 +1,98 @@
+package com.redhat.cloud.notifications.transformers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.ingress.Event;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.jackson.DatabindCodec;
+import org.apache.avro.Schema;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonEncoder;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the transformed payload of an action straight into a buffer with a Jackson generator, without building the
+ * intermediate {@code JsonObject} tree. The output is byte for byte the one of {@code BaseTransformer.toJsonObject}
+ * encoded with {@code JsonObject.toBuffer()}:
+ * <ul>
+ *     <li>the generator comes from the Vert.x object mapper, which is the one used to encode the JSON objects</li>
+ *     <li>the fields are written in the same order, including the {@code Map.of} iteration order of the event fields</li>
+ *     <li>the Avro metadata is copied token by token from the Avro JSON output, which is what parsing it into a JSON
+ *     object and encoding it again does</li>
+ * </ul>
+ */
+class StreamingActionWriter {
+
+    private static final String METADATA = "metadata";
+    private static final String PAYLOAD = "payload";
+    // The iteration order of Map.of depends on the keys only, so it's the same for all the events.
+    private static final List<String> EVENT_FIELDS = List.copyOf(Map.of(METADATA, "", PAYLOAD, "").keySet());
+
+    private final Map<Class<?>, DatumWriter<?>> datumWriters = new ConcurrentHashMap<>();
+
+    Buffer write(Action action) {
+        ByteBuf byteBuf = Unpooled.buffer();
+        OutputStream out = new ByteBufOutputStream(byteBuf);
+        JsonFactory factory = DatabindCodec.mapper().getFactory();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("bundle", action.getBundle());
+            generator.writeStringField("application", action.getApplication());
+            generator.writeStringField("event_type", action.getEventType());
+            generator.writeStringField("account_id", action.getAccountId());
+            generator.writeStringField("timestamp", action.getTimestamp().toString());
+            generator.writeArrayFieldStart("events");
+            for (Event event : action.getEvents()) {
+                generator.writeStartObject();
+                for (String field : EVENT_FIELDS) {
+                    generator.writeFieldName(field);
+                    if (METADATA.equals(field)) {
+                        writeAvroRecord(generator, event.getMetadata());
+                    } else {
+                        generator.writeObject(event.getPayload());
+                    }
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeFieldName("context");
+            generator.writeObject(action.getContext());
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Action serialization failed", e);
+        }
+        return Buffer.buffer(byteBuf);
+    }
+
+    private <T extends SpecificRecord> void writeAvroRecord(JsonGenerator generator, T avroObject) throws IOException {
+        // Records without fields, such as the current event metadata, don't need to go through Avro at all.
+        if (avroObject.getSchema().getType() == Schema.Type.RECORD && avroObject.getSchema().getFields().isEmpty()) {
+            generator.writeStartObject();
+            generator.writeEndObject();
+            return;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonEncoder jsonEncoder = EncoderFactory.get().jsonEncoder(avroObject.getSchema(), baos);
+        DatumWriter<T> writer = (DatumWriter<T>) datumWriters.computeIfAbsent(avroObject.getClass(), SpecificDatumWriter::new);
+        writer.write(avroObject, jsonEncoder);
+        jsonEncoder.flush();
+        try (JsonParser parser = generator.getCodec().getFactory().createParser(baos.toByteArray())) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+    }
+}
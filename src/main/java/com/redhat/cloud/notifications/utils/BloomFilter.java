@@ -0,0 +1,65 @@
+package com.redhat.cloud.notifications.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ * Compact probabilistic set of strings. {@link #mightContain(String)} never returns {@code false} for a value that
+ * was added, but it may return {@code true} for a value that was never added, with a probability close to the false
+ * positive rate given when the filter was created as long as the number of added values stays below the expected
+ * count.
+ */
+public class BloomFilter {
+
+    private final BitSet bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    public BloomFilter(int expectedCount, double falsePositiveRate) {
+        if (expectedCount < 1) {
+            throw new IllegalArgumentException("The expected count must be greater than zero");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The false positive rate must be between 0 and 1 (exclusive)");
+        }
+        double ln2 = Math.log(2);
+        bitCount = (int) Math.max(64, Math.ceil(-expectedCount * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        hashCount = (int) Math.max(1, Math.round((double) bitCount / expectedCount * ln2));
+        bits = new BitSet(bitCount);
+    }
+
+    public synchronized void put(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            bits.set(index(hash1 + i * hash2));
+        }
+    }
+
+    public synchronized boolean mightContain(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            if (!bits.get(index(hash1 + i * hash2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int index(int combinedHash) {
+        return Math.floorMod(combinedHash, bitCount);
+    }
+
+    // 64 bits FNV-1a hash, its two halves are combined to simulate the required number of hash functions.
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,34 @@
+package com.redhat.cloud.notifications.utils;
+
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.InjectableContext.ContextState;
+import io.quarkus.arc.ManagedContext;
+import io.smallrye.mutiny.Uni;
+
+import java.util.function.Supplier;
+
+public class RequestContexts {
+
+    /*
+     * The Hibernate Reactive session is request scoped and must never be used by concurrent operations. The given work
+     * is therefore executed within its own request context, which is propagated to the Mutiny callbacks and terminated
+     * (closing the session) once the work is done. The request context of the caller, if any, is left untouched.
+     */
+    public static <T> Uni<T> withRequestContext(Supplier<Uni<T>> work) {
+        ManagedContext requestContext = Arc.container().requestContext();
+        ContextState outerState = requestContext.isActive() ? requestContext.getState() : null;
+        requestContext.activate();
+        ContextState state = requestContext.getState();
+        Uni<T> result;
+        try {
+            result = work.get();
+        } finally {
+            if (outerState == null) {
+                requestContext.deactivate();
+            } else {
+                requestContext.activate(outerState);
+            }
+        }
+        return result.eventually(() -> requestContext.destroy(state));
+    }
+}
@@ -0,0 +1,22 @@
+-- Denormalized routing table: one row per (account, event type, endpoint) pair reachable through a behavior group.
+-- It is maintained by BehaviorGroupResources in the same transaction as event_type_behavior and behavior_group_action.
+CREATE TABLE behavior_group_route (
+    account_id VARCHAR(50) NOT NULL,
+    event_type_id UUID NOT NULL,
+    behavior_group_id UUID NOT NULL,
+    endpoint_id UUID NOT NULL,
+    position INTEGER NOT NULL,
+    CONSTRAINT pk_behavior_group_route PRIMARY KEY (event_type_id, behavior_group_id, endpoint_id),
+    CONSTRAINT fk_behavior_group_route_event_type_id FOREIGN KEY (event_type_id) REFERENCES event_type (id) ON DELETE CASCADE,
+    CONSTRAINT fk_behavior_group_route_behavior_group_id FOREIGN KEY (behavior_group_id) REFERENCES behavior_group (id) ON DELETE CASCADE,
+    CONSTRAINT fk_behavior_group_route_endpoint_id FOREIGN KEY (endpoint_id) REFERENCES endpoints (id) ON DELETE CASCADE
+) WITH (OIDS=FALSE);
+
+CREATE INDEX ix_behavior_group_route_account_id_event_type_id ON behavior_group_route (account_id, event_type_id);
+CREATE INDEX ix_behavior_group_route_behavior_group_id ON behavior_group_route (behavior_group_id);
+
+INSERT INTO behavior_group_route (account_id, event_type_id, behavior_group_id, endpoint_id, position)
+    SELECT bg.account_id, etb.event_type_id, bg.id, bga.endpoint_id, bga.position
+    FROM behavior_group bg
+    JOIN event_type_behavior etb ON etb.behavior_group_id = bg.id
+    JOIN behavior_group_action bga ON bga.behavior_group_id = bg.id;
@@ -0,0 +1,8 @@
+-- Per-endpoint overrides of the webhook client settings, NULL means the global setting applies.
+-- The timeouts are expressed in milliseconds.
+ALTER TABLE endpoint_webhooks
+    ADD COLUMN request_timeout INTEGER,
+    ADD COLUMN idle_timeout INTEGER,
+    ADD COLUMN keep_alive_timeout INTEGER,
+    ADD COLUMN pipelining BOOLEAN,
+    ADD COLUMN max_wait_queue_size INTEGER;
@@ -0,0 +1,16 @@
+-- Webhook deliveries which failed with a temporary error and will be sent again by WebhookRetryQueue.
+-- The payload is the JSON document which was sent during the first attempt.
+CREATE TABLE webhook_retry (
+    id UUID NOT NULL,
+    account_id VARCHAR(50) NOT NULL,
+    endpoint_id UUID NOT NULL,
+    payload TEXT NOT NULL,
+    attempts INTEGER NOT NULL,
+    next_attempt TIMESTAMP NOT NULL,
+    created TIMESTAMP NOT NULL,
+    CONSTRAINT pk_webhook_retry PRIMARY KEY (id),
+    CONSTRAINT fk_webhook_retry_endpoint_id FOREIGN KEY (endpoint_id) REFERENCES endpoints (id) ON DELETE CASCADE
+);
+
+CREATE INDEX ix_webhook_retry_next_attempt ON webhook_retry (next_attempt);
+CREATE INDEX ix_webhook_retry_endpoint_id ON webhook_retry (endpoint_id);
@@ -0,0 +1,3 @@
+-- When true, the webhook payloads sent to the endpoint are compressed with gzip.
+ALTER TABLE endpoint_webhooks
+    ADD COLUMN gzip BOOLEAN NOT NULL DEFAULT FALSE;
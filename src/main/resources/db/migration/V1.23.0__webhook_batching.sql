@@ -0,0 +1,5 @@
+-- Batched deliveries, NULL or 1 means that each event is sent with its own request.
+-- The maximum wait is expressed in milliseconds.
+ALTER TABLE endpoint_webhooks
+    ADD COLUMN batch_size INTEGER,
+    ADD COLUMN batch_max_wait INTEGER;
@@ -0,0 +1,10 @@
+-- Shards of the email aggregation keys claimed by the replicas during an aggregation run.
+-- The run is identified by the end of the aggregated period, which is the same on all replicas.
+CREATE TABLE email_aggregation_shard (
+    run TIMESTAMP NOT NULL,
+    shard INTEGER NOT NULL,
+    owner VARCHAR(64),
+    lease_end TIMESTAMP,
+    done BOOLEAN NOT NULL DEFAULT FALSE,
+    CONSTRAINT pk_email_aggregation_shard PRIMARY KEY (run, shard)
+);
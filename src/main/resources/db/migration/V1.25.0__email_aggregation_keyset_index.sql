@@ -0,0 +1,2 @@
+-- Used by the keyset pagination of the aggregations of an (account, bundle, application) key.
+CREATE INDEX ix_email_aggregation_key_created_id ON email_aggregation (account_id, bundle, application, created, id);
@@ -0,0 +1,5 @@
+-- Running aggregations merged at ingest time, see the processor.email.aggregation.incremental property.
+ALTER TABLE email_aggregation ADD COLUMN pre_aggregated BOOLEAN NOT NULL DEFAULT FALSE;
+
+-- A single running aggregation per key and aggregation period, its creation date is the end of the period.
+CREATE UNIQUE INDEX ix_email_aggregation_pre_aggregated ON email_aggregation (account_id, bundle, application, created) WHERE pre_aggregated;
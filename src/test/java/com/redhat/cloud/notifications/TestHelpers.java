@@ -8,6 +8,7 @@ import com.redhat.cloud.notifications.models.EmailAggregation;
 import com.redhat.cloud.notifications.transformers.BaseTransformer;
 import io.restassured.http.Header;
 import io.vertx.core.json.JsonObject;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.io.JsonEncoder;
@@ -102,14 +103,24 @@ public class TestHelpers {
         return aggregation;
     }
 
-    public static String serializeAction(Action action) throws IOException {
+    public static byte[] serializeAction(Action action) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         JsonEncoder jsonEncoder = EncoderFactory.get().jsonEncoder(Action.getClassSchema(), baos);
         DatumWriter<Action> writer = new SpecificDatumWriter<>(Action.class);
         writer.write(action, jsonEncoder);
         jsonEncoder.flush();
 
-        return baos.toString(UTF_8);
+        return baos.toByteArray();
+    }
+
+    public static byte[] serializeActionAsBinary(Action action) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryEncoder binaryEncoder = EncoderFactory.get().binaryEncoder(baos, null);
+        DatumWriter<Action> writer = new SpecificDatumWriter<>(Action.class);
+        writer.write(action, binaryEncoder);
+        binaryEncoder.flush();
+
+        return baos.toByteArray();
     }
 
     public static Action createPoliciesAction(String accountId, String bundle, String application, String hostDisplayName) {
@@ -92,6 +92,8 @@ public class TestLifecycleManager implements QuarkusTestResourceLifecycleManager
 
     void setupPostgres(Map<String, String> props) throws SQLException {
         postgreSQLContainer = new PostgreSQLContainer<>("postgres");
+        // pg_stat_statements is used by the tests which count the SQL statements sent to the database.
+        postgreSQLContainer.withCommand("postgres", "-c", "fsync=off", "-c", "shared_preload_libraries=pg_stat_statements");
         postgreSQLContainer.start();
         // Now that postgres is started, we need to get its URL and tell Quarkus
         // quarkus.datasource.driver=io.opentracing.contrib.jdbc.TracingDriver
@@ -110,6 +112,7 @@ public class TestLifecycleManager implements QuarkusTestResourceLifecycleManager
         Connection connection = ds.getConnection("test", "test");
         Statement statement = connection.createStatement();
         statement.execute("CREATE EXTENSION pgcrypto;");
+        statement.execute("CREATE EXTENSION pg_stat_statements;");
         statement.close();
         connection.close();
     }
@@ -20,7 +20,9 @@ import javax.persistence.PersistenceException;
 import javax.validation.ConstraintViolationException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -231,6 +233,51 @@ public class BehaviorGroupResourcesTest extends DbIsolatedTest {
         updateAndCheckBehaviorGroupActions("unknownAccountId", bundle.getId(), behaviorGroup.getId(), false, endpoint.getId());
     }
 
+    @Test
+    public void testBehaviorGroupRoutes() {
+        Bundle bundle = createBundle();
+        Application app = createApp(bundle.getId());
+        EventType eventType = createEventType(app.getId());
+        BehaviorGroup behaviorGroup1 = createBehaviorGroup("displayName", bundle.getId());
+        BehaviorGroup behaviorGroup2 = createBehaviorGroup("displayName", bundle.getId());
+        Endpoint endpoint1 = createEndpoint(true);
+        Endpoint endpoint2 = createEndpoint(true);
+        Endpoint endpoint3 = createEndpoint(false);
+
+        // Actions without any event type behavior are not routed.
+        updateAndCheckBehaviorGroupActions(ACCOUNT_ID, bundle.getId(), behaviorGroup1.getId(), true, endpoint1.getId(), endpoint3.getId());
+        assertTargetEndpoints();
+
+        // Disabled endpoints are never routed.
+        assertTrue(addEventTypeBehavior(ACCOUNT_ID, eventType.getId(), behaviorGroup1.getId()));
+        assertTargetEndpoints(endpoint1);
+
+        // The routes follow the actions changes.
+        updateAndCheckBehaviorGroupActions(ACCOUNT_ID, bundle.getId(), behaviorGroup1.getId(), true, endpoint2.getId());
+        assertTargetEndpoints(endpoint2);
+
+        // An endpoint shared by several behavior groups is only returned once.
+        updateAndCheckBehaviorGroupActions(ACCOUNT_ID, bundle.getId(), behaviorGroup2.getId(), true, endpoint1.getId(), endpoint2.getId());
+        assertTrue(addEventTypeBehavior(ACCOUNT_ID, eventType.getId(), behaviorGroup2.getId()));
+        assertTargetEndpoints(endpoint1, endpoint2);
+
+        // Failed additions must not leave any route behind.
+        assertFalse(addEventTypeBehavior(ACCOUNT_ID, eventType.getId(), behaviorGroup2.getId()));
+        assertTargetEndpoints(endpoint1, endpoint2);
+
+        assertTrue(deleteEventTypeBehavior(ACCOUNT_ID, eventType.getId(), behaviorGroup2.getId()));
+        assertTargetEndpoints(endpoint2);
+
+        assertTrue(muteEventType(ACCOUNT_ID, eventType.getId()));
+        assertTargetEndpoints();
+
+        // Deleting a behavior group removes its routes.
+        assertTrue(addEventTypeBehavior(ACCOUNT_ID, eventType.getId(), behaviorGroup1.getId()));
+        assertTargetEndpoints(endpoint2);
+        assertTrue(deleteBehaviorGroup(behaviorGroup1.getId()));
+        assertTargetEndpoints();
+    }
+
     private Bundle createBundle() {
         Bundle bundle = new Bundle();
         bundle.setName("name");
@@ -255,7 +302,12 @@ public class BehaviorGroupResourcesTest extends DbIsolatedTest {
     }
 
     private Endpoint createEndpoint() {
+        return createEndpoint(false);
+    }
+
+    private Endpoint createEndpoint(boolean enabled) {
         Endpoint endpoint = new Endpoint();
+        endpoint.setEnabled(enabled);
         endpoint.setAccountId(ACCOUNT_ID);
         endpoint.setName("name");
         endpoint.setDescription("description");
@@ -336,4 +388,14 @@ public class BehaviorGroupResourcesTest extends DbIsolatedTest {
                 .stream().filter(behaviorGroup -> behaviorGroup.getId().equals(behaviorGroupId))
                 .findFirst().get().getActions();
     }
+
+    private void assertTargetEndpoints(Endpoint... expectedEndpoints) {
+        session.clear();
+        Set<UUID> endpointIds = endpointResources.getTargetEndpoints_BG(ACCOUNT_ID, "name", "name", "name")
+                .onItem().transform(Endpoint::getId)
+                .collect().asList()
+                .await().indefinitely()
+                .stream().collect(Collectors.toSet());
+        assertEquals(Arrays.stream(expectedEndpoints).map(Endpoint::getId).collect(Collectors.toSet()), endpointIds);
+    }
 }
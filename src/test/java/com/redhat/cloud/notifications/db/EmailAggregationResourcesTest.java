@@ -15,7 +15,9 @@ import javax.inject.Inject;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -49,7 +51,7 @@ public class EmailAggregationResourcesTest extends DbIsolatedTest {
 
         EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE_NAME, APP_NAME);
 
-        List<EmailAggregation> aggregations = getEmailAggregation(key, start, end);
+        List<EmailAggregation> aggregations = streamEmailAggregation(key, start, end);
         assertEquals(2, aggregations.size());
         assertTrue(aggregations.stream().map(EmailAggregation::getAccountId).allMatch(ACCOUNT_ID::equals));
         assertTrue(aggregations.stream().map(EmailAggregation::getBundleName).allMatch(BUNDLE_NAME::equals));
@@ -66,13 +68,100 @@ public class EmailAggregationResourcesTest extends DbIsolatedTest {
         Integer purged = purgeOldAggregation(key, end);
         assertEquals(2, purged);
 
-        aggregations = getEmailAggregation(key, start, end);
+        aggregations = streamEmailAggregation(key, start, end);
         assertEquals(0, aggregations.size());
 
         keys = getApplicationsWithPendingAggregation(start, end);
         assertEquals(3, keys.size());
     }
 
+    @Test
+    void testStreamEmailAggregation() {
+        LocalDateTime start = LocalDateTime.now(UTC).minusHours(1L);
+        LocalDateTime end = LocalDateTime.now(UTC).plusHours(1L);
+
+        for (int i = 0; i < 5; i++) {
+            addEmailAggregation(ACCOUNT_ID, BUNDLE_NAME, APP_NAME, new JsonObject().put("index", i), true);
+        }
+        addEmailAggregation("other-account", BUNDLE_NAME, APP_NAME, PAYLOAD1, true);
+
+        EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE_NAME, APP_NAME);
+        // The last page is not full.
+        List<EmailAggregation> aggregations = emailAggregationResources.streamEmailAggregation(key, start, end, 2)
+                .collect().asList()
+                .await().indefinitely();
+        assertEquals(5, aggregations.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, aggregations.get(i).getPayload().getInteger("index"));
+        }
+
+        // The last page is full, the next one is empty.
+        aggregations = emailAggregationResources.streamEmailAggregation(key, start, end, 5)
+                .collect().asList()
+                .await().indefinitely();
+        assertEquals(5, aggregations.size());
+        assertEquals(streamEmailAggregation(key, start, end).size(), aggregations.size());
+    }
+
+    @Test
+    void testMergeEmailAggregation() {
+        LocalDateTime start = LocalDateTime.now(UTC).minusHours(1L);
+        LocalDateTime periodEnd = LocalDateTime.now(UTC).plusMinutes(30L).withNano(0);
+        LocalDateTime end = LocalDateTime.now(UTC).plusHours(1L);
+
+        assertTrue(mergeEmailAggregation(periodEnd, new JsonObject().put("a", 1).put("b", 1)));
+        assertTrue(mergeEmailAggregation(periodEnd, new JsonObject().put("b", 2).put("c", 2)));
+        // Another period.
+        assertTrue(mergeEmailAggregation(end.plusDays(1L), PAYLOAD1));
+
+        EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE_NAME, APP_NAME);
+        List<EmailAggregation> aggregations = streamEmailAggregation(key, start, end);
+        assertEquals(1, aggregations.size());
+        assertTrue(aggregations.get(0).isPreAggregated());
+        assertEquals(periodEnd, aggregations.get(0).getCreated());
+        assertEquals(new JsonObject().put("a", 1).put("b", 2).put("c", 2), aggregations.get(0).getPayload());
+
+        // The events stored without any incremental aggregation are still aggregated with the running aggregation.
+        addEmailAggregation(ACCOUNT_ID, BUNDLE_NAME, APP_NAME, PAYLOAD2, true);
+        assertEquals(2, streamEmailAggregation(key, start, end).size());
+        assertEquals(1, getApplicationsWithPendingAggregation(start, end).size());
+    }
+
+    @Test
+    void testPurgeSentAggregation() {
+        LocalDateTime start = LocalDateTime.now(UTC).minusHours(1L);
+        LocalDateTime periodEnd = LocalDateTime.now(UTC).plusMinutes(30L).withNano(0);
+        LocalDateTime end = LocalDateTime.now(UTC).plusHours(1L);
+        LocalDateTime nextEnd = end.plusDays(1L);
+
+        assertTrue(mergeEmailAggregation(periodEnd, new JsonObject().put("a", 1).put("b", 1)));
+        addEmailAggregation(ACCOUNT_ID, BUNDLE_NAME, APP_NAME, PAYLOAD1, true);
+        EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE_NAME, APP_NAME);
+        Map<Integer, JsonObject> sentStates = new HashMap<>();
+        streamEmailAggregation(key, start, end).stream()
+                .filter(EmailAggregation::isPreAggregated)
+                .forEach(aggregation -> sentStates.put(aggregation.getId(), aggregation.getPayload()));
+        assertEquals(1, sentStates.size());
+
+        // A merge which started before the end of the period commits after the aggregation was sent.
+        assertTrue(mergeEmailAggregation(periodEnd, new JsonObject().put("b", 1).put("c", 1)));
+        emailAggregationResources.purgeSentAggregation(key, end, sentStates, nextEnd).await().indefinitely();
+
+        assertTrue(streamEmailAggregation(key, start, end).isEmpty());
+        // Only the entry which wasn't sent is carried over into the next period.
+        List<EmailAggregation> next = streamEmailAggregation(key, end, nextEnd);
+        assertEquals(1, next.size());
+        assertTrue(next.get(0).isPreAggregated());
+        assertEquals(nextEnd, next.get(0).getCreated());
+        assertEquals(new JsonObject().put("c", 1), next.get(0).getPayload());
+
+        // Nothing is carried over when the running aggregation didn't change after it was sent.
+        sentStates.clear();
+        sentStates.put(next.get(0).getId(), next.get(0).getPayload());
+        emailAggregationResources.purgeSentAggregation(key, nextEnd, sentStates, nextEnd.plusDays(1L)).await().indefinitely();
+        assertTrue(streamEmailAggregation(key, start, nextEnd.plusDays(1L)).isEmpty());
+    }
+
     @ParameterizedTest
     @MethodSource("constraintViolations")
     void addEmailAggregationWithConstraintViolations(String accountId, String bundleName, String applicationName, JsonObject payload) {
@@ -99,8 +188,19 @@ public class EmailAggregationResourcesTest extends DbIsolatedTest {
         assertEquals(expectedResult, added);
     }
 
-    private List<EmailAggregation> getEmailAggregation(EmailAggregationKey key, LocalDateTime start, LocalDateTime end) {
-        return emailAggregationResources.getEmailAggregation(key, start, end)
+    private boolean mergeEmailAggregation(LocalDateTime periodEnd, JsonObject partialState) {
+        EmailAggregation aggregation = new EmailAggregation();
+        aggregation.setAccountId(ACCOUNT_ID);
+        aggregation.setBundleName(BUNDLE_NAME);
+        aggregation.setApplicationName(APP_NAME);
+        aggregation.setCreated(periodEnd);
+        aggregation.setPayload(partialState);
+        return emailAggregationResources.mergeEmailAggregation(aggregation).await().indefinitely();
+    }
+
+    private List<EmailAggregation> streamEmailAggregation(EmailAggregationKey key, LocalDateTime start, LocalDateTime end) {
+        return emailAggregationResources.streamEmailAggregation(key, start, end, 100)
+                .collect().asList()
                 .await().indefinitely();
     }
 
@@ -0,0 +1,59 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class EmailAggregationShardResourcesTest extends DbIsolatedTest {
+
+    @Inject
+    EmailAggregationShardResources shardResources;
+
+    @Test
+    void testClaimShards() {
+        // The shards are not cleaned between the tests, each run must be unique.
+        LocalDateTime run = LocalDateTime.now(ZoneId.of("UTC"));
+        LocalDateTime now = run.plusMinutes(1L);
+        shardResources.createShards(run, 2).await().indefinitely();
+        // Creating the shards of a run again doesn't do anything.
+        shardResources.createShards(run, 2).await().indefinitely();
+        assertEquals(2L, shardResources.countPendingShards(run).await().indefinitely());
+
+        assertEquals(0, shardResources.claimShard(run, "first", now, now.plusMinutes(5L)).await().indefinitely());
+        assertEquals(1, shardResources.claimShard(run, "second", now, now.plusMinutes(5L)).await().indefinitely());
+        assertNull(shardResources.claimShard(run, "first", now, now.plusMinutes(5L)).await().indefinitely());
+
+        // A shard can only be renewed and completed by its owner.
+        assertFalse(shardResources.renewShard(run, 1, "first", now.plusMinutes(10L)).await().indefinitely());
+        assertTrue(shardResources.renewShard(run, 1, "second", now.plusMinutes(5L)).await().indefinitely());
+        assertFalse(shardResources.completeShard(run, 0, "second").await().indefinitely());
+        assertTrue(shardResources.completeShard(run, 0, "first").await().indefinitely());
+        assertEquals(1L, shardResources.countPendingShards(run).await().indefinitely());
+
+        // The lease of the second shard expired, its owner crashed: the shard can be claimed again.
+        LocalDateTime later = now.plusMinutes(6L);
+        assertEquals(1, shardResources.claimShard(run, "first", later, later.plusMinutes(5L)).await().indefinitely());
+        // The previous owner lost the shard.
+        assertFalse(shardResources.renewShard(run, 1, "second", later.plusMinutes(5L)).await().indefinitely());
+        assertFalse(shardResources.completeShard(run, 1, "second").await().indefinitely());
+        assertTrue(shardResources.completeShard(run, 1, "first").await().indefinitely());
+        assertNull(shardResources.claimShard(run, "first", later.plusHours(1L), later.plusHours(2L)).await().indefinitely());
+        assertEquals(0L, shardResources.countPendingShards(run).await().indefinitely());
+
+        shardResources.purgeShards(run.plusSeconds(1L)).await().indefinitely();
+        shardResources.createShards(run, 1).await().indefinitely();
+        assertEquals(1L, shardResources.countPendingShards(run).await().indefinitely());
+    }
+}
@@ -0,0 +1,124 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.WebhookProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.vertx.mutiny.pgclient.PgPool;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static com.redhat.cloud.notifications.db.EndpointResources.DEFAULT_ENRICHED_ENDPOINTS_COUNTER_NAME;
+import static com.redhat.cloud.notifications.db.EndpointResources.DEFAULT_PROCESSED_COUNTER_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class EndpointResourcesTest extends DbIsolatedTest {
+
+    private static final String ACCOUNT_ID = "root";
+    // These records are created by DbCleaner.
+    private static final String BUNDLE_NAME = "rhel";
+    private static final String APP_NAME = "policies";
+    private static final String EVENT_TYPE_NAME = "policy-triggered";
+
+    @Inject
+    Mutiny.Session session;
+
+    @Inject
+    PgPool pgPool;
+
+    @Inject
+    ResourceHelpers resourceHelpers;
+
+    @Inject
+    ApplicationResources appResources;
+
+    @Inject
+    EndpointResources endpointResources;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Test
+    void testGetTargetEndpoints() {
+        UUID eventTypeId = appResources.getEventType(BUNDLE_NAME, APP_NAME, EVENT_TYPE_NAME).await().indefinitely().getId();
+
+        UUID targeted = resourceHelpers.createWebhookEndpoint(ACCOUNT_ID);
+        resourceHelpers.assignEndpointToEventType(ACCOUNT_ID, targeted, eventTypeId);
+
+        UUID disabled = resourceHelpers.createWebhookEndpoint(ACCOUNT_ID);
+        resourceHelpers.assignEndpointToEventType(ACCOUNT_ID, disabled, eventTypeId);
+        endpointResources.disableEndpoint(ACCOUNT_ID, disabled).await().indefinitely();
+
+        UUID defaultEndpoint = resourceHelpers.getDefaultEndpointId(ACCOUNT_ID);
+        resourceHelpers.assignEndpointToEventType(ACCOUNT_ID, defaultEndpoint, eventTypeId);
+        UUID fromDefaults = resourceHelpers.createWebhookEndpoint(ACCOUNT_ID);
+        resourceHelpers.assignEndpointToDefault(ACCOUNT_ID, fromDefaults);
+
+        UUID notTargeted = resourceHelpers.createWebhookEndpoint(ACCOUNT_ID);
+        UUID otherAccount = resourceHelpers.createWebhookEndpoint("other-account");
+        resourceHelpers.assignEndpointToEventType("other-account", otherAccount, eventTypeId);
+
+        session.clear();
+        resetStatementsStats();
+        double processed = counter(DEFAULT_PROCESSED_COUNTER_NAME);
+        double enriched = counter(DEFAULT_ENRICHED_ENDPOINTS_COUNTER_NAME);
+
+        List<Endpoint> endpoints = getTargetEndpoints();
+        assertEquals(1L, countEndpointStatements());
+        assertEquals(processed + 1.0, counter(DEFAULT_PROCESSED_COUNTER_NAME));
+        assertEquals(enriched + 1.0, counter(DEFAULT_ENRICHED_ENDPOINTS_COUNTER_NAME));
+        assertEquals(Set.of(targeted, fromDefaults), endpoints.stream().map(Endpoint::getId).collect(Collectors.toSet()));
+        assertTrue(endpoints.stream().allMatch(endpoint -> endpoint.getProperties(WebhookProperties.class).getUrl().equals("https://localhost")));
+        assertTrue(endpoints.stream().noneMatch(endpoint -> endpoint.getId().equals(notTargeted)));
+    }
+
+    @Test
+    void testDefaultsAreIgnoredWhenDefaultEndpointIsNotTargeted() {
+        UUID eventTypeId = appResources.getEventType(BUNDLE_NAME, APP_NAME, EVENT_TYPE_NAME).await().indefinitely().getId();
+
+        UUID targeted = resourceHelpers.createWebhookEndpoint(ACCOUNT_ID);
+        resourceHelpers.assignEndpointToEventType(ACCOUNT_ID, targeted, eventTypeId);
+        UUID fromDefaults = resourceHelpers.createWebhookEndpoint(ACCOUNT_ID);
+        resourceHelpers.assignEndpointToDefault(ACCOUNT_ID, fromDefaults);
+
+        session.clear();
+        double processed = counter(DEFAULT_PROCESSED_COUNTER_NAME);
+
+        List<Endpoint> endpoints = getTargetEndpoints();
+        assertEquals(List.of(targeted), endpoints.stream().map(Endpoint::getId).collect(Collectors.toList()));
+        assertEquals(processed, counter(DEFAULT_PROCESSED_COUNTER_NAME));
+    }
+
+    private List<Endpoint> getTargetEndpoints() {
+        return endpointResources.getTargetEndpoints(ACCOUNT_ID, BUNDLE_NAME, APP_NAME, EVENT_TYPE_NAME)
+                .collect().asList()
+                .await().indefinitely();
+    }
+
+    private double counter(String name) {
+        return registry.counter(name).count();
+    }
+
+    private void resetStatementsStats() {
+        pgPool.query("SELECT pg_stat_statements_reset()").execute().await().indefinitely();
+    }
+
+    // Counts the SQL statements which involved the endpoints table since the last reset.
+    private long countEndpointStatements() {
+        String query = "SELECT COALESCE(SUM(calls), 0)::bigint AS calls FROM pg_stat_statements " +
+                "WHERE query LIKE '%endpoints%' AND query NOT LIKE '%pg_stat_statements%'";
+        return pgPool.query(query).execute().await().indefinitely()
+                .iterator().next().getLong("calls");
+    }
+}
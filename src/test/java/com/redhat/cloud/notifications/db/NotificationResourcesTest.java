@@ -0,0 +1,63 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class NotificationResourcesTest extends DbIsolatedTest {
+
+    private static final String ACCOUNT_ID = "root";
+
+    @Inject
+    ResourceHelpers resourceHelpers;
+
+    @Inject
+    NotificationResources notifResources;
+
+    @Test
+    void testCreateNotificationHistories() {
+        UUID endpointId = resourceHelpers.createWebhookEndpoint(ACCOUNT_ID);
+        NotificationHistory success = buildHistory(endpointId, true, Map.of("code", 200));
+        NotificationHistory failure = buildHistory(endpointId, false, null);
+
+        notifResources.createNotificationHistories(List.of(success, failure)).await().indefinitely();
+
+        List<NotificationHistory> histories = notifResources.getNotificationHistory(ACCOUNT_ID, endpointId).await().indefinitely();
+        assertEquals(2, histories.size());
+        assertTrue(histories.stream().anyMatch(history -> history.getId().equals(success.getId()) && history.isInvocationResult()));
+        assertTrue(histories.stream().anyMatch(history -> history.getId().equals(failure.getId()) && !history.isInvocationResult()));
+
+        JsonObject details = notifResources.getNotificationDetails(ACCOUNT_ID, null, endpointId, success.getId()).await().indefinitely();
+        assertEquals(200, details.getInteger("code"));
+        assertNull(notifResources.getNotificationDetails(ACCOUNT_ID, null, endpointId, failure.getId()).await().indefinitely());
+    }
+
+    private static NotificationHistory buildHistory(UUID endpointId, boolean result, Map<String, Object> details) {
+        NotificationHistory history = new NotificationHistory();
+        history.setId(UUID.randomUUID());
+        history.setCreated(LocalDateTime.now(ZoneId.of("UTC")));
+        history.setAccountId(ACCOUNT_ID);
+        history.setEndpointId(endpointId);
+        history.setInvocationTime(42L);
+        history.setInvocationResult(result);
+        history.setEventId("");
+        history.setDetails(details);
+        return history;
+    }
+}
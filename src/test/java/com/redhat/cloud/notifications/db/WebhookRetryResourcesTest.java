@@ -0,0 +1,56 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.models.WebhookRetry;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class WebhookRetryResourcesTest extends DbIsolatedTest {
+
+    private static final String ACCOUNT_ID = "root";
+
+    @Inject
+    ResourceHelpers resourceHelpers;
+
+    @Inject
+    WebhookRetryResources retryResources;
+
+    @Test
+    void testClaimRetries() {
+        UUID endpointId = resourceHelpers.createWebhookEndpoint(ACCOUNT_ID);
+        LocalDateTime now = LocalDateTime.now(ZoneId.of("UTC"));
+        WebhookRetry due = new WebhookRetry(UUID.randomUUID(), ACCOUNT_ID, endpointId, "{\"foo\":\"bar\"}", 1);
+        WebhookRetry later = new WebhookRetry(UUID.randomUUID(), ACCOUNT_ID, endpointId, "{}", 1);
+        retryResources.createRetry(due, now.minusSeconds(1L), now).await().indefinitely();
+        retryResources.createRetry(later, now.plusHours(1L), now).await().indefinitely();
+
+        List<WebhookRetry> claimed = retryResources.claimRetries(now, now.plusMinutes(5L), 10).await().indefinitely();
+        assertEquals(1, claimed.size());
+        assertEquals(due.getId(), claimed.get(0).getId());
+        assertEquals(endpointId, claimed.get(0).getEndpointId());
+        assertEquals("{\"foo\":\"bar\"}", claimed.get(0).getPayload());
+        assertEquals(1, claimed.get(0).getAttempts());
+
+        // The claimed retry is leased, it can't be claimed again until the lease ends.
+        assertTrue(retryResources.claimRetries(now, now.plusMinutes(5L), 10).await().indefinitely().isEmpty());
+        assertEquals(1, retryResources.claimRetries(now.plusMinutes(6L), now.plusMinutes(11L), 10).await().indefinitely().size());
+
+        retryResources.rescheduleRetry(due.getId(), 2, now).await().indefinitely();
+        retryResources.deleteRetry(later.getId()).await().indefinitely();
+        claimed = retryResources.claimRetries(now.plusHours(2L), now.plusHours(3L), 10).await().indefinitely();
+        assertEquals(1, claimed.size());
+        assertEquals(2, claimed.get(0).getAttempts());
+    }
+}
@@ -0,0 +1,82 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.events.ActionDecoder.Encoding;
+import com.redhat.cloud.notifications.ingress.Action;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.JsonDecoder;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+import static com.redhat.cloud.notifications.TestHelpers.serializeAction;
+import static com.redhat.cloud.notifications.TestHelpers.serializeActionAsBinary;
+
+/**
+ * Compares the ingress payload decoding throughput and allocation rate (see the {@code gc.alloc.rate.norm} result) of
+ * the JSON and binary Avro encodings. This is not run with the tests, start it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.redhat.cloud.notifications.events.ActionDecoderBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActionDecoderBenchmark {
+
+    private ActionDecoder decoder;
+    private byte[] jsonPayload;
+    private byte[] binaryPayload;
+
+    @Setup
+    public void setup() throws IOException {
+        Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        decoder = new ActionDecoder();
+        jsonPayload = serializeAction(action);
+        binaryPayload = serializeActionAsBinary(action);
+    }
+
+    // What the ingress consumer used to do for each message.
+    @Benchmark
+    public Action jsonUnpooled() throws IOException {
+        JsonDecoder jsonDecoder = DecoderFactory.get().jsonDecoder(Action.getClassSchema(), new String(jsonPayload));
+        DatumReader<Action> reader = new SpecificDatumReader<>(Action.class);
+        return reader.read(new Action(), jsonDecoder);
+    }
+
+    @Benchmark
+    public Action jsonPooled() {
+        return decoder.decode(jsonPayload, Encoding.JSON);
+    }
+
+    @Benchmark
+    public Action binaryPooled() {
+        return decoder.decode(binaryPayload, Encoding.BINARY);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ActionDecoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,57 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.events.ActionDecoder.Encoding;
+import com.redhat.cloud.notifications.ingress.Action;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+import static com.redhat.cloud.notifications.TestHelpers.serializeAction;
+import static com.redhat.cloud.notifications.TestHelpers.serializeActionAsBinary;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ActionDecoderTest {
+
+    private final ActionDecoder decoder = new ActionDecoder();
+
+    @Test
+    void testJsonDecoding() throws IOException {
+        Action first = createPoliciesAction("tenant1", "rhel", "policies", "host1");
+        Action second = createPoliciesAction("tenant2", "rhel", "policies", "host2");
+
+        // The second call reuses the decoder of the current thread.
+        assertEquals(first, decoder.decode(serializeAction(first), Encoding.JSON));
+        assertEquals(second, decoder.decode(serializeAction(second), Encoding.JSON));
+    }
+
+    @Test
+    void testBinaryDecoding() throws IOException {
+        Action first = createPoliciesAction("tenant1", "rhel", "policies", "host1");
+        Action second = createPoliciesAction("tenant2", "rhel", "policies", "host2");
+
+        assertEquals(first, decoder.decode(serializeActionAsBinary(first), Encoding.BINARY));
+        assertEquals(second, decoder.decode(serializeActionAsBinary(second), Encoding.BINARY));
+    }
+
+    @Test
+    void testInvalidPayload() throws IOException {
+        byte[] invalid = "I am not a valid serialized action!".getBytes(UTF_8);
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(invalid, Encoding.JSON));
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(invalid, Encoding.BINARY));
+
+        // A failed decoding must not break the decoder reused by the next payloads.
+        Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        assertEquals(action, decoder.decode(serializeAction(action), Encoding.JSON));
+    }
+
+    @Test
+    void testEncodingHeader() {
+        assertEquals(Encoding.JSON, Encoding.fromHeader(null));
+        assertEquals(Encoding.JSON, Encoding.fromHeader("json"));
+        assertEquals(Encoding.BINARY, Encoding.fromHeader("binary"));
+        assertThrows(IllegalArgumentException.class, () -> Encoding.fromHeader("xml"));
+    }
+}
@@ -0,0 +1,59 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EndpointAccountsFilterTest {
+
+    private final EndpointAccountsFilter filter = new EndpointAccountsFilter();
+
+    @BeforeEach
+    void init() {
+        filter.enabled = true;
+        filter.falsePositiveRate = 0.01;
+        filter.resources = mock(EndpointResources.class);
+    }
+
+    @Test
+    void testNotLoaded() {
+        assertFalse(filter.hasNoEndpoints("account"));
+    }
+
+    @Test
+    void testRefreshAndAdd() {
+        when(filter.resources.getAccountIdsWithEndpoints()).thenReturn(Uni.createFrom().item(List.of("account")));
+        filter.refresh();
+        assertFalse(filter.hasNoEndpoints("account"));
+        assertTrue(filter.hasNoEndpoints("new-account"));
+
+        filter.add("new-account");
+        assertFalse(filter.hasNoEndpoints("new-account"));
+    }
+
+    @Test
+    void testAddedDuringRefresh() {
+        when(filter.resources.getAccountIdsWithEndpoints()).thenAnswer(invocation -> {
+            // The endpoint is created while the accounts are loaded, it is missing from the query result.
+            filter.add("new-account");
+            return Uni.createFrom().item(List.of("account"));
+        });
+        filter.refresh();
+        assertFalse(filter.hasNoEndpoints("new-account"));
+    }
+
+    @Test
+    void testFailedRefresh() {
+        when(filter.resources.getAccountIdsWithEndpoints()).thenReturn(Uni.createFrom().failure(new RuntimeException()));
+        filter.refresh();
+        assertFalse(filter.hasNoEndpoints("unknown-account"));
+    }
+}
@@ -0,0 +1,128 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.EndpointType;
+import com.redhat.cloud.notifications.models.Notification;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.processors.email.EmailSubscriptionTypeProcessor;
+import com.redhat.cloud.notifications.processors.webhooks.WebhookCircuitBreaker;
+import com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor;
+import com.redhat.cloud.notifications.transformers.BaseTransformer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.redhat.cloud.notifications.events.EndpointProcessor.DELIVERIES_TIMER_NAME;
+import static com.redhat.cloud.notifications.events.EndpointProcessor.FAN_OUT_TIMER_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EndpointProcessorTest {
+
+    private final EndpointProcessor processor = new EndpointProcessor();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<UniEmitter<? super NotificationHistory>> webhookEmitters = new ArrayList<>();
+
+    @BeforeEach
+    void init() {
+        processor.session = mock(Mutiny.Session.class);
+        processor.resources = mock(EndpointResources.class);
+        processor.historyWriter = mock(NotificationHistoryWriter.class);
+        processor.webhooks = mock(WebhookTypeProcessor.class);
+        processor.emails = mock(EmailSubscriptionTypeProcessor.class);
+        processor.circuitBreaker = new WebhookCircuitBreaker();
+        processor.routingCache = new RoutingCache();
+        processor.accountsFilter = new EndpointAccountsFilter();
+        processor.transformer = new BaseTransformer();
+        processor.registry = registry;
+        processor.fanOutConcurrency = 4;
+        processor.init();
+
+        when(processor.webhooks.process(any(Notification.class))).thenAnswer(invocation ->
+                Uni.createFrom().<NotificationHistory>emitter(webhookEmitters::add)
+        );
+        when(processor.historyWriter.write(any(NotificationHistory.class))).thenAnswer(invocation ->
+                Uni.createFrom().item(invocation.getArgument(0, NotificationHistory.class))
+        );
+    }
+
+    @Test
+    void testWebhooksAreDeliveredConcurrently() {
+        mockEndpoints(EndpointType.WEBHOOK, EndpointType.WEBHOOK, EndpointType.WEBHOOK);
+        AtomicBoolean done = new AtomicBoolean();
+        processor.process(buildAction()).subscribe().with(ignored -> done.set(true));
+
+        // All deliveries are started before any of them completes.
+        assertEquals(3, webhookEmitters.size());
+        webhookEmitters.forEach(emitter -> emitter.complete(new NotificationHistory()));
+
+        assertTrue(done.get());
+        verify(processor.historyWriter, times(3)).write(any(NotificationHistory.class));
+        assertEquals(1, registry.timer(FAN_OUT_TIMER_NAME).count());
+        assertEquals(1, registry.timer(DELIVERIES_TIMER_NAME).count());
+    }
+
+    @Test
+    void testConcurrencyLimit() {
+        processor.fanOutConcurrency = 2;
+        mockEndpoints(EndpointType.WEBHOOK, EndpointType.WEBHOOK, EndpointType.WEBHOOK);
+        processor.process(buildAction()).subscribe().with(ignored -> { });
+
+        assertEquals(2, webhookEmitters.size());
+        webhookEmitters.get(0).complete(new NotificationHistory());
+        assertEquals(3, webhookEmitters.size());
+    }
+
+    @Test
+    void testHistoryWritesAreSerializedWithEmails() {
+        mockEndpoints(EndpointType.WEBHOOK, EndpointType.EMAIL_SUBSCRIPTION);
+        List<UniEmitter<? super NotificationHistory>> historyEmitters = new ArrayList<>();
+        when(processor.historyWriter.write(any(NotificationHistory.class))).thenAnswer(invocation ->
+                Uni.createFrom().<NotificationHistory>emitter(historyEmitters::add)
+        );
+        when(processor.emails.process(any(Notification.class))).thenReturn(Uni.createFrom().item(new NotificationHistory()));
+        processor.process(buildAction()).subscribe().with(ignored -> { });
+
+        // The email history write is pending, the webhook history write has to wait for it.
+        assertEquals(1, historyEmitters.size());
+        webhookEmitters.get(0).complete(new NotificationHistory());
+        assertEquals(1, historyEmitters.size());
+        historyEmitters.get(0).complete(new NotificationHistory());
+        assertEquals(2, historyEmitters.size());
+    }
+
+    private void mockEndpoints(EndpointType... types) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (EndpointType type : types) {
+            Endpoint endpoint = new Endpoint();
+            endpoint.setType(type);
+            endpoints.add(endpoint);
+        }
+        when(processor.resources.getTargetEndpoints("account", "rhel", "policies", "policy-triggered"))
+                .thenReturn(Multi.createFrom().iterable(endpoints));
+    }
+
+    private static Action buildAction() {
+        Action action = new Action();
+        action.setAccountId("account");
+        action.setBundle("rhel");
+        action.setApplication("policies");
+        action.setEventType("policy-triggered");
+        return action;
+    }
+}
@@ -0,0 +1,153 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.ingress.Action;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.arc.Arc;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import org.eclipse.microprofile.reactive.messaging.Acknowledgment.Strategy;
+import org.eclipse.microprofile.reactive.messaging.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+import static com.redhat.cloud.notifications.TestHelpers.serializeAction;
+
+/**
+ * Compares the ingress throughput of the PRE_PROCESSING and POST_PROCESSING acknowledgment strategies. The messages are
+ * pushed directly into the consumer pipeline, like the in-memory connector does, and each event takes
+ * {@code processingMillis} to be processed without blocking any thread. A message is counted once it is both processed
+ * and acked. The Kafka commits are not part of the measurement. This is not run with the tests, start it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.redhat.cloud.notifications.events.EventConsumerAckBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventConsumerAckBenchmark {
+
+    private static final int MESSAGES = 1000;
+    private static final int ACCOUNTS = 64;
+
+    @Param({ "PRE_PROCESSING", "POST_PROCESSING" })
+    public String acknowledgment;
+
+    @Param({ "0", "1" })
+    public long processingMillis;
+
+    // Keeps a strong reference, the level would be lost if the logger was garbage collected.
+    private static final Logger CONSUMER_LOGGER = Logger.getLogger(EventConsumer.class.getName());
+
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger acked = new AtomicInteger();
+    private Subscriber<Message<byte[]>> ingress;
+    private byte[][] payloads;
+
+    @Setup
+    public void setup() throws IOException {
+        // Only the request contexts of ArC are needed, the context propagation would require the whole application.
+        Infrastructure.clearInterceptors();
+        Arc.initialize();
+        // The payload of each event is logged at the INFO level, that would be measured instead of the acks.
+        CONSUMER_LOGGER.setLevel(Level.WARNING);
+
+        payloads = new byte[ACCOUNTS][];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            payloads[i] = serializeAction(createPoliciesAction("tenant-" + i, "rhel", "policies", "host"));
+        }
+
+        EventConsumer consumer = new EventConsumer();
+        consumer.registry = new SimpleMeterRegistry();
+        consumer.actionDecoder = new ActionDecoder();
+        consumer.knownRoutes = new KnownRoutes();
+        consumer.destinations = new EndpointProcessor() {
+            @Override
+            public Uni<Void> process(Action action) {
+                Uni<Void> processing = Uni.createFrom().voidItem();
+                if (processingMillis > 0) {
+                    processing = processing.onItem().delayIt().by(Duration.ofMillis(processingMillis));
+                }
+                return processing.invoke(processed::incrementAndGet);
+            }
+        };
+        consumer.maxInFlight = 16;
+        consumer.acknowledgment = Strategy.valueOf(acknowledgment);
+        consumer.init();
+
+        ingress = consumer.processAsync();
+        ingress.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                demand.addAndGet(n);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        ingress.onComplete();
+        Arc.shutdown();
+        Infrastructure.reload();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void ingest() {
+        processed.set(0);
+        acked.set(0);
+        for (int i = 0; i < MESSAGES; i++) {
+            // The pipeline demand is bounded by ingress.max_in_flight, the connector waits for it as well.
+            while (demand.get() == 0L) {
+                Thread.onSpinWait();
+            }
+            demand.decrementAndGet();
+            ingress.onNext(Message.of(payloads[i % ACCOUNTS], () -> {
+                acked.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }));
+        }
+        while (processed.get() < MESSAGES || acked.get() < MESSAGES) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EventConsumerAckBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
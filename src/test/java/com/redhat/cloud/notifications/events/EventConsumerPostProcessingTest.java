@@ -0,0 +1,119 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.ingress.Event;
+import com.redhat.cloud.notifications.ingress.Metadata;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.junit.mockito.InjectMock;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.reactive.messaging.connectors.InMemoryConnector;
+import org.eclipse.microprofile.reactive.messaging.Message;
+import org.junit.jupiter.api.Test;
+
+import javax.enterprise.inject.Any;
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.redhat.cloud.notifications.TestHelpers.serializeAction;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@QuarkusTest
+@TestProfile(EventConsumerPostProcessingTest.PostProcessingProfile.class)
+@QuarkusTestResource(TestLifecycleManager.class)
+public class EventConsumerPostProcessingTest {
+
+    @Inject
+    @Any
+    InMemoryConnector inMemoryConnector;
+
+    @InjectMock
+    EndpointProcessor destinations;
+
+    @Test
+    void testMessageIsAckedAfterProcessing() throws Exception {
+        Action action = buildAction("post-processing-tenant");
+        CompletableFuture<Void> processed = new CompletableFuture<>();
+        when(destinations.process(eq(action))).thenReturn(Uni.createFrom().completionStage(processed));
+
+        CompletableFuture<Void> acked = send(action);
+        verify(destinations, timeout(5000L)).process(eq(action));
+        assertFalse(acked.isDone());
+
+        processed.complete(null);
+        acked.get(5L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testMessageIsAckedAfterFailedProcessing() throws Exception {
+        Action action = buildAction("post-processing-failure-tenant");
+        CompletableFuture<Void> processed = new CompletableFuture<>();
+        when(destinations.process(eq(action))).thenReturn(Uni.createFrom().completionStage(processed));
+
+        CompletableFuture<Void> acked = send(action);
+        verify(destinations, timeout(5000L)).process(eq(action));
+        assertFalse(acked.isDone());
+
+        processed.completeExceptionally(new RuntimeException("I am a forced exception!"));
+        acked.get(5L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testFailedAckDoesNotStopTheConsumer() throws Exception {
+        Action failedAck = buildAction("failed-ack-tenant");
+        when(destinations.process(eq(failedAck))).thenReturn(Uni.createFrom().voidItem());
+        inMemoryConnector.source("ingress").send(Message.of(serializeAction(failedAck),
+                () -> CompletableFuture.failedFuture(new RuntimeException("I am a forced ack failure!"))));
+        verify(destinations, timeout(5000L)).process(eq(failedAck));
+
+        Action action = buildAction("after-failed-ack-tenant");
+        when(destinations.process(eq(action))).thenReturn(Uni.createFrom().voidItem());
+        send(action).get(5L, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<Void> send(Action action) throws Exception {
+        CompletableFuture<Void> acked = new CompletableFuture<>();
+        inMemoryConnector.source("ingress").send(Message.of(serializeAction(action), () -> {
+            acked.complete(null);
+            return CompletableFuture.completedFuture(null);
+        }));
+        return acked;
+    }
+
+    private static Action buildAction(String accountId) {
+        Action action = new Action();
+        action.setBundle("my-bundle");
+        action.setApplication("Policies");
+        action.setEventType("Any");
+        action.setTimestamp(LocalDateTime.now());
+        action.setAccountId(accountId);
+        action.setEvents(List.of(
+                Event.newBuilder()
+                        .setMetadataBuilder(Metadata.newBuilder())
+                        .setPayload(Map.of("k", "v"))
+                        .build()
+        ));
+        action.setContext(new HashMap());
+        return action;
+    }
+
+    public static class PostProcessingProfile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("ingress.acknowledgment", "POST_PROCESSING");
+        }
+    }
+}
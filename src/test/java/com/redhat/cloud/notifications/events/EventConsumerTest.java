@@ -10,6 +10,11 @@ import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.junit.mockito.InjectMock;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.reactive.messaging.connectors.InMemoryConnector;
+import io.smallrye.reactive.messaging.kafka.IncomingKafkaRecordMetadata;
+import io.vertx.kafka.client.consumer.impl.KafkaConsumerRecordImpl;
+import io.vertx.mutiny.kafka.client.consumer.KafkaConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.eclipse.microprofile.reactive.messaging.Message;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -22,10 +27,19 @@ import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.redhat.cloud.notifications.TestHelpers.serializeAction;
+import static com.redhat.cloud.notifications.events.EventConsumer.ACCOUNT_ID_HEADER;
+import static com.redhat.cloud.notifications.events.EventConsumer.APPLICATION_HEADER;
+import static com.redhat.cloud.notifications.events.EventConsumer.BUNDLE_HEADER;
+import static com.redhat.cloud.notifications.events.EventConsumer.EVENT_TYPE_HEADER;
 import static com.redhat.cloud.notifications.events.EventConsumer.PROCESSING_ERROR_COUNTER_NAME;
 import static com.redhat.cloud.notifications.events.EventConsumer.REJECTED_COUNTER_NAME;
+import static com.redhat.cloud.notifications.events.EventConsumer.SHORT_CIRCUITED_COUNTER_NAME;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
@@ -44,12 +58,15 @@ public class EventConsumerTest {
     @InjectMock
     EndpointProcessor destinations;
 
+    @InjectMock
+    KnownRoutes knownRoutes;
+
     @Inject
     CounterAssertionHelper counterAssertionHelper;
 
     @BeforeEach
     void init() {
-        counterAssertionHelper.saveCounterValuesBeforeTest(REJECTED_COUNTER_NAME, PROCESSING_ERROR_COUNTER_NAME);
+        counterAssertionHelper.saveCounterValuesBeforeTest(REJECTED_COUNTER_NAME, PROCESSING_ERROR_COUNTER_NAME, SHORT_CIRCUITED_COUNTER_NAME);
     }
 
     @AfterEach
@@ -60,7 +77,7 @@ public class EventConsumerTest {
     @Test
     void testValidMessagePayload() throws IOException {
         Action action = buildValidAction();
-        String serializedAction = serializeAction(action);
+        byte[] serializedAction = serializeAction(action);
         inMemoryConnector.source("ingress").send(serializedAction);
         counterAssertionHelper.assertIncrement(REJECTED_COUNTER_NAME, 0);
         counterAssertionHelper.assertIncrement(PROCESSING_ERROR_COUNTER_NAME, 0);
@@ -69,7 +86,7 @@ public class EventConsumerTest {
 
     @Test
     void testInvalidMessagePayload() {
-        inMemoryConnector.source("ingress").send("I am not a valid serialized action!");
+        inMemoryConnector.source("ingress").send("I am not a valid serialized action!".getBytes(UTF_8));
         counterAssertionHelper.assertIncrement(REJECTED_COUNTER_NAME, 1);
         counterAssertionHelper.assertIncrement(PROCESSING_ERROR_COUNTER_NAME, 0);
         verify(destinations, never()).process(any(Action.class));
@@ -78,7 +95,7 @@ public class EventConsumerTest {
     @Test
     void testProcessingError() throws IOException {
         Action action = buildValidAction();
-        String serializedAction = serializeAction(action);
+        byte[] serializedAction = serializeAction(action);
         when(destinations.process(eq(action))).thenReturn(
                 Uni.createFrom().failure(() -> new RuntimeException("I am a forced exception!"))
         );
@@ -88,6 +105,63 @@ public class EventConsumerTest {
         verify(destinations, times(1)).process(eq(action));
     }
 
+    @Test
+    void testMessageIsAcked() throws IOException {
+        Action action = buildValidAction();
+        byte[] serializedAction = serializeAction(action);
+        AtomicBoolean acked = new AtomicBoolean();
+        inMemoryConnector.source("ingress").send(Message.of(serializedAction, () -> {
+            acked.set(true);
+            return CompletableFuture.completedFuture(null);
+        }));
+        assertTrue(acked.get());
+        verify(destinations, times(1)).process(eq(action));
+    }
+
+    @Test
+    void testNullPayloadDoesNotStopTheConsumer() throws IOException {
+        // Tombstone record.
+        inMemoryConnector.source("ingress").send(Message.of((byte[]) null));
+        counterAssertionHelper.assertIncrement(REJECTED_COUNTER_NAME, 1);
+
+        Action action = buildValidAction();
+        inMemoryConnector.source("ingress").send(serializeAction(action));
+        verify(destinations, times(1)).process(eq(action));
+    }
+
+    @Test
+    void testUnroutableMessageIsShortCircuited() throws IOException {
+        Action action = buildValidAction();
+        byte[] serializedAction = serializeAction(action);
+        when(knownRoutes.isUnroutable(eq("testTenant"), eq("my-bundle"), eq("Policies"), eq("Any"))).thenReturn(true);
+        inMemoryConnector.source("ingress").send(buildMessageWithRouteHeaders(action, serializedAction));
+        counterAssertionHelper.assertIncrement(SHORT_CIRCUITED_COUNTER_NAME, 1);
+        counterAssertionHelper.assertIncrement(REJECTED_COUNTER_NAME, 0);
+        verify(destinations, never()).process(any(Action.class));
+    }
+
+    @Test
+    void testRoutableMessageWithHeaders() throws IOException {
+        Action action = buildValidAction();
+        byte[] serializedAction = serializeAction(action);
+        inMemoryConnector.source("ingress").send(buildMessageWithRouteHeaders(action, serializedAction));
+        counterAssertionHelper.assertIncrement(SHORT_CIRCUITED_COUNTER_NAME, 0);
+        verify(destinations, times(1)).process(eq(action));
+    }
+
+    private static Message<byte[]> buildMessageWithRouteHeaders(Action action, byte[] payload) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("ingress", 0, 0L, null, payload);
+        record.headers()
+                .add(ACCOUNT_ID_HEADER, action.getAccountId().getBytes(UTF_8))
+                .add(BUNDLE_HEADER, action.getBundle().getBytes(UTF_8))
+                .add(APPLICATION_HEADER, action.getApplication().getBytes(UTF_8))
+                .add(EVENT_TYPE_HEADER, action.getEventType().getBytes(UTF_8));
+        IncomingKafkaRecordMetadata<String, byte[]> metadata = new IncomingKafkaRecordMetadata<>(
+                new KafkaConsumerRecord<>(new KafkaConsumerRecordImpl<>(record))
+        );
+        return Message.of(payload).addMetadata(metadata);
+    }
+
     private static Action buildValidAction() {
         Action action = new Action();
         action.setBundle("my-bundle");
@@ -0,0 +1,64 @@
+package com.redhat.cloud.notifications.events;
+
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventLanesTest {
+
+    @Test
+    void testSameKeyIsProcessedInOrder() {
+        EventLanes lanes = new EventLanes(4);
+        List<String> started = new ArrayList<>();
+        Map<String, UniEmitter<? super String>> emitters = new HashMap<>();
+
+        for (String item : List.of("first", "second", "third")) {
+            lanes.submit("account", () -> Uni.createFrom().<String>emitter(emitter -> {
+                started.add(item);
+                emitters.put(item, emitter);
+            })).subscribe().with(ignored -> { });
+        }
+
+        // Only the first item can run while the other ones wait in the lane.
+        assertEquals(List.of("first"), started);
+        assertEquals(2, lanes.getQueued().get());
+
+        emitters.get("first").complete("first");
+        assertEquals(List.of("first", "second"), started);
+        assertEquals(1, lanes.getQueued().get());
+
+        emitters.get("second").fail(new RuntimeException("A failure must not block the lane"));
+        assertEquals(List.of("first", "second", "third"), started);
+        assertEquals(0, lanes.getQueued().get());
+    }
+
+    @Test
+    void testDifferentLanesAreProcessedConcurrently() {
+        EventLanes lanes = new EventLanes(2);
+        List<String> started = new ArrayList<>();
+
+        // With two lanes, "a" and "b" hash to different lanes.
+        assertTrue(Math.floorMod("a".hashCode(), 2) != Math.floorMod("b".hashCode(), 2));
+        for (String key : List.of("a", "b")) {
+            lanes.submit(key, () -> Uni.createFrom().<String>emitter(emitter -> started.add(key)))
+                    .subscribe().with(ignored -> { });
+        }
+
+        assertEquals(List.of("a", "b"), started);
+        assertEquals(0, lanes.getQueued().get());
+    }
+
+    @Test
+    void testInvalidLaneCount() {
+        assertThrows(IllegalArgumentException.class, () -> new EventLanes(0));
+    }
+}
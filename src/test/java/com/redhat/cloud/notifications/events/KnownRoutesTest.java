@@ -0,0 +1,59 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.models.RoutingKey;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KnownRoutesTest {
+
+    private final KnownRoutes knownRoutes = new KnownRoutes();
+
+    @BeforeEach
+    void init() {
+        knownRoutes.enabled = true;
+        knownRoutes.resources = mock(EndpointResources.class);
+        when(knownRoutes.resources.getTargetRoutes()).thenReturn(
+                Uni.createFrom().item(List.of(new RoutingKey("account", "rhel", "policies", "policy-triggered")))
+        );
+    }
+
+    @Test
+    void testUnknownRoutesAreRoutable() {
+        assertFalse(knownRoutes.isUnroutable("account", "rhel", "policies", "other-event-type"));
+    }
+
+    @Test
+    void testRefreshedRoutes() {
+        knownRoutes.refresh();
+        assertFalse(knownRoutes.isUnroutable("account", "rhel", "policies", "policy-triggered"));
+        assertTrue(knownRoutes.isUnroutable("account", "rhel", "policies", "other-event-type"));
+        assertTrue(knownRoutes.isUnroutable("other-account", "rhel", "policies", "policy-triggered"));
+        // Messages without the complete route are never dropped.
+        assertFalse(knownRoutes.isUnroutable(null, "rhel", "policies", "other-event-type"));
+    }
+
+    @Test
+    void testInvalidatedRoutes() {
+        knownRoutes.refresh();
+        knownRoutes.invalidate();
+        assertFalse(knownRoutes.isUnroutable("account", "rhel", "policies", "other-event-type"));
+        knownRoutes.refresh();
+        assertTrue(knownRoutes.isUnroutable("account", "rhel", "policies", "other-event-type"));
+    }
+
+    @Test
+    void testDisabled() {
+        knownRoutes.enabled = false;
+        knownRoutes.refresh();
+        assertFalse(knownRoutes.isUnroutable("account", "rhel", "policies", "other-event-type"));
+    }
+}
@@ -291,7 +291,7 @@ public class LifecycleITest extends DbIsolatedTest {
 
         targetAction.setAccountId("tenant");
 
-        String payload = serializeAction(targetAction);
+        byte[] payload = serializeAction(targetAction);
         inMemoryConnector.source("ingress").send(payload);
 
 //        InputStream is = getClass().getClassLoader().getResourceAsStream("input/platform.notifications.ingress.json");
@@ -409,7 +409,7 @@ public class Lifecycle_BG_ITest extends DbIsolatedTest {
                         .build()
         ));
 
-        String serializedAction = serializeAction(action);
+        byte[] serializedAction = serializeAction(action);
         inMemoryConnector.source("ingress").send(serializedAction);
     }
 
@@ -0,0 +1,139 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.db.NotificationResources;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.redhat.cloud.notifications.events.NotificationHistoryWriter.BUFFER_DEPTH_GAUGE_NAME;
+import static com.redhat.cloud.notifications.events.NotificationHistoryWriter.FLUSH_FAILED_COUNTER_NAME;
+import static com.redhat.cloud.notifications.events.NotificationHistoryWriter.FLUSH_SIZE_SUMMARY_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NotificationHistoryWriterTest {
+
+    private final NotificationHistoryWriter writer = new NotificationHistoryWriter();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<List<NotificationHistory>> batches = new ArrayList<>();
+    private final List<UniEmitter<? super Void>> insertEmitters = new ArrayList<>();
+
+    @BeforeEach
+    void init() {
+        writer.mode = NotificationHistoryWriter.Mode.BATCHED;
+        writer.batchSize = 2;
+        writer.bufferSize = 3;
+        writer.shutdownTimeout = Duration.ofSeconds(5L);
+        writer.notifResources = mock(NotificationResources.class);
+        writer.registry = registry;
+        writer.init();
+
+        when(writer.notifResources.createNotificationHistories(anyList())).thenAnswer(invocation -> {
+            batches.add(new ArrayList<>(invocation.getArgument(0)));
+            return Uni.createFrom().<Void>emitter(insertEmitters::add);
+        });
+    }
+
+    @Test
+    void testSyncMode() {
+        writer.mode = NotificationHistoryWriter.Mode.SYNC;
+        NotificationHistory history = new NotificationHistory();
+        when(writer.notifResources.createNotificationHistory(history)).thenReturn(Uni.createFrom().item(history));
+
+        assertEquals(history, writer.write(history).await().indefinitely());
+        verify(writer.notifResources, never()).createNotificationHistories(anyList());
+    }
+
+    @Test
+    void testFlushWhenBatchIsFull() {
+        NotificationHistory history1 = write();
+        assertNotNull(history1.getId());
+        assertNotNull(history1.getCreated());
+        assertTrue(batches.isEmpty());
+
+        NotificationHistory history2 = write();
+        assertEquals(List.of(List.of(history1, history2)), batches);
+        insertEmitters.get(0).complete(null);
+
+        assertEquals(1L, registry.summary(FLUSH_SIZE_SUMMARY_NAME).count());
+        assertEquals(0.0, registry.get(BUFFER_DEPTH_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void testScheduledFlush() {
+        NotificationHistory history = write();
+        writer.scheduledFlush();
+        assertEquals(List.of(List.of(history)), batches);
+    }
+
+    @Test
+    void testBackpressureWhenBufferIsFull() {
+        // The first batch is being inserted, the buffer then accepts 3 more histories.
+        write();
+        write();
+        write();
+        write();
+        write();
+        AtomicBoolean accepted = new AtomicBoolean();
+        NotificationHistory blocked = new NotificationHistory();
+        writer.write(blocked).subscribe().with(ignored -> accepted.set(true));
+        assertFalse(accepted.get());
+        assertEquals(4.0, registry.get(BUFFER_DEPTH_GAUGE_NAME).gauge().value());
+
+        // The end of the first insert triggers another flush, which frees some space for the blocked write.
+        insertEmitters.get(0).complete(null);
+        assertTrue(accepted.get());
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    void testFailedFlushDoesNotStopTheWriter() {
+        write();
+        write();
+        insertEmitters.get(0).fail(new RuntimeException("Insert failed"));
+        assertEquals(1.0, registry.counter(FLUSH_FAILED_COUNTER_NAME).count());
+
+        write();
+        write();
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    void testDrain() {
+        doAnswer(invocation -> {
+            batches.add(new ArrayList<>(invocation.getArgument(0)));
+            return Uni.createFrom().voidItem();
+        }).when(writer.notifResources).createNotificationHistories(anyList());
+        writer.batchSize = 3;
+        write();
+        write();
+        writer.drain();
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(0.0, registry.get(BUFFER_DEPTH_GAUGE_NAME).gauge().value());
+        verify(writer.notifResources, never()).createNotificationHistory(any(NotificationHistory.class));
+    }
+
+    private NotificationHistory write() {
+        NotificationHistory history = new NotificationHistory();
+        writer.write(history).await().atMost(Duration.ofSeconds(1L));
+        return history;
+    }
+}
@@ -0,0 +1,120 @@
+package com.redhat.cloud.notifications.events;
+
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.EndpointType;
+import com.redhat.cloud.notifications.models.HttpType;
+import com.redhat.cloud.notifications.models.RoutingKey;
+import com.redhat.cloud.notifications.models.WebhookProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class RoutingCacheTest {
+
+    private static final RoutingKey KEY = new RoutingKey("account", "rhel", "policies", "policy-triggered");
+    private static final RoutingKey OTHER_ACCOUNT_KEY = new RoutingKey("other-account", "rhel", "policies", "policy-triggered");
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RoutingCache routingCache = new RoutingCache();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Endpoint endpoint = new Endpoint();
+
+    @BeforeEach
+    void init() {
+        WebhookProperties properties = new WebhookProperties();
+        properties.setUrl("https://localhost");
+        properties.setMethod(HttpType.POST);
+        properties.setBatchSize(10);
+        endpoint.setId(UUID.randomUUID());
+        endpoint.setAccountId("account");
+        endpoint.setType(EndpointType.WEBHOOK);
+        endpoint.setEnabled(true);
+        endpoint.setProperties(properties);
+
+        routingCache.enabled = true;
+        routingCache.maxSize = 100;
+        routingCache.ttl = Duration.ofMinutes(1);
+        routingCache.registry = registry;
+        routingCache.init();
+    }
+
+    @Test
+    void testHitAndMiss() {
+        assertSame(endpoint, get(KEY).get(0));
+        Endpoint cached = get(KEY).get(0);
+        assertEquals(endpoint.getId(), cached.getId());
+        assertEquals("https://localhost", cached.getProperties(WebhookProperties.class).getUrl());
+        assertEquals(1, loads.get());
+        assertEquals(1, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void testHitsDontShareTheEndpoints() {
+        get(KEY);
+        Endpoint first = get(KEY).get(0);
+        Endpoint second = get(KEY).get(0);
+        assertNotSame(first, second);
+        assertNotSame(first.getProperties(), second.getProperties());
+
+        // Neither the loaded entity nor a returned endpoint can change what the next events of the route get.
+        endpoint.getProperties(WebhookProperties.class).setUrl("https://changed");
+        first.getProperties(WebhookProperties.class).setBatchSize(1);
+        WebhookProperties properties = get(KEY).get(0).getProperties(WebhookProperties.class);
+        assertEquals("https://localhost", properties.getUrl());
+        assertEquals(10, properties.getBatchSize());
+        assertEquals(EndpointType.WEBHOOK, get(KEY).get(0).getType());
+    }
+
+    @Test
+    void testAccountInvalidation() {
+        get(KEY);
+        get(OTHER_ACCOUNT_KEY);
+        routingCache.invalidate("account");
+        get(KEY);
+        get(OTHER_ACCOUNT_KEY);
+        // Only the invalidated account had to be loaded again.
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void testInvalidationDuringLoad() {
+        AtomicReference<UniEmitter<? super List<Endpoint>>> emitter = new AtomicReference<>();
+        routingCache.get(KEY, () -> Uni.createFrom().<List<Endpoint>>emitter(emitter::set)).subscribe().with(ignored -> { });
+        routingCache.invalidate("account");
+        emitter.get().complete(List.of(endpoint));
+
+        // The result loaded before the invalidation must not be cached.
+        get(KEY);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testDisabled() {
+        routingCache.enabled = false;
+        get(KEY);
+        get(KEY);
+        assertEquals(2, loads.get());
+    }
+
+    private List<Endpoint> get(RoutingKey key) {
+        Supplier<Uni<List<Endpoint>>> loader = () -> {
+            loads.incrementAndGet();
+            return Uni.createFrom().item(List.of(endpoint));
+        };
+        return routingCache.get(key, loader).await().indefinitely();
+    }
+}
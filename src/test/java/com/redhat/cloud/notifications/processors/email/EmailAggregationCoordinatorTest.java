@@ -0,0 +1,254 @@
+package com.redhat.cloud.notifications.processors.email;
+
+import com.redhat.cloud.notifications.db.EmailAggregationShardResources;
+import com.redhat.cloud.notifications.models.EmailAggregationKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmailAggregationCoordinatorTest {
+
+    private static final LocalDateTime RUN = LocalDateTime.of(2021, 6, 1, 2, 0);
+
+    private final FakeShardResources shardResources = new FakeShardResources();
+
+    @Test
+    void testKeysAreSplitBetweenReplicas() {
+        List<EmailAggregationKey> keys = keys(100);
+        EmailAggregationCoordinator first = coordinator();
+        EmailAggregationCoordinator second = coordinator();
+        List<EmailAggregationKey> processed = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger firstShards = new AtomicInteger();
+        List<CompletableFuture<List<EmailAggregationKey>>> secondRun = new ArrayList<>();
+
+        /*
+         * The second replica starts while the first one processes its first shard. It claims all the other shards, then
+         * waits for the shard of the first replica to be done.
+         */
+        List<EmailAggregationKey> firstResults = first.run(RUN, keys, (shardKeys, owned) -> {
+            processed.addAll(shardKeys);
+            if (firstShards.incrementAndGet() == 1) {
+                secondRun.add(second.run(RUN, keys, (otherKeys, otherOwned) -> {
+                    processed.addAll(otherKeys);
+                    return Uni.createFrom().item(otherKeys);
+                }).subscribe().asCompletionStage());
+            }
+            return Uni.createFrom().item(shardKeys);
+        }).await().indefinitely();
+        List<EmailAggregationKey> secondResults = secondRun.get(0).join();
+
+        assertEquals(1, firstShards.get());
+        assertEquals(100, processed.size());
+        assertEquals(new HashSet<>(keys), new HashSet<>(processed));
+        // The shards are claimed in order, the first replica only processed the keys of the first one.
+        assertEquals(keys.stream().filter(key -> first.getShard(key) == 0).collect(Collectors.toSet()), new HashSet<>(firstResults));
+        assertEquals(100, firstResults.size() + secondResults.size());
+        assertTrue(shardResources.pending.isEmpty());
+    }
+
+    @Test
+    void testCrashedReplicaShardIsTakenOver() {
+        List<EmailAggregationKey> keys = keys(20);
+        EmailAggregationCoordinator coordinator = coordinator();
+        shardResources.createShards(RUN, coordinator.shards).await().indefinitely();
+        // A replica claimed shard 0 and crashed, its lease expires right away in this test.
+        shardResources.claimShard(RUN, "crashed", RUN, RUN.minusSeconds(1L)).await().indefinitely();
+
+        List<EmailAggregationKey> processed = coordinator.run(RUN, keys, (shardKeys, owned) -> Uni.createFrom().item(shardKeys)).await().indefinitely();
+        assertEquals(new HashSet<>(keys), new HashSet<>(processed));
+        assertTrue(shardResources.pending.isEmpty());
+    }
+
+    @Test
+    void testLeaseIsRenewedWhileShardIsProcessed() {
+        List<EmailAggregationKey> keys = keys(100);
+        EmailAggregationCoordinator first = coordinator();
+        EmailAggregationCoordinator second = coordinator();
+        first.shardLease = Duration.ofMillis(300L);
+        second.shardLease = Duration.ofMillis(300L);
+        List<EmailAggregationKey> processed = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean ownedWhenDone = new AtomicBoolean();
+        List<CompletableFuture<List<EmailAggregationKey>>> secondRun = new ArrayList<>();
+
+        // The first shard takes more than three times its lease, the second replica must not take it over meanwhile.
+        List<EmailAggregationKey> firstResults = first.run(RUN, keys, (shardKeys, owned) -> {
+            processed.addAll(shardKeys);
+            if (secondRun.isEmpty()) {
+                secondRun.add(second.run(RUN, keys, (otherKeys, otherOwned) -> {
+                    processed.addAll(otherKeys);
+                    return Uni.createFrom().item(otherKeys);
+                }).subscribe().asCompletionStage());
+            }
+            return Uni.createFrom().item(shardKeys)
+                    .onItem().delayIt().by(Duration.ofSeconds(1L))
+                    .invoke(() -> ownedWhenDone.set(owned.getAsBoolean()));
+        }).await().atMost(Duration.ofSeconds(10L));
+        List<EmailAggregationKey> secondResults = secondRun.get(0).join();
+
+        assertTrue(ownedWhenDone.get());
+        // Each key was processed once.
+        assertEquals(100, processed.size());
+        assertEquals(new HashSet<>(keys), new HashSet<>(processed));
+        assertEquals(keys.stream().filter(key -> first.getShard(key) == 0).collect(Collectors.toSet()), new HashSet<>(firstResults));
+        assertEquals(100, firstResults.size() + secondResults.size());
+        // The first shard was completed by the first replica, the others by the second one.
+        assertNotEquals(shardResources.completedBy.get(0), shardResources.completedBy.get(1));
+        assertTrue(shardResources.pending.isEmpty());
+    }
+
+    @Test
+    void testLostShardIsLeftToItsNewOwner() {
+        List<EmailAggregationKey> keys = keys(100);
+        EmailAggregationCoordinator coordinator = coordinator();
+        coordinator.shardLease = Duration.ofMillis(300L);
+        AtomicBoolean stolen = new AtomicBoolean();
+        AtomicBoolean ownedAtStart = new AtomicBoolean();
+        AtomicBoolean ownedAfterLoss = new AtomicBoolean(true);
+
+        coordinator.run(RUN, keys, (shardKeys, owned) -> {
+            if (stolen.compareAndSet(false, true)) {
+                ownedAtStart.set(owned.getAsBoolean());
+                // Another replica claimed the shard, the next renewal finds it out.
+                int shard = coordinator.getShard(shardKeys.get(0));
+                shardResources.steal(shard, "other");
+                return Uni.createFrom().item(shardKeys)
+                        .onItem().delayIt().by(Duration.ofMillis(250L))
+                        .invoke(() -> ownedAfterLoss.set(owned.getAsBoolean()))
+                        .call(() -> shardResources.completeShard(RUN, shard, "other"));
+            }
+            return Uni.createFrom().item(shardKeys);
+        }).await().atMost(Duration.ofSeconds(10L));
+
+        assertTrue(ownedAtStart.get());
+        assertFalse(ownedAfterLoss.get());
+        // The shard was completed by its new owner only.
+        assertTrue(shardResources.completedBy.containsValue("other"));
+        assertEquals(coordinator.shards - 1, shardResources.completedBy.values().stream().filter(owner -> !owner.equals("other")).count());
+        assertTrue(shardResources.pending.isEmpty());
+    }
+
+    @Test
+    void testShardIsStable() {
+        EmailAggregationCoordinator coordinator = coordinator();
+        EmailAggregationKey key = new EmailAggregationKey("tenant", "rhel", "policies");
+        assertEquals(coordinator.getShard(key), coordinator().getShard(new EmailAggregationKey("tenant", "rhel", "policies")));
+    }
+
+    private EmailAggregationCoordinator coordinator() {
+        EmailAggregationCoordinator coordinator = new EmailAggregationCoordinator();
+        coordinator.enabled = true;
+        coordinator.shards = 4;
+        coordinator.shardLease = Duration.ofMinutes(15L);
+        coordinator.pollInterval = Duration.ofMillis(10L);
+        coordinator.retention = Duration.ofDays(7L);
+        coordinator.shardResources = shardResources;
+        coordinator.registry = new SimpleMeterRegistry();
+        coordinator.init();
+        return coordinator;
+    }
+
+    private static List<EmailAggregationKey> keys(int count) {
+        List<EmailAggregationKey> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(new EmailAggregationKey("tenant-" + i, "rhel", "policies"));
+        }
+        return keys;
+    }
+
+    // In-memory shards of a single run, the claim of each pending shard is null if it was never claimed.
+    private static class FakeShardResources extends EmailAggregationShardResources {
+
+        final Map<Integer, Claim> pending = new TreeMap<>();
+        // Owner which completed each shard.
+        final Map<Integer, String> completedBy = new ConcurrentHashMap<>();
+        private boolean created;
+
+        @Override
+        public synchronized Uni<Void> createShards(LocalDateTime run, int shards) {
+            if (!created) {
+                created = true;
+                for (int i = 0; i < shards; i++) {
+                    pending.put(i, null);
+                }
+            }
+            return Uni.createFrom().voidItem();
+        }
+
+        @Override
+        public Uni<Void> purgeShards(LocalDateTime before) {
+            return Uni.createFrom().voidItem();
+        }
+
+        @Override
+        public synchronized Uni<Integer> claimShard(LocalDateTime run, String owner, LocalDateTime now, LocalDateTime leaseEnd) {
+            for (Map.Entry<Integer, Claim> shard : pending.entrySet()) {
+                if (shard.getValue() == null || !shard.getValue().leaseEnd.isAfter(now)) {
+                    shard.setValue(new Claim(owner, leaseEnd));
+                    return Uni.createFrom().item(shard.getKey());
+                }
+            }
+            return Uni.createFrom().nullItem();
+        }
+
+        @Override
+        public synchronized Uni<Boolean> renewShard(LocalDateTime run, int shard, String owner, LocalDateTime leaseEnd) {
+            Claim claim = pending.get(shard);
+            if (claim == null || !claim.owner.equals(owner)) {
+                return Uni.createFrom().item(false);
+            }
+            pending.put(shard, new Claim(owner, leaseEnd));
+            return Uni.createFrom().item(true);
+        }
+
+        @Override
+        public synchronized Uni<Boolean> completeShard(LocalDateTime run, int shard, String owner) {
+            Claim claim = pending.get(shard);
+            if (claim == null || !claim.owner.equals(owner)) {
+                return Uni.createFrom().item(false);
+            }
+            pending.remove(shard);
+            completedBy.put(shard, owner);
+            return Uni.createFrom().item(true);
+        }
+
+        @Override
+        public synchronized Uni<Long> countPendingShards(LocalDateTime run) {
+            return Uni.createFrom().item((long) pending.size());
+        }
+
+        synchronized void steal(int shard, String owner) {
+            pending.put(shard, new Claim(owner, LocalDateTime.now(ZoneOffset.UTC).plusHours(1L)));
+        }
+    }
+
+    private static class Claim {
+
+        final String owner;
+        final LocalDateTime leaseEnd;
+
+        Claim(String owner, LocalDateTime leaseEnd) {
+            this.owner = owner;
+            this.leaseEnd = leaseEnd;
+        }
+    }
+}
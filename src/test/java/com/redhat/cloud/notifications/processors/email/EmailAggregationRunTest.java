@@ -0,0 +1,129 @@
+package com.redhat.cloud.notifications.processors.email;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.db.EmailAggregationResources;
+import com.redhat.cloud.notifications.db.EndpointEmailSubscriptionResources;
+import com.redhat.cloud.notifications.models.EmailAggregationKey;
+import com.redhat.cloud.notifications.models.EmailSubscriptionType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.redhat.cloud.notifications.processors.email.EmailSubscriptionTypeProcessor.AGGREGATION_ETA_GAUGE_NAME;
+import static com.redhat.cloud.notifications.processors.email.EmailSubscriptionTypeProcessor.AGGREGATION_KEYS_DONE_GAUGE_NAME;
+import static com.redhat.cloud.notifications.processors.email.EmailSubscriptionTypeProcessor.AGGREGATION_KEYS_REMAINING_GAUGE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/*
+ * Checks how the daily aggregation runs the keys. The database is mocked, the Quarkus container is only needed for the
+ * request context of each key.
+ */
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class EmailAggregationRunTest {
+
+    private static final Instant FIRE_TIME = Instant.parse("2021-06-01T00:00:00Z");
+    private static final EmailAggregationKey FIRST_KEY = new EmailAggregationKey("first", "rhel", "policies");
+    private static final EmailAggregationKey FAILING_KEY = new EmailAggregationKey("failing", "rhel", "policies");
+    private static final EmailAggregationKey LAST_KEY = new EmailAggregationKey("last", "rhel", "policies");
+
+    private EmailSubscriptionTypeProcessor emailProcessor;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void init() {
+        registry = new SimpleMeterRegistry();
+        emailProcessor = new EmailSubscriptionTypeProcessor();
+        emailProcessor.emailAggregationResources = mock(EmailAggregationResources.class);
+        emailProcessor.subscriptionResources = mock(EndpointEmailSubscriptionResources.class);
+        emailProcessor.coordinator = mock(EmailAggregationCoordinator.class);
+        emailProcessor.aggregationConcurrency = 4;
+        emailProcessor.aggregationPageSize = 1000;
+        emailProcessor.registry = registry;
+        emailProcessor.init();
+
+        when(emailProcessor.emailAggregationResources.getApplicationsWithPendingAggregation(any(LocalDateTime.class), any(LocalDateTime.class)))
+                .thenReturn(Uni.createFrom().item(List.of(FIRST_KEY, FAILING_KEY, LAST_KEY)));
+        when(emailProcessor.emailAggregationResources.purgeOldAggregation(any(EmailAggregationKey.class), any(LocalDateTime.class)))
+                .thenReturn(Uni.createFrom().item(0));
+        // Without any subscriber, the aggregations of a key are purged without sending any email.
+        when(emailProcessor.subscriptionResources.getEmailSubscribersCount(anyString(), anyString(), anyString(), any(EmailSubscriptionType.class)))
+                .thenReturn(Uni.createFrom().item(0L));
+        when(emailProcessor.subscriptionResources.getEmailSubscribersCount(eq(FAILING_KEY.getAccountId()), anyString(), anyString(), any(EmailSubscriptionType.class)))
+                .thenReturn(Uni.createFrom().failure(new IllegalStateException("Database failure")));
+    }
+
+    @Test
+    void testFailingKeyDoesNotStopTheOthers() {
+        emailProcessor.runDailyEmail(FIRE_TIME).await().atMost(Duration.ofSeconds(10L));
+
+        verify(emailProcessor.emailAggregationResources).purgeOldAggregation(eq(FIRST_KEY), any(LocalDateTime.class));
+        verify(emailProcessor.emailAggregationResources).purgeOldAggregation(eq(LAST_KEY), any(LocalDateTime.class));
+        verify(emailProcessor.emailAggregationResources, times(0)).purgeOldAggregation(eq(FAILING_KEY), any(LocalDateTime.class));
+
+        // The failed key is counted as done.
+        assertEquals(3.0, gauge(AGGREGATION_KEYS_DONE_GAUGE_NAME));
+        assertEquals(0.0, gauge(AGGREGATION_KEYS_REMAINING_GAUGE_NAME));
+        assertEquals(0.0, gauge(AGGREGATION_ETA_GAUGE_NAME));
+    }
+
+    @Test
+    void testOverlappingRunIsSkipped() throws Exception {
+        CompletableFuture<Long> blocked = new CompletableFuture<>();
+        when(emailProcessor.subscriptionResources.getEmailSubscribersCount(eq(LAST_KEY.getAccountId()), anyString(), anyString(), any(EmailSubscriptionType.class)))
+                .thenReturn(Uni.createFrom().completionStage(blocked));
+
+        CompletableFuture<?> firstRun = emailProcessor.runDailyEmail(FIRE_TIME).subscribe().asCompletionStage();
+        waitForDoneKeys(2.0);
+        assertFalse(firstRun.isDone());
+
+        // The progress of the running aggregation is reported while the last key is blocked.
+        assertEquals(1.0, gauge(AGGREGATION_KEYS_REMAINING_GAUGE_NAME));
+        double eta = gauge(AGGREGATION_ETA_GAUGE_NAME);
+        assertTrue(eta >= 0.0 && !Double.isNaN(eta));
+
+        // The run triggered while the first one is still going doesn't do anything.
+        assertTrue(emailProcessor.runDailyEmail(FIRE_TIME).await().atMost(Duration.ofSeconds(10L)).isEmpty());
+        verify(emailProcessor.emailAggregationResources, times(1)).getApplicationsWithPendingAggregation(any(LocalDateTime.class), any(LocalDateTime.class));
+
+        blocked.complete(0L);
+        firstRun.get(10L, TimeUnit.SECONDS);
+        assertEquals(3.0, gauge(AGGREGATION_KEYS_DONE_GAUGE_NAME));
+        assertEquals(0.0, gauge(AGGREGATION_KEYS_REMAINING_GAUGE_NAME));
+
+        // Once the first run is over, the next one runs again.
+        emailProcessor.runDailyEmail(FIRE_TIME).await().atMost(Duration.ofSeconds(10L));
+        verify(emailProcessor.emailAggregationResources, times(2)).getApplicationsWithPendingAggregation(any(LocalDateTime.class), any(LocalDateTime.class));
+    }
+
+    private void waitForDoneKeys(double expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (gauge(AGGREGATION_KEYS_DONE_GAUGE_NAME) < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(expected, gauge(AGGREGATION_KEYS_DONE_GAUGE_NAME));
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).gauge().value();
+    }
+}
@@ -22,6 +22,7 @@ import com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor;
 import com.redhat.cloud.notifications.templates.EmailTemplateFactory;
 import com.redhat.cloud.notifications.templates.LocalDateTimeExtension;
 import com.redhat.cloud.notifications.transformers.BaseTransformer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.quarkus.scheduler.ScheduledExecution;
 import io.quarkus.scheduler.Trigger;
 import io.quarkus.test.common.QuarkusTestResource;
@@ -39,8 +40,11 @@ import org.mockserver.model.HttpRequest;
 import javax.inject.Inject;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -83,6 +87,9 @@ public class EmailTest extends DbIsolatedTest {
     @Inject
     EndpointEmailSubscriptionResources subscriptionResources;
 
+    @Inject
+    EmailAggregationCoordinator coordinator;
+
     @BeforeAll
     void init() {
         emailProcessor = new EmailSubscriptionTypeProcessor();
@@ -96,6 +103,11 @@ public class EmailTest extends DbIsolatedTest {
         emailProcessor.bopEnv = "unitTest";
         emailProcessor.noReplyAddress = "no-reply@redhat.com";
         emailProcessor.baseTransformer = new BaseTransformer();
+        emailProcessor.aggregationConcurrency = 4;
+        emailProcessor.aggregationPageSize = 1000;
+        emailProcessor.coordinator = coordinator;
+        emailProcessor.registry = new SimpleMeterRegistry();
+        emailProcessor.init();
 
         String url = String.format("http://%s/v1/sendEmails", mockServerConfig.getRunningAddress());
         emailProcessor.bopUrl = url;
@@ -273,6 +285,25 @@ public class EmailTest extends DbIsolatedTest {
         assertEquals(0, bodyRequests.size());
     }
 
+    @Test
+    void testAggregationPeriodEnd() {
+        EmailSubscriptionTypeProcessor processor = new EmailSubscriptionTypeProcessor();
+        processor.aggregationConcurrency = 4;
+        processor.aggregationPageSize = 1000;
+        processor.incrementalAggregation = true;
+        processor.dailyCron = "0 0 2 * * ?";
+        processor.registry = new SimpleMeterRegistry();
+        processor.init();
+
+        // The cron expression is evaluated in the default time zone, like the scheduler does.
+        ZonedDateTime today = LocalDate.now().atStartOfDay(ZoneId.systemDefault());
+        LocalDateTime todayEnd = LocalDateTime.ofInstant(today.plusHours(2L).toInstant(), ZoneOffset.UTC);
+        LocalDateTime tomorrowEnd = LocalDateTime.ofInstant(today.plusDays(1L).plusHours(2L).toInstant(), ZoneOffset.UTC);
+        assertEquals(todayEnd, processor.getAggregationPeriodEnd(today.plusHours(1L).toInstant()));
+        assertEquals(tomorrowEnd, processor.getAggregationPeriodEnd(today.plusHours(2L).toInstant()));
+        assertEquals(tomorrowEnd, processor.getAggregationPeriodEnd(today.plusHours(10L).toInstant()));
+    }
+
     @Test
     void testEmailSubscriptionDaily() {
         final String tenant1 = "tenant1";
@@ -337,7 +368,7 @@ public class EmailTest extends DbIsolatedTest {
             helpers.addEmailAggregation(tenant1, bundle, application, "policyid-01", "hostid-04");
             helpers.addEmailAggregation(tenant1, bundle, application, "policyid-01", "hostid-05");
             helpers.addEmailAggregation(tenant1, bundle, application, "policyid-01", "hostid-06");
-            emailProcessor.processDailyEmail(nowPlus5Hours);
+            emailProcessor.runDailyEmail(nowPlus5Hours.getScheduledFireTime()).await().indefinitely();
             // Only 1 email, as no aggregation for tenant2
             assertEquals(1, bodyRequests.size());
             JsonObject email = emailRequestIsOK(bodyRequests.get(0), tenant1Usernames);
@@ -361,7 +392,7 @@ public class EmailTest extends DbIsolatedTest {
             helpers.addEmailAggregation(tenant1, bundle, "unknown-application", "policyid-01", "hostid-06");
             helpers.addEmailAggregation(tenant1, "unknown-bundle", application, "policyid-01", "hostid-06");
             helpers.addEmailAggregation(tenant1, "unknown-bundle", "unknown-application", "policyid-01", "hostid-06");
-            emailProcessor.processDailyEmail(nowPlus5Hours);
+            emailProcessor.runDailyEmail(nowPlus5Hours.getScheduledFireTime()).await().indefinitely();
             // Only 1 email, as no aggregation for tenant2
             assertEquals(1, bodyRequests.size());
             email = emailRequestIsOK(bodyRequests.get(0), tenant1Usernames);
@@ -375,7 +406,7 @@ public class EmailTest extends DbIsolatedTest {
 
             bodyRequests.clear();
 
-            emailProcessor.processDailyEmail(nowPlus5Hours);
+            emailProcessor.runDailyEmail(nowPlus5Hours.getScheduledFireTime()).await().indefinitely();
             // 0 emails; previous aggregations were deleted in this step
             assertEquals(0, bodyRequests.size());
 
@@ -394,7 +425,7 @@ public class EmailTest extends DbIsolatedTest {
             helpers.addEmailAggregation(noSubscribedUsersTenant, bundle, application, "policyid-21", "hostid-25");
             helpers.addEmailAggregation(noSubscribedUsersTenant, bundle, application, "policyid-21", "hostid-26");
 
-            emailProcessor.processDailyEmail(nowPlus5Hours);
+            emailProcessor.runDailyEmail(nowPlus5Hours.getScheduledFireTime()).await().indefinitely();
             // 2 email, as no user is subscribed for noSubscribedUsersTenant
             assertEquals(2, bodyRequests.size());
 
@@ -427,7 +458,7 @@ public class EmailTest extends DbIsolatedTest {
             bodyRequests.clear();
 
             helpers.createSubscription(noSubscribedUsersTenant, noSubscribedUsersTenantTestUser[0], bundle, application, EmailSubscriptionType.DAILY);
-            emailProcessor.processDailyEmail(nowPlus5Hours);
+            emailProcessor.runDailyEmail(nowPlus5Hours.getScheduledFireTime()).await().indefinitely();
             // 0 emails; previous aggregations were deleted in this step, even if no one was subscribed by that time
             assertEquals(0, bodyRequests.size());
             helpers.removeSubscription(noSubscribedUsersTenant, noSubscribedUsersTenantTestUser[0], bundle, application, EmailSubscriptionType.DAILY);
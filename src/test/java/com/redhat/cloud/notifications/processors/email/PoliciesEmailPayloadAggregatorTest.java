@@ -1,14 +1,21 @@
 package com.redhat.cloud.notifications.processors.email;
 
 import com.redhat.cloud.notifications.TestHelpers;
+import com.redhat.cloud.notifications.models.EmailAggregation;
 import com.redhat.cloud.notifications.processors.email.aggregators.PoliciesEmailPayloadAggregator;
+import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.util.Map;
+import java.util.Set;
 
 public class PoliciesEmailPayloadAggregatorTest {
 
+    private static JsonObject partialState(PoliciesEmailPayloadAggregator aggregator, String policy, String host) {
+        return aggregator.toPartialState(TestHelpers.createEmailAggregation("tenant", "insights", "policies", policy, host).getPayload());
+    }
+
     private Integer getUniqueHostForPolicy(PoliciesEmailPayloadAggregator aggregator, String policy) {
         Map<String, Map> policies = (Map<String, Map>) aggregator.getContext().get("policies");
         return (Integer) policies.get(policy).get("unique_system_count");
@@ -46,6 +53,54 @@ public class PoliciesEmailPayloadAggregatorTest {
         Assertions.assertEquals(2, getUniqueHostForPolicy(aggregator, "policy-03"));
     }
 
+    @Test
+    void projectedAggregatorTests() {
+        PoliciesEmailPayloadAggregator aggregator = new PoliciesEmailPayloadAggregator();
+        EmailAggregation aggregation = TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-01", "host-01");
+        JsonObject payload = aggregation.getPayload();
+        JsonObject projected = aggregator.project(payload);
+
+        Assertions.assertEquals(Set.of("context", "events"), projected.fieldNames());
+        Assertions.assertEquals(Set.of("display_name", "inventory_id", "tags"), projected.getJsonObject("context").fieldNames());
+        Assertions.assertEquals(Set.of("payload"), projected.getJsonArray("events").getJsonObject(0).fieldNames());
+        // The payload is not modified.
+        Assertions.assertTrue(payload.getJsonObject("context").containsKey("system_check_in"));
+
+        PoliciesEmailPayloadAggregator expected = new PoliciesEmailPayloadAggregator();
+        expected.aggregate(aggregation);
+        aggregation.setPayload(projected);
+        aggregator.aggregate(aggregation);
+        Assertions.assertEquals(expected.getContext(), aggregator.getContext());
+    }
+
+    @Test
+    void incrementalAggregatorTests() {
+        PoliciesEmailPayloadAggregator aggregator = new PoliciesEmailPayloadAggregator();
+        // The database merges the partial states like a map.
+        JsonObject state = new JsonObject();
+        state.mergeIn(partialState(aggregator, "policy-01", "host-01"));
+        state.mergeIn(partialState(aggregator, "policy-02", "host-01"));
+        state.mergeIn(partialState(aggregator, "policy-03", "host-02"));
+        state.mergeIn(partialState(aggregator, "policy-03", "host-03"));
+        state.mergeIn(partialState(aggregator, "policy-03", "host-03"));
+        Assertions.assertEquals(4, state.size());
+
+        EmailAggregation aggregation = new EmailAggregation();
+        aggregation.setAccountId("tenant");
+        aggregation.setPreAggregated(true);
+        aggregation.setPayload(state);
+        aggregator.aggregate(aggregation);
+
+        // Same result as the aggregation of the events themselves.
+        Assertions.assertEquals(1, aggregator.getProcessedAggregations());
+        Assertions.assertEquals(3, aggregator.getUniqueHostCount());
+        Assertions.assertEquals(1, getUniqueHostForPolicy(aggregator, "policy-01"));
+        Assertions.assertEquals(1, getUniqueHostForPolicy(aggregator, "policy-02"));
+        Assertions.assertEquals(2, getUniqueHostForPolicy(aggregator, "policy-03"));
+        Map<String, Map> policies = (Map<String, Map>) aggregator.getContext().get("policies");
+        Assertions.assertEquals("not-tested-name", policies.get("policy-03").get("policy_name"));
+    }
+
     @Test
     void emailWithDifferentTenantThrowsError() {
         PoliciesEmailPayloadAggregator aggregator = new PoliciesEmailPayloadAggregator();
@@ -14,6 +14,9 @@ import com.redhat.cloud.notifications.models.Notification;
 import com.redhat.cloud.notifications.models.NotificationHistory;
 import com.redhat.cloud.notifications.models.WebhookProperties;
 import com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor;
+import com.redhat.cloud.notifications.transformers.ActionPayload;
+import com.redhat.cloud.notifications.transformers.BaseTransformer;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.test.common.QuarkusTestResource;
 import io.quarkus.test.junit.QuarkusTest;
 import io.smallrye.mutiny.Uni;
@@ -29,8 +32,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor.COMPRESSED_BYTES_COUNTER_NAME;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor.DELIVERY_TIMER_NAME;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor.OTHER_HOSTS;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor.RAW_BYTES_COUNTER_NAME;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockserver.model.HttpResponse.response;
@@ -45,6 +54,12 @@ public class WebhookTest extends DbIsolatedTest {
     @Inject
     WebhookTypeProcessor webhookTypeProcessor;
 
+    @Inject
+    BaseTransformer transformer;
+
+    @Inject
+    MeterRegistry registry;
+
     private HttpRequest getMockHttpRequest(ExpectationResponseCallback verifyEmptyRequest) {
         HttpRequest postReq = new HttpRequest()
                 .withPath("/foobar")
@@ -150,4 +165,90 @@ public class WebhookTest extends DbIsolatedTest {
 
     }
 
+    @Test
+    void testWebhookGzip() {
+        String url = String.format("http://%s/foobar", mockServerConfig.getRunningAddress());
+        HttpRequest postReq = getMockHttpRequest(req -> response().withStatusCode(200));
+
+        Endpoint ep = buildEndpoint(url);
+        ep.getProperties(WebhookProperties.class).setGzip(true);
+        Action action = buildAction("testWebhookGzip");
+        action.setContext(Map.of("padding", "abc".repeat(1000)));
+        ActionPayload payload = transformer.prepare(action);
+
+        double rawBytes = registry.counter(RAW_BYTES_COUNTER_NAME).count();
+        double compressedBytes = registry.counter(COMPRESSED_BYTES_COUNTER_NAME).count();
+        try {
+            NotificationHistory history = webhookTypeProcessor.process(new Notification(action, ep, payload)).await().indefinitely();
+            assertTrue(history.isInvocationResult());
+        } finally {
+            mockServerConfig.getMockServerClient().clear(postReq);
+        }
+
+        assertEquals(payload.getBuffer().length(), registry.counter(RAW_BYTES_COUNTER_NAME).count() - rawBytes);
+        assertEquals(payload.getGzipBuffer().length(), registry.counter(COMPRESSED_BYTES_COUNTER_NAME).count() - compressedBytes);
+        assertTrue(payload.getGzipBuffer().length() < payload.getBuffer().length());
+    }
+
+    @Test
+    void testWebhookHugeErrorBody() {
+        String url = String.format("http://%s/foobar", mockServerConfig.getRunningAddress());
+        String hugeBody = "x".repeat(5 * 1024 * 1024);
+        HttpRequest postReq = getMockHttpRequest(req -> response().withStatusCode(500).withBody(hugeBody));
+
+        try {
+            NotificationHistory history = webhookTypeProcessor.process(new Notification(buildAction("testWebhookHugeErrorBody"), buildEndpoint(url))).await().indefinitely();
+            assertFalse(history.isInvocationResult());
+            assertEquals(500, history.getDetails().get("code"));
+            assertEquals(16384, ((String) history.getDetails().get("response_body")).length());
+            assertEquals(true, history.getDetails().get("response_body_truncated"));
+            assertEquals(5L * 1024 * 1024, ((Number) history.getDetails().get("content_length")).longValue());
+            assertTrue(registry.get(DELIVERY_TIMER_NAME).tag("outcome", "5xx").tag("endpoint_type", "WEBHOOK").timer().count() > 0);
+        } finally {
+            mockServerConfig.getMockServerClient().clear(postReq);
+        }
+    }
+
+    @Test
+    void testWebhookRequestTimeout() {
+        String url = String.format("http://%s/foobar", mockServerConfig.getRunningAddress());
+        HttpRequest postReq = getMockHttpRequest(req -> response().withStatusCode(200).withDelay(TimeUnit.SECONDS, 2L));
+
+        Endpoint ep = buildEndpoint(url);
+        ep.getProperties(WebhookProperties.class).setRequestTimeout(200);
+
+        try {
+            NotificationHistory history = webhookTypeProcessor.process(new Notification(buildAction("testWebhookRequestTimeout"), ep)).await().indefinitely();
+            assertFalse(history.isInvocationResult());
+            assertEquals("request", history.getDetails().get("timeout"));
+            assertTrue(registry.get(DELIVERY_TIMER_NAME).tag("outcome", "timeout").tag("host", OTHER_HOSTS).timer().count() > 0);
+            assertTrue(history.getInvocationTime() < 2000L);
+        } finally {
+            mockServerConfig.getMockServerClient().clear(postReq);
+        }
+    }
+
+    private static Action buildAction(String eventType) {
+        Action action = new Action();
+        action.setBundle("mybundle");
+        action.setApplication("WebhookTest");
+        action.setTimestamp(LocalDateTime.now());
+        action.setEventType(eventType);
+        action.setAccountId("tenant");
+        action.setEvents(List.of());
+        action.setContext(new HashMap<>());
+        return action;
+    }
+
+    private static Endpoint buildEndpoint(String url) {
+        WebhookProperties properties = new WebhookProperties();
+        properties.setMethod(HttpType.POST);
+        properties.setUrl(url);
+
+        Endpoint ep = new Endpoint();
+        ep.setType(EndpointType.WEBHOOK);
+        ep.setEnabled(true);
+        ep.setProperties(properties);
+        return ep;
+    }
 }
@@ -0,0 +1,65 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import com.redhat.cloud.notifications.processors.webhooks.CappedBodyCodec.CappedBody;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.ext.web.codec.spi.BodyStream;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CappedBodyCodecTest {
+
+    @Test
+    void testBodyIsCapped() {
+        BodyStream<CappedBody> stream = createStream(10);
+        stream.write(Buffer.buffer("Bad "));
+        stream.write(Buffer.buffer("request"));
+        stream.end();
+
+        CappedBody body = stream.result().result();
+        assertEquals("Bad reques", body.toString());
+        assertTrue(body.isTruncated());
+        assertEquals(11L, body.getLength());
+
+        stream = createStream(100);
+        stream.end(Buffer.buffer("Not found"));
+        body = stream.result().result();
+        assertEquals("Not found", body.toString());
+        assertFalse(body.isTruncated());
+        assertEquals(9L, body.getLength());
+    }
+
+    @Test
+    void testHugeBodyIsCounted() {
+        BodyStream<CappedBody> stream = createStream(1024);
+        Buffer chunk = Buffer.buffer(new byte[64 * 1024]);
+        for (int i = 0; i < 1024; i++) {
+            stream.write(chunk);
+        }
+        stream.end();
+
+        CappedBody body = stream.result().result();
+        assertEquals(1024, body.toString().length());
+        assertTrue(body.isTruncated());
+        assertEquals(64L * 1024 * 1024, body.getLength());
+    }
+
+    @Test
+    void testFailure() {
+        BodyStream<CappedBody> stream = createStream(10);
+        stream.write(Buffer.buffer("partial"));
+        stream.handle(new IllegalStateException("Connection reset"));
+        assertTrue(stream.result().failed());
+    }
+
+    private static BodyStream<CappedBody> createStream(int maxSize) {
+        AtomicReference<AsyncResult<BodyStream<CappedBody>>> result = new AtomicReference<>();
+        new CappedBodyCodec(maxSize).create(result::set);
+        return result.get().result();
+    }
+}
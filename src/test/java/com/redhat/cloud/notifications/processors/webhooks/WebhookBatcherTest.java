@@ -0,0 +1,196 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import com.redhat.cloud.notifications.events.NotificationHistoryWriter;
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.Notification;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.models.WebhookProperties;
+import com.redhat.cloud.notifications.transformers.ActionPayload;
+import com.redhat.cloud.notifications.transformers.BaseTransformer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonArray;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import org.eclipse.microprofile.reactive.messaging.Acknowledgment.Strategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookBatcher.BATCH_SIZE_SUMMARY_NAME;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookBatcher.EVENTS_DETAIL;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookBatcher.PENDING_GAUGE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WebhookBatcherTest {
+
+    private final WebhookBatcher batcher = new WebhookBatcher();
+    private final BaseTransformer transformer = new BaseTransformer();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // Bodies of the batches which were sent, in the order they were sent.
+    private final List<Buffer> sent = Collections.synchronizedList(new ArrayList<>());
+    private final LinkedBlockingQueue<NotificationHistory> histories = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void init() {
+        batcher.maxWait = Duration.ofHours(1L);
+        batcher.maxPending = 100;
+        batcher.shutdownTimeout = Duration.ofSeconds(5L);
+        batcher.vertx = Vertx.vertx();
+        batcher.webhooks = mock(WebhookTypeProcessor.class);
+        batcher.retryQueue = mock(WebhookRetryQueue.class);
+        batcher.circuitBreaker = mock(WebhookCircuitBreaker.class);
+        batcher.historyWriter = mock(NotificationHistoryWriter.class);
+        batcher.acknowledgment = Strategy.PRE_PROCESSING;
+        batcher.registry = registry;
+        batcher.init();
+
+        when(batcher.webhooks.deliver(any(Notification.class), any(ActionPayload.class))).thenAnswer(invocation -> {
+            Notification item = invocation.getArgument(0);
+            ActionPayload payload = invocation.getArgument(1);
+            sent.add(payload.getBuffer());
+            NotificationHistory history = new NotificationHistory();
+            history.setEndpoint(item.getEndpoint());
+            history.setAccountId(item.getTenant());
+            history.setInvocationResult(true);
+            return Uni.createFrom().item(history);
+        });
+        when(batcher.retryQueue.schedule(any(Notification.class), any(NotificationHistory.class), any(Buffer.class))).thenReturn(Uni.createFrom().voidItem());
+        when(batcher.historyWriter.write(any(NotificationHistory.class))).thenAnswer(invocation -> {
+            NotificationHistory written = invocation.getArgument(0);
+            histories.add(written);
+            return Uni.createFrom().item(written);
+        });
+    }
+
+    @AfterEach
+    void close() {
+        batcher.vertx.closeAndAwait();
+    }
+
+    @Test
+    void testIsBatched() {
+        assertFalse(batcher.isBatched(endpoint(null, null)));
+        assertFalse(batcher.isBatched(endpoint(1, null)));
+        assertTrue(batcher.isBatched(endpoint(2, null)));
+    }
+
+    @Test
+    void testNotBatchedWhenAckedAfterProcessing() {
+        // The batched events would be acked before they are sent.
+        batcher.acknowledgment = Strategy.POST_PROCESSING;
+        assertFalse(batcher.isBatched(endpoint(2, null)));
+    }
+
+    @Test
+    void testFullBatchIsSent() throws InterruptedException {
+        Endpoint endpoint = endpoint(3, null);
+        add(endpoint, "first");
+        add(endpoint, "second");
+        assertTrue(sent.isEmpty());
+        add(endpoint, "third");
+
+        NotificationHistory history = histories.poll(5L, TimeUnit.SECONDS);
+        assertNotNull(history);
+        assertEquals(1, sent.size());
+        JsonArray body = new JsonArray(sent.get(0).getDelegate());
+        assertEquals(3, body.size());
+        assertEquals("first", body.getJsonObject(0).getString("event_type"));
+        assertEquals("third", body.getJsonObject(2).getString("event_type"));
+
+        List<Map<String, Object>> events = (List<Map<String, Object>>) history.getDetails().get(EVENTS_DETAIL);
+        assertEquals(3, events.size());
+        assertEquals("second", events.get(1).get("event_type"));
+        assertEquals(3.0, registry.get(BATCH_SIZE_SUMMARY_NAME).summary().max());
+
+        // The next event starts a new batch.
+        add(endpoint, "fourth");
+        assertEquals(1, sent.size());
+        // The circuit state of the endpoint is persisted once the history is written.
+        verify(batcher.circuitBreaker, timeout(5000L)).hasStateToPersist(endpoint.getId());
+    }
+
+    @Test
+    void testBatchIsSentWhenTooManyEventsArePending() throws InterruptedException {
+        batcher.maxPending = 3;
+        Endpoint endpoint = endpoint(100, null);
+        Endpoint other = endpoint(100, null);
+        add(endpoint, "first");
+        add(endpoint, "second");
+        add(other, "other");
+        assertTrue(sent.isEmpty());
+
+        // The fourth pending event exceeds the limit, the batch which received it is sent.
+        add(other, "another");
+        assertNotNull(histories.poll(5L, TimeUnit.SECONDS));
+        assertEquals(1, sent.size());
+        JsonArray body = new JsonArray(sent.get(0).getDelegate());
+        assertEquals(2, body.size());
+        assertEquals("other", body.getJsonObject(0).getString("event_type"));
+        assertEquals(2.0, registry.get(PENDING_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void testBatchIsSentAfterMaxWait() throws InterruptedException {
+        Endpoint endpoint = endpoint(100, 50);
+        Endpoint other = endpoint(100, 50);
+        add(endpoint, "first");
+        add(other, "other");
+        add(endpoint, "second");
+
+        assertNotNull(histories.poll(5L, TimeUnit.SECONDS));
+        assertNotNull(histories.poll(5L, TimeUnit.SECONDS));
+        assertNull(histories.poll(100L, TimeUnit.MILLISECONDS));
+        assertEquals(2, sent.size());
+        assertEquals(3, sent.stream().mapToInt(buffer -> new JsonArray(buffer.getDelegate()).size()).sum());
+    }
+
+    @Test
+    void testPendingBatchesAreSentOnShutdown() {
+        Endpoint endpoint = endpoint(100, null);
+        add(endpoint, "first");
+        add(endpoint, "second");
+        assertTrue(sent.isEmpty());
+
+        batcher.onShutdown(null);
+        assertEquals(1, sent.size());
+        assertEquals(1, histories.size());
+    }
+
+    private void add(Endpoint endpoint, String eventType) {
+        Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        action.setEventType(eventType);
+        batcher.add(new Notification(action, endpoint), transformer.prepare(action));
+    }
+
+    private static Endpoint endpoint(Integer batchSize, Integer batchMaxWait) {
+        WebhookProperties properties = new WebhookProperties();
+        properties.setBatchSize(batchSize);
+        properties.setBatchMaxWait(batchMaxWait);
+        Endpoint endpoint = new Endpoint();
+        endpoint.setId(UUID.randomUUID());
+        endpoint.setAccountId("tenant");
+        endpoint.setProperties(properties);
+        return endpoint;
+    }
+}
@@ -0,0 +1,177 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookBulkhead.HOST_TAG;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookBulkhead.IN_FLIGHT_GAUGE_NAME;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookBulkhead.QUEUED_GAUGE_NAME;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookBulkhead.REJECTED_COUNTER_NAME;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor.OTHER_HOSTS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WebhookBulkheadTest {
+
+    private static final String SLOW_HOST = "slow.example.com";
+    private static final String OTHER_HOST = "other.example.com";
+
+    private final WebhookBulkhead bulkhead = new WebhookBulkhead();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // Emitters of the requests which were actually sent, they complete the requests when the test decides to.
+    private final List<UniEmitter<? super String>> sent = new ArrayList<>();
+
+    @BeforeEach
+    void init() {
+        bulkhead.enabled = true;
+        bulkhead.maxConcurrency = 2;
+        bulkhead.maxWaitQueue = 1;
+        bulkhead.metricsHosts = Optional.of(List.of(SLOW_HOST, OTHER_HOST));
+        bulkhead.registry = registry;
+        bulkhead.init();
+    }
+
+    @Test
+    void testDisabled() {
+        bulkhead.enabled = false;
+        for (int i = 0; i < 5; i++) {
+            execute(SLOW_HOST);
+        }
+        assertEquals(5, sent.size());
+        assertTrue(registry.find(IN_FLIGHT_GAUGE_NAME).gauges().isEmpty());
+    }
+
+    @Test
+    void testOverflowIsDeferredThenRejected() {
+        execute(SLOW_HOST);
+        execute(SLOW_HOST);
+        AtomicReference<String> deferred = execute(SLOW_HOST);
+        AtomicReference<Throwable> rejection = new AtomicReference<>();
+        bulkhead.execute(SLOW_HOST, this::send).subscribe().with(ignored -> { }, rejection::set);
+
+        assertEquals(2, sent.size());
+        assertEquals(2.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+        assertEquals(1.0, gauge(QUEUED_GAUGE_NAME, SLOW_HOST));
+        assertTrue(rejection.get() instanceof RejectedExecutionException);
+        assertEquals(1.0, registry.counter(REJECTED_COUNTER_NAME, Tags.of(HOST_TAG, SLOW_HOST)).count());
+
+        // The end of a running request, even a failed one, sends the deferred request.
+        sent.get(0).fail(new RuntimeException("Timeout"));
+        assertEquals(3, sent.size());
+        assertEquals(2.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+        assertEquals(0.0, gauge(QUEUED_GAUGE_NAME, SLOW_HOST));
+
+        sent.get(2).complete("ok");
+        assertEquals("ok", deferred.get());
+        sent.get(1).complete("ok");
+        assertEquals(0.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+    }
+
+    @Test
+    void testHostsAreIsolated() {
+        execute(SLOW_HOST);
+        execute(SLOW_HOST);
+        execute(SLOW_HOST);
+        AtomicReference<String> other = execute(OTHER_HOST);
+
+        assertEquals(3, sent.size());
+        sent.get(2).complete("ok");
+        assertEquals("ok", other.get());
+        assertEquals(2.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+        assertEquals(0.0, gauge(IN_FLIGHT_GAUGE_NAME, OTHER_HOST));
+    }
+
+    @Test
+    void testCancelledWaitingRequestIsNotSent() {
+        execute(SLOW_HOST);
+        execute(SLOW_HOST);
+        AtomicReference<String> result = new AtomicReference<>();
+        Cancellable waiting = bulkhead.execute(SLOW_HOST, this::send).subscribe().with(result::set);
+        waiting.cancel();
+        assertEquals(0.0, gauge(QUEUED_GAUGE_NAME, SLOW_HOST));
+
+        sent.get(0).complete("ok");
+        assertEquals(2, sent.size());
+        assertEquals(1.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+        assertNull(result.get());
+    }
+
+    @Test
+    void testCancelledRunningRequestReleasesItsSlot() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Cancellable running = bulkhead.execute(SLOW_HOST, () -> send().onCancellation().invoke(() -> cancelled.set(true)))
+                .subscribe().with(ignored -> { });
+        execute(SLOW_HOST);
+        AtomicReference<String> deferred = execute(SLOW_HOST);
+        running.cancel();
+
+        // The request is cancelled downstream and its slot goes to the waiting request.
+        assertTrue(cancelled.get());
+        assertEquals(3, sent.size());
+        assertEquals(2.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+        assertEquals(0.0, gauge(QUEUED_GAUGE_NAME, SLOW_HOST));
+        sent.get(2).complete("ok");
+        assertEquals("ok", deferred.get());
+        sent.get(1).complete("ok");
+        assertEquals(0.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+    }
+
+    @Test
+    void testUnknownHostsShareTheirMeters() {
+        execute("first.example.org");
+        execute("second.example.org");
+        execute("hooks." + SLOW_HOST);
+
+        assertEquals(2.0, gauge(IN_FLIGHT_GAUGE_NAME, OTHER_HOSTS));
+        assertEquals(1.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+        assertEquals(2, registry.find(IN_FLIGHT_GAUGE_NAME).gauges().size());
+    }
+
+    @Test
+    void testIdleCompartmentsAreEvicted() {
+        execute(SLOW_HOST);
+        execute(OTHER_HOST);
+        assertEquals(2, bulkhead.compartments.size());
+
+        sent.get(0).complete("ok");
+        assertEquals(Set.of(OTHER_HOST), bulkhead.compartments.keySet());
+        sent.get(1).fail(new RuntimeException("Timeout"));
+        assertTrue(bulkhead.compartments.isEmpty());
+
+        // The host gets a new compartment when it's used again.
+        AtomicReference<String> result = execute(SLOW_HOST);
+        assertEquals(1.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+        sent.get(2).complete("ok");
+        assertEquals("ok", result.get());
+        assertEquals(0.0, gauge(IN_FLIGHT_GAUGE_NAME, SLOW_HOST));
+        assertTrue(bulkhead.compartments.isEmpty());
+    }
+
+    private AtomicReference<String> execute(String host) {
+        AtomicReference<String> result = new AtomicReference<>();
+        bulkhead.execute(host, this::send).subscribe().with(result::set, failure -> { });
+        return result;
+    }
+
+    private Uni<String> send() {
+        return Uni.createFrom().emitter(sent::add);
+    }
+
+    private double gauge(String name, String host) {
+        return registry.get(name).tag(HOST_TAG, host).gauge().value();
+    }
+}
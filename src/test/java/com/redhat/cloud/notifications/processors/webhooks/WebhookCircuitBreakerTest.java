@@ -0,0 +1,151 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.models.Endpoint;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookCircuitBreaker.OPENED_COUNTER_NAME;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookCircuitBreaker.OPEN_GAUGE_NAME;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookCircuitBreaker.SKIPPED_COUNTER_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WebhookCircuitBreakerTest {
+
+    private static final UUID ENDPOINT_ID = UUID.randomUUID();
+
+    private final WebhookCircuitBreaker breaker = new WebhookCircuitBreaker();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicLong now = new AtomicLong();
+
+    @BeforeEach
+    void init() {
+        breaker.enabled = true;
+        breaker.failureThreshold = 3;
+        breaker.failureRate = 0.5;
+        breaker.windowSize = 4;
+        breaker.openDuration = Duration.ofSeconds(60L);
+        breaker.halfOpenProbes = 1;
+        breaker.endpointResources = mock(EndpointResources.class);
+        breaker.registry = registry;
+        breaker.nanoTime = now::get;
+        breaker.init();
+
+        when(breaker.endpointResources.disableEndpoint(anyString(), any(UUID.class))).thenReturn(Uni.createFrom().item(Boolean.TRUE));
+    }
+
+    @Test
+    void testDisabled() {
+        breaker.enabled = false;
+        for (int i = 0; i < 10; i++) {
+            assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+            breaker.record(ENDPOINT_ID, false);
+        }
+    }
+
+    @Test
+    void testOpensAfterConsecutiveFailures() {
+        deliver(false);
+        deliver(false);
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        breaker.record(ENDPOINT_ID, false);
+
+        assertFalse(breaker.tryAcquire(ENDPOINT_ID));
+        assertFalse(breaker.tryAcquire(ENDPOINT_ID));
+        assertEquals(1.0, registry.counter(OPENED_COUNTER_NAME).count());
+        assertEquals(2.0, registry.counter(SKIPPED_COUNTER_NAME).count());
+        assertEquals(1.0, registry.get(OPEN_GAUGE_NAME).gauge().value());
+        // Other endpoints are not affected.
+        assertTrue(breaker.tryAcquire(UUID.randomUUID()));
+    }
+
+    @Test
+    void testOpensOnFailureRate() {
+        deliver(true);
+        deliver(false);
+        deliver(true);
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        breaker.record(ENDPOINT_ID, false);
+        assertFalse(breaker.tryAcquire(ENDPOINT_ID));
+    }
+
+    @Test
+    void testHalfOpenProbeClosesTheCircuit() {
+        open();
+        now.addAndGet(Duration.ofSeconds(61L).toNanos());
+
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        // Only one probe at a time.
+        assertFalse(breaker.tryAcquire(ENDPOINT_ID));
+        breaker.record(ENDPOINT_ID, true);
+
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        assertEquals(0.0, registry.get(OPEN_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void testFailedProbesDisableTheEndpoint() {
+        breaker.disableAfter = 2;
+        Endpoint endpoint = new Endpoint();
+        endpoint.setId(ENDPOINT_ID);
+        endpoint.setAccountId("tenant");
+
+        open();
+        breaker.persistState(endpoint).await().indefinitely();
+        verify(breaker.endpointResources, never()).disableEndpoint(anyString(), any(UUID.class));
+
+        now.addAndGet(Duration.ofSeconds(61L).toNanos());
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        breaker.record(ENDPOINT_ID, false);
+        assertFalse(breaker.tryAcquire(ENDPOINT_ID));
+        assertEquals(2.0, registry.counter(OPENED_COUNTER_NAME).count());
+        assertTrue(breaker.hasStateToPersist(ENDPOINT_ID));
+
+        breaker.persistState(endpoint).await().indefinitely();
+        verify(breaker.endpointResources).disableEndpoint("tenant", ENDPOINT_ID);
+        assertFalse(breaker.hasStateToPersist(ENDPOINT_ID));
+        assertEquals(0.0, registry.get(OPEN_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void testCancelledProbeIsReleased() {
+        open();
+        now.addAndGet(Duration.ofSeconds(61L).toNanos());
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        assertFalse(breaker.tryAcquire(ENDPOINT_ID));
+
+        // The probe was cancelled without any outcome, another delivery can probe the endpoint.
+        breaker.release(ENDPOINT_ID);
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        breaker.record(ENDPOINT_ID, true);
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+    }
+
+    private void open() {
+        for (int i = 0; i < breaker.failureThreshold; i++) {
+            deliver(false);
+        }
+        assertFalse(breaker.tryAcquire(ENDPOINT_ID));
+    }
+
+    private void deliver(boolean success) {
+        assertTrue(breaker.tryAcquire(ENDPOINT_ID));
+        breaker.record(ENDPOINT_ID, success);
+    }
+}
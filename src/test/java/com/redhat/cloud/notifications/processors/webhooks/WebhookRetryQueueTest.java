@@ -0,0 +1,197 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.db.WebhookRetryResources;
+import com.redhat.cloud.notifications.events.NotificationHistoryWriter;
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.Notification;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.models.WebhookRetry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import io.vertx.mutiny.core.buffer.Buffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookRetryQueue.ATTEMPT_DETAIL;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookRetryQueue.EXHAUSTED_COUNTER_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WebhookRetryQueueTest {
+
+    private static final String ACCOUNT_ID = "tenant";
+
+    private final WebhookRetryQueue queue = new WebhookRetryQueue();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // Emitters of the webhook requests which were sent, they complete the requests when the test decides to.
+    private final List<UniEmitter<? super NotificationHistory>> sent = new ArrayList<>();
+    private final List<NotificationHistory> histories = new ArrayList<>();
+
+    @BeforeEach
+    void init() {
+        queue.enabled = true;
+        queue.maxAttempts = 3;
+        queue.initialBackoff = Duration.ofSeconds(10L);
+        queue.maxBackoff = Duration.ofMinutes(1L);
+        queue.batchSize = 10;
+        queue.concurrency = 10;
+        queue.endpointConcurrency = 1;
+        queue.lease = Duration.ofMinutes(5L);
+        queue.retryResources = mock(WebhookRetryResources.class);
+        queue.endpointResources = mock(EndpointResources.class);
+        queue.webhooks = mock(WebhookTypeProcessor.class);
+        queue.historyWriter = mock(NotificationHistoryWriter.class);
+        queue.circuitBreaker = new WebhookCircuitBreaker();
+        queue.registry = registry;
+        queue.init();
+
+        when(queue.retryResources.createRetry(any(WebhookRetry.class), any(LocalDateTime.class), any(LocalDateTime.class))).thenReturn(Uni.createFrom().voidItem());
+        when(queue.retryResources.rescheduleRetry(any(UUID.class), anyInt(), any(LocalDateTime.class))).thenReturn(Uni.createFrom().voidItem());
+        when(queue.retryResources.deleteRetry(any(UUID.class))).thenReturn(Uni.createFrom().voidItem());
+        when(queue.webhooks.deliver(any(Notification.class), any())).thenAnswer(invocation -> Uni.createFrom().emitter(sent::add));
+        when(queue.historyWriter.write(any(NotificationHistory.class))).thenAnswer(invocation -> {
+            NotificationHistory history = invocation.getArgument(0);
+            histories.add(history);
+            return Uni.createFrom().item(history);
+        });
+    }
+
+    @Test
+    void testOnlyTemporaryFailuresAreScheduled() {
+        Endpoint endpoint = endpoint();
+        Action action = new Action();
+        action.setAccountId(ACCOUNT_ID);
+        Notification item = new Notification(action, endpoint);
+        Buffer payload = Buffer.buffer("{}");
+
+        schedule(item, history(true, Map.of("code", 200)), payload);
+        schedule(item, history(false, Map.of("code", 400)), payload);
+        verify(queue.retryResources, never()).createRetry(any(WebhookRetry.class), any(LocalDateTime.class), any(LocalDateTime.class));
+
+        schedule(item, history(false, Map.of("code", 503)), payload);
+        schedule(item, history(false, Map.of("error_message", "Connection refused")), payload);
+        verify(queue.retryResources, times(2)).createRetry(any(WebhookRetry.class), any(LocalDateTime.class), any(LocalDateTime.class));
+    }
+
+    @Test
+    void testBackoff() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(Duration.ofSeconds(5L), Duration.ofSeconds(10L), queue.backoff(1));
+            assertBetween(Duration.ofSeconds(20L), Duration.ofSeconds(40L), queue.backoff(3));
+            assertBetween(Duration.ofSeconds(30L), Duration.ofMinutes(1L), queue.backoff(50));
+        }
+    }
+
+    @Test
+    void testRedriveOutcomes() {
+        Endpoint endpoint = endpoint();
+        WebhookRetry succeeded = retry(endpoint, 1);
+        WebhookRetry failed = retry(endpoint, 1);
+        WebhookRetry exhausted = retry(endpoint, 2);
+        queue.endpointConcurrency = 3;
+        claim(List.of(endpoint), succeeded, failed, exhausted);
+
+        AtomicReference<Integer> count = new AtomicReference<>();
+        queue.redrive().subscribe().with(count::set);
+        assertEquals(3, sent.size());
+        sent.get(0).complete(history(true, null));
+        sent.get(1).complete(history(false, Map.of("code", 503)));
+        sent.get(2).complete(history(false, Map.of("code", 503)));
+
+        assertEquals(3, count.get());
+        verify(queue.retryResources).deleteRetry(succeeded.getId());
+        verify(queue.retryResources).rescheduleRetry(eq(failed.getId()), eq(2), any(LocalDateTime.class));
+        verify(queue.retryResources).deleteRetry(exhausted.getId());
+        assertEquals(1.0, registry.counter(EXHAUSTED_COUNTER_NAME).count());
+
+        assertEquals(3, histories.size());
+        assertEquals(2, histories.get(0).getDetails().get(ATTEMPT_DETAIL));
+        assertEquals(3, histories.get(2).getDetails().get(ATTEMPT_DETAIL));
+    }
+
+    @Test
+    void testEndpointConcurrency() {
+        Endpoint slow = endpoint();
+        Endpoint other = endpoint();
+        claim(List.of(slow, other), retry(slow, 1), retry(slow, 1), retry(other, 1));
+
+        queue.redrive().subscribe().with(ignored -> { });
+        // One request for each endpoint.
+        assertEquals(2, sent.size());
+        sent.get(0).complete(history(true, null));
+        assertEquals(3, sent.size());
+    }
+
+    @Test
+    void testDisabledEndpointRetriesAreDropped() {
+        Endpoint endpoint = endpoint();
+        WebhookRetry retry = retry(endpoint, 1);
+        claim(List.of(), retry);
+
+        assertEquals(1, queue.redrive().await().indefinitely());
+        assertTrue(sent.isEmpty());
+        assertTrue(histories.isEmpty());
+        verify(queue.retryResources).deleteRetry(retry.getId());
+    }
+
+    @Test
+    void testIsRetriable() {
+        assertFalse(WebhookRetryQueue.isRetriable(history(true, null)));
+        assertFalse(WebhookRetryQueue.isRetriable(history(false, Map.of("code", 404))));
+        assertTrue(WebhookRetryQueue.isRetriable(history(false, Map.of("code", 500))));
+        assertTrue(WebhookRetryQueue.isRetriable(history(false, Map.of("timeout", "request"))));
+        assertFalse(WebhookRetryQueue.isRetriable(history(false, Map.of("circuit_breaker", "open"))));
+    }
+
+    private void schedule(Notification item, NotificationHistory history, Buffer payload) {
+        queue.schedule(item, history, payload).await().indefinitely();
+    }
+
+    private void claim(List<Endpoint> enabledEndpoints, WebhookRetry... retries) {
+        when(queue.retryResources.claimRetries(any(LocalDateTime.class), any(LocalDateTime.class), eq(10))).thenReturn(Uni.createFrom().item(List.of(retries)));
+        when(queue.endpointResources.getEnabledEndpoints(anyCollection())).thenReturn(Uni.createFrom().item(enabledEndpoints));
+    }
+
+    private static void assertBetween(Duration min, Duration max, Duration actual) {
+        assertTrue(actual.compareTo(min) >= 0 && actual.compareTo(max) <= 0, actual + " is not between " + min + " and " + max);
+    }
+
+    private static Endpoint endpoint() {
+        Endpoint endpoint = new Endpoint();
+        endpoint.setId(UUID.randomUUID());
+        endpoint.setAccountId(ACCOUNT_ID);
+        return endpoint;
+    }
+
+    private static WebhookRetry retry(Endpoint endpoint, int attempts) {
+        return new WebhookRetry(UUID.randomUUID(), ACCOUNT_ID, endpoint.getId(), "{}", attempts);
+    }
+
+    private static NotificationHistory history(boolean result, Map<String, Object> details) {
+        NotificationHistory history = new NotificationHistory();
+        history.setInvocationResult(result);
+        history.setDetails(details);
+        return history;
+    }
+}
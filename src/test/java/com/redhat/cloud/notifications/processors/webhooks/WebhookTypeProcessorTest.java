@@ -0,0 +1,214 @@
+package com.redhat.cloud.notifications.processors.webhooks;
+
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.models.Endpoint;
+import com.redhat.cloud.notifications.models.HttpType;
+import com.redhat.cloud.notifications.models.Notification;
+import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.models.WebhookProperties;
+import com.redhat.cloud.notifications.processors.webclient.ClientRequestTracker;
+import com.redhat.cloud.notifications.processors.webhooks.CappedBodyCodec.CappedBody;
+import com.redhat.cloud.notifications.transformers.ActionPayload;
+import com.redhat.cloud.notifications.transformers.BaseTransformer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.ConnectTimeoutException;
+import io.smallrye.mutiny.TimeoutException;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.http.HttpServer;
+import io.vertx.mutiny.ext.web.client.HttpRequest;
+import io.vertx.mutiny.ext.web.client.WebClient;
+import io.vertx.mutiny.ext.web.codec.BodyCodec;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+import static com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor.OTHER_HOSTS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WebhookTypeProcessorTest {
+
+    @Test
+    void testHostBucket() {
+        List<String> knownHosts = List.of("hooks.slack.com", "example.com");
+        assertEquals("hooks.slack.com", WebhookTypeProcessor.getHostBucket("hooks.slack.com", knownHosts));
+        assertEquals("example.com", WebhookTypeProcessor.getHostBucket("siem.EXAMPLE.com", knownHosts));
+        assertEquals(OTHER_HOSTS, WebhookTypeProcessor.getHostBucket("notexample.com", knownHosts));
+        assertEquals(OTHER_HOSTS, WebhookTypeProcessor.getHostBucket("localhost", List.of()));
+        assertEquals(OTHER_HOSTS, WebhookTypeProcessor.getHostBucket(null, knownHosts));
+    }
+
+    @Test
+    void testFailureOutcome() {
+        assertEquals("timeout", WebhookTypeProcessor.getFailureOutcome(new TimeoutException()));
+        assertEquals("timeout", WebhookTypeProcessor.getFailureOutcome(new java.util.concurrent.TimeoutException()));
+        assertEquals("timeout", WebhookTypeProcessor.getFailureOutcome(new ConnectTimeoutException()));
+        assertEquals("connect_error", WebhookTypeProcessor.getFailureOutcome(new ConnectException("Connection refused")));
+        assertEquals("connect_error", WebhookTypeProcessor.getFailureOutcome(new UnknownHostException("unknown")));
+        assertEquals("rejected", WebhookTypeProcessor.getFailureOutcome(new RejectedExecutionException()));
+        assertEquals("error", WebhookTypeProcessor.getFailureOutcome(new IllegalStateException()));
+    }
+
+    @Test
+    void testTimedOutRequestClosesItsConnection() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try {
+            CompletableFuture<Void> connectionClosed = new CompletableFuture<>();
+            // The server starts the response but never ends it.
+            HttpServer server = vertx.createHttpServer()
+                    .requestHandler(request -> {
+                        request.connection().closeHandler(ignored -> connectionClosed.complete(null));
+                        request.response().setChunked(true).writeAndForget("{");
+                    })
+                    .listen(0).await().indefinitely();
+
+            WebhookTypeProcessor processor = new WebhookTypeProcessor(new SimpleMeterRegistry());
+            processor.vertx = vertx;
+            WebClient client = ClientRequestTracker.install(WebClient.create(vertx));
+            HttpRequest<CappedBody> req = client.post(server.actualPort(), "localhost", "/")
+                    .as(BodyCodec.newInstance(new CappedBodyCodec(1024)));
+
+            assertThrows(TimeoutException.class, () ->
+                    processor.send(req, Buffer.buffer("{}"), Optional.of(Duration.ofMillis(200L))).await().atMost(Duration.ofSeconds(5L))
+            );
+            // The request was reset, the pooled connection is not kept busy by the abandoned response.
+            connectionClosed.get(5L, TimeUnit.SECONDS);
+        } finally {
+            vertx.closeAndAwait();
+        }
+    }
+
+    @Test
+    void testRejectedAndClientErrorsDontOpenTheCircuit() {
+        Vertx vertx = Vertx.vertx();
+        try {
+            AtomicInteger status = new AtomicInteger(404);
+            HttpServer server = vertx.createHttpServer()
+                    .requestHandler(request -> request.response().setStatusCode(status.get()).endAndForget())
+                    .listen(0).await().indefinitely();
+
+            AtomicBoolean rejected = new AtomicBoolean();
+            WebhookTypeProcessor processor = new WebhookTypeProcessor(new SimpleMeterRegistry());
+            processor.vertx = vertx;
+            processor.securedWebClient = ClientRequestTracker.install(WebClient.create(vertx));
+            processor.requestTimeout = Optional.empty();
+            processor.idleTimeout = Optional.empty();
+            processor.metricsHosts = Optional.empty();
+            processor.responseBodyMaxSize = 1024;
+            processor.bulkhead = mock(WebhookBulkhead.class);
+            when(processor.bulkhead.execute(anyString(), any())).thenAnswer(invocation -> {
+                if (rejected.get()) {
+                    return Uni.createFrom().failure(new RejectedExecutionException());
+                }
+                Supplier<Uni<?>> call = invocation.getArgument(1);
+                return call.get();
+            });
+            processor.circuitBreaker = new WebhookCircuitBreaker();
+            processor.circuitBreaker.enabled = true;
+            processor.circuitBreaker.failureThreshold = 2;
+            processor.circuitBreaker.failureRate = 0.5;
+            processor.circuitBreaker.windowSize = 4;
+            processor.circuitBreaker.openDuration = Duration.ofMinutes(1L);
+            processor.circuitBreaker.halfOpenProbes = 1;
+            processor.circuitBreaker.registry = new SimpleMeterRegistry();
+            processor.circuitBreaker.init();
+
+            WebhookProperties properties = new WebhookProperties();
+            properties.setMethod(HttpType.POST);
+            properties.setUrl("http://localhost:" + server.actualPort() + "/");
+            properties.setDisableSslVerification(false);
+            properties.setGzip(false);
+            Endpoint endpoint = new Endpoint();
+            endpoint.setId(UUID.randomUUID());
+            endpoint.setProperties(properties);
+            Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+            Notification item = new Notification(action, endpoint);
+            ActionPayload payload = new BaseTransformer().prepare(action);
+
+            for (int i = 0; i < 5; i++) {
+                assertFalse(processor.deliver(item, payload).await().indefinitely().isInvocationResult());
+            }
+            rejected.set(true);
+            for (int i = 0; i < 5; i++) {
+                assertFalse(processor.deliver(item, payload).await().indefinitely().isInvocationResult());
+            }
+            assertTrue(processor.circuitBreaker.tryAcquire(endpoint.getId()));
+            processor.circuitBreaker.release(endpoint.getId());
+
+            // The server errors open the circuit.
+            rejected.set(false);
+            status.set(503);
+            processor.deliver(item, payload).await().indefinitely();
+            processor.deliver(item, payload).await().indefinitely();
+            assertFalse(processor.circuitBreaker.tryAcquire(endpoint.getId()));
+        } finally {
+            vertx.closeAndAwait();
+        }
+    }
+
+    @Test
+    void testMissingFlagsSendAnUncompressedBody() {
+        Vertx vertx = Vertx.vertx();
+        try {
+            CompletableFuture<String> contentEncoding = new CompletableFuture<>();
+            HttpServer server = vertx.createHttpServer()
+                    .requestHandler(request -> {
+                        contentEncoding.complete(String.valueOf(request.getHeader("Content-Encoding")));
+                        request.response().setStatusCode(200).endAndForget();
+                    })
+                    .listen(0).await().indefinitely();
+
+            WebhookTypeProcessor processor = new WebhookTypeProcessor(new SimpleMeterRegistry());
+            processor.vertx = vertx;
+            processor.securedWebClient = ClientRequestTracker.install(WebClient.create(vertx));
+            processor.requestTimeout = Optional.empty();
+            processor.idleTimeout = Optional.empty();
+            processor.metricsHosts = Optional.empty();
+            processor.responseBodyMaxSize = 1024;
+            processor.bulkhead = mock(WebhookBulkhead.class);
+            when(processor.bulkhead.execute(anyString(), any())).thenAnswer(invocation -> {
+                Supplier<Uni<?>> call = invocation.getArgument(1);
+                return call.get();
+            });
+            processor.circuitBreaker = new WebhookCircuitBreaker();
+
+            // The flags of the endpoints stored before they existed are null.
+            WebhookProperties properties = new WebhookProperties();
+            properties.setMethod(HttpType.POST);
+            properties.setUrl("http://localhost:" + server.actualPort() + "/");
+            properties.setDisableSslVerification(null);
+            properties.setGzip(null);
+            Endpoint endpoint = new Endpoint();
+            endpoint.setId(UUID.randomUUID());
+            endpoint.setProperties(properties);
+            Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+
+            NotificationHistory history = processor.deliver(new Notification(action, endpoint), new BaseTransformer().prepare(action))
+                    .await().atMost(Duration.ofSeconds(5L));
+            assertTrue(history.isInvocationResult());
+            assertEquals("null", contentEncoding.getNow("missing"));
+        } finally {
+            vertx.closeAndAwait();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.redhat.cloud.notifications.transformers;
+
+import com.redhat.cloud.notifications.ingress.Action;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+
+/**
+ * Measures the cost of building the webhook payloads of an event depending on the number of webhooks it is sent to.
+ * The {@code gc.alloc.rate.norm} result is the allocation per event. This is not run with the tests, start it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.redhat.cloud.notifications.transformers.ActionPayloadBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActionPayloadBenchmark {
+
+    @Param({"1", "5", "20"})
+    public int fanOut;
+
+    private BaseTransformer transformer;
+    private Action action;
+
+    @Setup
+    public void setup() {
+        transformer = new BaseTransformer();
+        action = createPoliciesAction("tenant", "rhel", "policies", "host");
+    }
+
+    // What the webhook processor used to do: one transformation and one encoding per endpoint.
+    @Benchmark
+    public void perEndpoint(Blackhole blackhole) {
+        for (int i = 0; i < fanOut; i++) {
+            Buffer buffer = transformer.transform(action).await().indefinitely().toBuffer();
+            blackhole.consume(buffer);
+        }
+    }
+
+    @Benchmark
+    public void perAction(Blackhole blackhole) {
+        ActionPayload payload = transformer.prepare(action);
+        for (int i = 0; i < fanOut; i++) {
+            blackhole.consume(payload.getBuffer());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ActionPayloadBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,76 @@
+package com.redhat.cloud.notifications.transformers;
+
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.models.Notification;
+import io.vertx.core.json.JsonObject;
+import io.vertx.mutiny.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class ActionPayloadTest {
+
+    private final BaseTransformer transformer = new BaseTransformer();
+
+    @Test
+    void testPayloadIsTransformedOnce() {
+        AtomicInteger transformations = new AtomicInteger();
+        ActionPayload payload = new ActionPayload(() -> {
+            transformations.incrementAndGet();
+            return new JsonObject().put("key", "value");
+        });
+        assertEquals(0, transformations.get());
+
+        assertSame(payload.getBuffer(), payload.getBuffer());
+        assertSame(payload.getJson(), payload.getJson());
+        assertEquals(1, transformations.get());
+        assertEquals("{\"key\":\"value\"}", payload.getBuffer().toString());
+    }
+
+    @Test
+    void testPayloadMatchesTransformedAction() {
+        Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        JsonObject expected = transformer.transform(action).await().indefinitely();
+        assertEquals(expected, transformer.prepare(action).getJson());
+        assertEquals(expected, new JsonObject(transformer.prepare(action).getBuffer().getDelegate()));
+    }
+
+    @Test
+    void testNotificationsShareTheActionPayload() {
+        Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        ActionPayload payload = transformer.prepare(action);
+        assertSame(payload, transformer.payloadOf(new Notification(action, null, payload)));
+        assertNotSame(payload, transformer.payloadOf(new Notification(action, null)));
+    }
+
+    @Test
+    void testGzipBufferIsCompressedOnce() throws IOException {
+        Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        ActionPayload payload = transformer.prepare(action);
+        assertSame(payload.getGzipBuffer(), payload.getGzipBuffer());
+        assertEquals(payload.getBuffer(), gunzip(payload.getGzipBuffer()));
+    }
+
+    @Test
+    void testEncodedPayload() {
+        Buffer buffer = Buffer.buffer("{\"key\":\"value\"}");
+        ActionPayload payload = ActionPayload.encoded(buffer);
+        assertSame(buffer.getDelegate(), payload.getBuffer().getDelegate());
+        assertEquals(new JsonObject().put("key", "value"), payload.getJson());
+    }
+
+    private static Buffer gunzip(Buffer buffer) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(buffer.getBytes()))) {
+            return Buffer.buffer(in.readAllBytes());
+        }
+    }
+}
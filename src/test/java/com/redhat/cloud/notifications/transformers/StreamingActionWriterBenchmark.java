@@ -0,0 +1,81 @@
+package com.redhat.cloud.notifications.transformers;
+
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.ingress.Event;
+import com.redhat.cloud.notifications.ingress.Metadata;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+
+/**
+ * Compares the encoding of the webhook payload through a JSON object and with the streaming writer, for actions with
+ * an increasing number of events. This is not run with the tests, start it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.redhat.cloud.notifications.transformers.StreamingActionWriterBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamingActionWriterBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int events;
+
+    private BaseTransformer transformer;
+    private StreamingActionWriter writer;
+    private Action action;
+
+    @Setup
+    public void setup() {
+        transformer = new BaseTransformer();
+        writer = new StreamingActionWriter();
+        action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        Map<String, Object> payload = action.getEvents().get(0).getPayload();
+        List<Event> actionEvents = new ArrayList<>();
+        for (int i = 0; i < events; i++) {
+            actionEvents.add(Event.newBuilder().setMetadataBuilder(Metadata.newBuilder()).setPayload(payload).build());
+        }
+        action.setEvents(actionEvents);
+    }
+
+    @Benchmark
+    public Buffer jsonObject() {
+        return transformer.toJsonObject(action).toBuffer();
+    }
+
+    @Benchmark
+    public Buffer streaming() {
+        return writer.write(action);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(StreamingActionWriterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,95 @@
+package com.redhat.cloud.notifications.transformers;
+
+import com.redhat.cloud.notifications.ingress.Action;
+import com.redhat.cloud.notifications.ingress.Event;
+import com.redhat.cloud.notifications.ingress.Metadata;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.redhat.cloud.notifications.TestHelpers.createAdvisorAction;
+import static com.redhat.cloud.notifications.TestHelpers.createAdvisorOpenshiftAction;
+import static com.redhat.cloud.notifications.TestHelpers.createPoliciesAction;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class StreamingActionWriterTest {
+
+    private final BaseTransformer transformer = new BaseTransformer();
+    private final StreamingActionWriter writer = new StreamingActionWriter();
+
+    @Test
+    void testOutputMatchesJsonObjectEncoding() {
+        assertSameOutput(createPoliciesAction("tenant", "rhel", "policies", "host"));
+        assertSameOutput(createAdvisorAction("tenant", "new-recommendation"));
+        assertSameOutput(createAdvisorOpenshiftAction("tenant", "new-recommendation"));
+    }
+
+    @Test
+    void testValueTypes() {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("list", List.of(1, "two", 3.5, Map.of("four", 4L)));
+        nested.put("null", null);
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("string", "quote \" and unicode \u00e9\u2603");
+        payload.put("int", 1);
+        payload.put("long", Long.MAX_VALUE);
+        payload.put("double", 0.1);
+        payload.put("float", 1.1f);
+        payload.put("decimal", new BigDecimal("1.10"));
+        payload.put("boolean", true);
+        payload.put("bytes", new byte[] {1, 2, 3});
+        payload.put("nested", nested);
+
+        Action action = buildAction(payload, payload);
+        assertSameOutput(action);
+
+        // Empty and missing values.
+        assertSameOutput(buildAction(new HashMap<>(), null));
+    }
+
+    @Test
+    void testManyEvents() {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            events.add(Event.newBuilder().setMetadataBuilder(Metadata.newBuilder()).setPayload(Map.of("index", i)).build());
+        }
+        Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        action.setEvents(events);
+        assertSameOutput(action);
+    }
+
+    @Test
+    void testStreamingMode() {
+        Action action = createPoliciesAction("tenant", "rhel", "policies", "host");
+        transformer.streaming = true;
+        ActionPayload payload = transformer.prepare(action);
+        assertEquals(transformer.transform(action).await().indefinitely().toBuffer(), payload.getBuffer().getDelegate());
+        assertSame(payload.getBuffer(), payload.getBuffer());
+    }
+
+    private void assertSameOutput(Action action) {
+        String expected = transformer.transform(action).await().indefinitely().toBuffer().toString();
+        assertEquals(expected, writer.write(action).toString());
+    }
+
+    private static Action buildAction(Map<String, Object> payload, Map<String, Object> context) {
+        Action action = new Action();
+        action.setBundle("rhel");
+        action.setApplication("policies");
+        action.setEventType("policy-triggered");
+        action.setAccountId("tenant");
+        action.setTimestamp(LocalDateTime.of(2021, 5, 6, 7, 8, 9, 123000000));
+        action.setEvents(List.of(
+                Event.newBuilder().setMetadataBuilder(Metadata.newBuilder()).setPayload(payload).build()
+        ));
+        action.setContext(context);
+        return action;
+    }
+}